@@ -0,0 +1,425 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.Random;
+
+/**
+ * Boids flocking simulation. Boids live inside a cube of [-1, 1] on every
+ * axis and steer by separation, alignment and cohesion rules computed from
+ * their neighbors. Neighbors are found through a uniform grid stored as a
+ * spatial hash, meaning cost grows linearly with flock size. All memory is
+ * allocated in constructor and large flocks are split between shared worker
+ * threads. This class has no Android dependencies.
+ */
+public final class FlierBoids {
+
+	// Steering weights.
+	private static final float WEIGHT_ALIGNMENT = 1.5f,
+			WEIGHT_BOUNDS = 4f, WEIGHT_COHESION = 1f,
+			WEIGHT_SEPARATION = .02f;
+	// Distance from center after which boids are steered back.
+	private static final float BOUNDS = .8f;
+	// Neighbor radius, also used as grid cell size.
+	private static final float NEIGHBOR_RADIUS = .2f;
+	// Maximum number of neighbors considered per boid.
+	private static final int MAX_NEIGHBORS = 12;
+	// Minimum number of boids per thread before work is split.
+	private static final int MIN_BOIDS_PER_THREAD = 128;
+	// Speed limits in units per second.
+	private static final float MIN_SPEED = .2f, MAX_SPEED = .5f;
+
+	// Shared worker pool, created once per process.
+	private static WorkerPool sWorkerPool;
+
+	// Number of boids in grid cells, indexed by hash.
+	private final int[] mCellCounts;
+	// Start index of each cell within sorted boid array.
+	private final int[] mCellStarts;
+	// Hash of cell each boid is in.
+	private final int[] mBoidCells;
+	// Number of active boids.
+	private int mCount;
+	// Boid positions as consecutive x, y, z values.
+	private final float[] mPositions;
+	// Random generator for spawning boids.
+	private final Random mRandom = new Random(1);
+	// Boid indices sorted by cell.
+	private final int[] mSortedBoids;
+	// Time step of current update.
+	private float mStepSeconds;
+	// Boid velocities as consecutive x, y, z values.
+	private float[] mVelocities;
+	// Velocities being calculated during step.
+	private float[] mVelocitiesNext;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param maxCount
+	 *            Maximum number of boids.
+	 */
+	public FlierBoids(int maxCount) {
+		int tableSize = 1;
+		while (tableSize < maxCount * 2) {
+			tableSize <<= 1;
+		}
+		mCellCounts = new int[tableSize];
+		mCellStarts = new int[tableSize + 1];
+		mBoidCells = new int[maxCount];
+		mSortedBoids = new int[maxCount];
+		mPositions = new float[maxCount * 3];
+		mVelocities = new float[maxCount * 3];
+		mVelocitiesNext = new float[maxCount * 3];
+	}
+
+	/**
+	 * Calculates hash for grid cell containing given position.
+	 */
+	private int cellHash(float x, float y, float z) {
+		return cellHash((int) Math.floor(x / NEIGHBOR_RADIUS),
+				(int) Math.floor(y / NEIGHBOR_RADIUS),
+				(int) Math.floor(z / NEIGHBOR_RADIUS));
+	}
+
+	/**
+	 * Calculates hash for grid cell coordinates.
+	 */
+	private int cellHash(int cx, int cy, int cz) {
+		return ((cx * 73856093) ^ (cy * 19349663) ^ (cz * 83492791))
+				& (mCellCounts.length - 1);
+	}
+
+	/**
+	 * Getter for number of active boids.
+	 * 
+	 * @return Boid count.
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Getter for boid positions. Returned array must not be modified.
+	 * 
+	 * @return Positions as consecutive x, y, z values.
+	 */
+	public float[] getPositions() {
+		return mPositions;
+	}
+
+	/**
+	 * Getter for boid velocities. Returned array must not be modified.
+	 * 
+	 * @return Velocities as consecutive x, y, z values.
+	 */
+	public float[] getVelocities() {
+		return mVelocities;
+	}
+
+	/**
+	 * Sets number of active boids. New boids are spawned at random positions.
+	 * 
+	 * @param count
+	 *            Boid count, clamped to maximum count.
+	 */
+	public void setCount(int count) {
+		count = Math.max(0, Math.min(mBoidCells.length, count));
+		for (int i = mCount * 3; i < count * 3; i += 3) {
+			for (int j = 0; j < 3; ++j) {
+				mPositions[i + j] = (mRandom.nextFloat() * 2 - 1) * BOUNDS;
+				mVelocities[i + j] = (mRandom.nextFloat() * 2 - 1) * MIN_SPEED;
+			}
+		}
+		mCount = count;
+	}
+
+	/**
+	 * Advances simulation.
+	 * 
+	 * @param stepSeconds
+	 *            Time step in seconds.
+	 */
+	public void step(float stepSeconds) {
+		if (mCount == 0) {
+			return;
+		}
+		mStepSeconds = stepSeconds;
+
+		// Sort boids into grid cells using counting sort.
+		final int[] cellCounts = mCellCounts;
+		final int[] cellStarts = mCellStarts;
+		for (int i = 0; i < cellCounts.length; ++i) {
+			cellCounts[i] = 0;
+		}
+		for (int i = 0; i < mCount; ++i) {
+			int cell = cellHash(mPositions[i * 3], mPositions[i * 3 + 1],
+					mPositions[i * 3 + 2]);
+			mBoidCells[i] = cell;
+			++cellCounts[cell];
+		}
+		cellStarts[0] = 0;
+		for (int i = 0; i < cellCounts.length; ++i) {
+			cellStarts[i + 1] = cellStarts[i] + cellCounts[i];
+			cellCounts[i] = cellStarts[i];
+		}
+		for (int i = 0; i < mCount; ++i) {
+			mSortedBoids[cellCounts[mBoidCells[i]]++] = i;
+		}
+
+		// Calculate new velocities, possibly in parallel.
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+				mCount / MIN_BOIDS_PER_THREAD);
+		if (threads > 1) {
+			getWorkerPool().execute(this, threads);
+		} else {
+			steer(0, mCount);
+		}
+		float[] velocities = mVelocities;
+		mVelocities = mVelocitiesNext;
+		mVelocitiesNext = velocities;
+
+		for (int i = 0; i < mCount * 3; ++i) {
+			mPositions[i] += mVelocities[i] * stepSeconds;
+		}
+	}
+
+	/**
+	 * Calculates new velocities for given range of boids. Reads current
+	 * positions and velocities only, so ranges can be processed in parallel.
+	 * 
+	 * @param start
+	 *            First boid index.
+	 * @param end
+	 *            Boid index after last one.
+	 */
+	private void steer(int start, int end) {
+		final float[] pos = mPositions;
+		final float[] vel = mVelocities;
+		final float[] velNext = mVelocitiesNext;
+		final float radiusSq = NEIGHBOR_RADIUS * NEIGHBOR_RADIUS;
+		final float t = mStepSeconds;
+
+		for (int i = start; i < end; ++i) {
+			float px = pos[i * 3], py = pos[i * 3 + 1], pz = pos[i * 3 + 2];
+			float vx = vel[i * 3], vy = vel[i * 3 + 1], vz = vel[i * 3 + 2];
+			float sepX = 0, sepY = 0, sepZ = 0;
+			float aliX = 0, aliY = 0, aliZ = 0;
+			float cohX = 0, cohY = 0, cohZ = 0;
+			int neighbors = 0;
+
+			int cx = (int) Math.floor(px / NEIGHBOR_RADIUS);
+			int cy = (int) Math.floor(py / NEIGHBOR_RADIUS);
+			int cz = (int) Math.floor(pz / NEIGHBOR_RADIUS);
+			search: for (int dx = -1; dx <= 1; ++dx) {
+				for (int dy = -1; dy <= 1; ++dy) {
+					for (int dz = -1; dz <= 1; ++dz) {
+						int cell = cellHash(cx + dx, cy + dy, cz + dz);
+						for (int k = mCellStarts[cell]; k < mCellStarts[cell + 1]; ++k) {
+							int j = mSortedBoids[k];
+							float ox = pos[j * 3] - px;
+							float oy = pos[j * 3 + 1] - py;
+							float oz = pos[j * 3 + 2] - pz;
+							float distSq = ox * ox + oy * oy + oz * oz;
+							if (j == i || distSq >= radiusSq || distSq == 0) {
+								continue;
+							}
+							sepX -= ox / distSq;
+							sepY -= oy / distSq;
+							sepZ -= oz / distSq;
+							aliX += vel[j * 3];
+							aliY += vel[j * 3 + 1];
+							aliZ += vel[j * 3 + 2];
+							cohX += ox;
+							cohY += oy;
+							cohZ += oz;
+							if (++neighbors == MAX_NEIGHBORS) {
+								break search;
+							}
+						}
+					}
+				}
+			}
+
+			if (neighbors > 0) {
+				float inv = 1f / neighbors;
+				vx += t
+						* (WEIGHT_SEPARATION * sepX + WEIGHT_ALIGNMENT
+								* (aliX * inv - vx) + WEIGHT_COHESION * cohX
+								* inv);
+				vy += t
+						* (WEIGHT_SEPARATION * sepY + WEIGHT_ALIGNMENT
+								* (aliY * inv - vy) + WEIGHT_COHESION * cohY
+								* inv);
+				vz += t
+						* (WEIGHT_SEPARATION * sepZ + WEIGHT_ALIGNMENT
+								* (aliZ * inv - vz) + WEIGHT_COHESION * cohZ
+								* inv);
+			}
+
+			// Steer back towards center once outside bounds.
+			vx -= t * WEIGHT_BOUNDS * (px - Math.max(-BOUNDS, Math.min(BOUNDS, px)));
+			vy -= t * WEIGHT_BOUNDS * (py - Math.max(-BOUNDS, Math.min(BOUNDS, py)));
+			vz -= t * WEIGHT_BOUNDS * (pz - Math.max(-BOUNDS, Math.min(BOUNDS, pz)));
+
+			// Clamp speed.
+			float speed = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+			float scale = 1f;
+			if (speed > MAX_SPEED) {
+				scale = MAX_SPEED / speed;
+			} else if (speed < MIN_SPEED) {
+				scale = speed > 0 ? MIN_SPEED / speed : 0f;
+			}
+			velNext[i * 3] = vx * scale;
+			velNext[i * 3 + 1] = vy * scale;
+			velNext[i * 3 + 2] = vz * scale;
+		}
+	}
+
+	/**
+	 * Returns shared worker pool, creating it on first call.
+	 */
+	private static synchronized WorkerPool getWorkerPool() {
+		if (sWorkerPool == null) {
+			sWorkerPool = new WorkerPool(Runtime.getRuntime()
+					.availableProcessors() - 1);
+		}
+		return sWorkerPool;
+	}
+
+	/**
+	 * Pool of daemon threads processing boid ranges. Calling thread processes
+	 * one range itself and waits for workers to finish the rest.
+	 */
+	private static final class WorkerPool {
+
+		// Boids being processed.
+		private FlierBoids mBoids;
+		// Lock held during whole execution.
+		private final Object mExecuteLock = new Object();
+		// Number of threads processing current round.
+		private int mThreadCount;
+		// Number of workers still processing current round.
+		private int mPending;
+		// Round counter, workers start once it changes.
+		private int mRound;
+
+		/**
+		 * Default constructor.
+		 * 
+		 * @param workerCount
+		 *            Number of worker threads to start.
+		 */
+		public WorkerPool(int workerCount) {
+			for (int i = 0; i < workerCount; ++i) {
+				Worker worker = new Worker(i + 1);
+				worker.setDaemon(true);
+				worker.start();
+			}
+		}
+
+		/**
+		 * Splits boids into given number of ranges and processes them.
+		 * 
+		 * @param boids
+		 *            Boids to process.
+		 * @param threadCount
+		 *            Number of ranges, at most worker count plus one.
+		 */
+		public void execute(FlierBoids boids, int threadCount) {
+			synchronized (mExecuteLock) {
+				synchronized (this) {
+					mBoids = boids;
+					mThreadCount = threadCount;
+					mPending = threadCount - 1;
+					++mRound;
+					notifyAll();
+				}
+				boids.steer(0, boids.mCount / threadCount);
+				boolean interrupted = false;
+				synchronized (this) {
+					while (mPending > 0) {
+						try {
+							wait();
+						} catch (InterruptedException ex) {
+							// Workers are still writing, keep waiting.
+							interrupted = true;
+						}
+					}
+					mBoids = null;
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Worker thread processing one range per round.
+		 */
+		private final class Worker extends Thread {
+
+			// Range index this worker processes.
+			private final int mIndex;
+
+			/**
+			 * Default constructor.
+			 * 
+			 * @param index
+			 *            Range index, zero is reserved for calling thread.
+			 */
+			public Worker(int index) {
+				super("FlierBoidsWorker");
+				mIndex = index;
+			}
+
+			@Override
+			public void run() {
+				int round = 0;
+				for (;;) {
+					FlierBoids boids;
+					int start, end;
+					synchronized (WorkerPool.this) {
+						while (mRound == round) {
+							try {
+								WorkerPool.this.wait();
+							} catch (InterruptedException ex) {
+								return;
+							}
+						}
+						round = mRound;
+						if (mIndex >= mThreadCount) {
+							continue;
+						}
+						boids = mBoids;
+						start = boids.mCount * mIndex / mThreadCount;
+						end = boids.mCount * (mIndex + 1) / mThreadCount;
+					}
+					boids.steer(start, end);
+					synchronized (WorkerPool.this) {
+						if (--mPending == 0) {
+							WorkerPool.this.notifyAll();
+						}
+					}
+				}
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Frame clock shared by all rendering classes. Clock is advanced once per
+ * frame and all animation is based on its values, meaning every layer sees
+ * exactly the same time during a frame. Time step between frames is clamped
+ * so that animation continues smoothly after long pauses instead of jumping
+ * forward. Subclasses may override readNanos() for providing synthetic time
+ * e.g. for benchmarking.
+ */
+public class FlierClock {
+
+	// Maximum time step between two frames.
+	private static final long MAX_STEP_NANOS = 100000000L;
+
+	// Latest raw frame time.
+	private long mFrameTimeNanos;
+	// Flag for indicating clock has not been ticked yet.
+	private boolean mFirstTick = true;
+	// Time step between latest two frames.
+	private long mStepNanos;
+	// Accumulated animation time.
+	private long mTimeNanos;
+
+	/**
+	 * Getter for raw time latest frame was started at.
+	 * 
+	 * @return Frame time in readNanos() time base.
+	 */
+	public final long getFrameTimeNanos() {
+		return mFrameTimeNanos;
+	}
+
+	/**
+	 * Getter for clamped time step between latest two frames.
+	 * 
+	 * @return Time step in seconds.
+	 */
+	public final float getStepSeconds() {
+		return mStepNanos / 1000000000f;
+	}
+
+	/**
+	 * Getter for animation time. Animation time starts from zero and advances
+	 * only by clamped time steps.
+	 * 
+	 * @return Animation time in nanoseconds.
+	 */
+	public final long getTimeNanos() {
+		return mTimeNanos;
+	}
+
+	/**
+	 * Source for raw time values. Default implementation uses
+	 * System.nanoTime().
+	 * 
+	 * @return Current time in nanoseconds.
+	 */
+	protected long readNanos() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Makes next tick a zero step, meaning animation continues from where it
+	 * was paused without skipping ahead. Should be called once rendering
+	 * resumes after a pause.
+	 */
+	public final void resume() {
+		mFirstTick = true;
+	}
+
+	/**
+	 * Advances clock to current time. Should be called once at the beginning
+	 * of every frame.
+	 */
+	public final void tick() {
+		long frameTimeNanos = readNanos();
+		long stepNanos = mFirstTick ? 0 : frameTimeNanos - mFrameTimeNanos;
+		mStepNanos = Math.max(0, Math.min(MAX_STEP_NANOS, stepNanos));
+		mTimeNanos += mStepNanos;
+		mFrameTimeNanos = frameTimeNanos;
+		mFirstTick = false;
+	}
+
+}
@@ -17,20 +17,30 @@
 package fi.harism.wallpaper.flier;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Random;
 
-import android.content.Context;
-import android.graphics.RectF;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
-import android.os.SystemClock;
 
 /**
- * Class for handling cloud manipulation and rendering.
+ * Class for handling cloud manipulation and rendering. Clouds are simulated
+ * in slots which are written into state in fixed order, each slot carrying a
+ * generation counter which changes once cloud is respawned. Rendering side
+ * copies cloud shapes only when generation changes and interpolates
+ * positions otherwise. Cloud points are rendered either as quads discarding
+ * fragments outside circle or as tessellated circles.
  */
-public final class FlierClouds {
-
+public final class FlierClouds implements FlierLayer {
+
+	// Number of segments in tessellated circle.
+	private static final int CIRCLE_SEGMENTS = 24;
+	// Number of floats per cloud in state.
+	private static final int CLOUD_STATE_SIZE = 3 + 3 * FlierConstants.CLOUD_POINT_COUNT;
+	// Generations wrap around before running out of float precision.
+	private static final int MAX_GENERATION = 0xFFFFF;
 	// Maximum point sizes for near and far clipping plane.
 	private static final float MAX_POINTSIZE_NEAR = .2f,
 			MAX_POINTSIZE_FAR = .1f;
@@ -40,24 +50,42 @@ public final class FlierClouds {
 	private static final float X_OFFSET_MULTIPLIER = 2f;
 	// Z near and far clipping planes.
 	private static final float ZNEAR = 1f, ZFAR = 6f;
+	// Z value separating far and mid range clouds.
+	private static final float Z_LAYER_SPLIT = -(ZNEAR + ZFAR) / 2;
 
 	// Projection matrix aspect ratio.
 	private float mAspectRatioX, mAspectRatioY;
-	// Cloud and cloud outline colors.
-	private float[] mCloudColor = new float[3],
-			mCloudOutlineColor = new float[3];
-	// Cloud storage.
+	// Latest aspect ratio published from rendering thread.
+	private volatile float[] mAspectRatioPending;
+	// Rendered clouds sorted by z value.
 	private final StructCloud[] mClouds = new StructCloud[FlierConstants.CLOUD_COUNT];
+	// Number of cloud slots rendered, limited by cloud density.
+	private int mCloudSlotsRendered = FlierConstants.CLOUD_COUNT;
+	// Rendered clouds in slot order.
+	private final StructCloud[] mCloudSlots = new StructCloud[FlierConstants.CLOUD_COUNT];
 	// Projection matrix.
 	private final float[] mProjM = new float[16];
-	// View rectangles for near and far clipping planes.
-	private final RectF mRectNear = new RectF(), mRectFar = new RectF();
-	// Last rendering time.
-	private long mRenderTime;
+	// Temporary vectors for projecting cloud points.
+	private final float[] mVecIn = new float[4], mVecOut = new float[4];
+	// View rectangles for near and far clipping planes, simulation only.
+	private final StructRect mRectNear = new StructRect(),
+			mRectFar = new StructRect();
 	// Shader for rendering points clouds consist of.
 	private final FlierShader mShaderPoint = new FlierShader();
+	// Shader for rendering tessellated points.
+	private final FlierShader mShaderPointMesh = new FlierShader();
+	// Random generator for spawning clouds, used from simulation only.
+	private final Random mRandom;
+	// Aspect ratio simulated clouds were generated for.
+	private float[] mSimAspectRatio;
+	// Simulated clouds in slot order.
+	private final StructCloud[] mSimClouds = new StructCloud[FlierConstants.CLOUD_COUNT];
+	// Flag for rendering tessellated points.
+	private boolean mTessellated;
 	// Point shader vertices.
 	private ByteBuffer mVertices;
+	// Tessellated circle vertices.
+	private final FloatBuffer mVerticesCircle;
 	// X -offset for handling scrolling.
 	private float mXOffset;
 
@@ -65,11 +93,35 @@ public final class FlierClouds {
 	 * Default constructor.
 	 */
 	public FlierClouds() {
+		this(new Random());
+	}
+
+	/**
+	 * Constructor for providing random generator clouds are spawned with.
+	 * Generator with fixed seed produces the same clouds on every run.
+	 * 
+	 * @param random
+	 *            Random generator.
+	 */
+	public FlierClouds(Random random) {
+		mRandom = random;
 		mVertices = ByteBuffer.allocateDirect(4 * 2);
 		mVertices.put(FlierConstants.FULL_QUAD_COORDS).position(0);
 
+		// Circle as triangle fan, center followed by closed rim.
+		mVerticesCircle = ByteBuffer
+				.allocateDirect((CIRCLE_SEGMENTS + 2) * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		mVerticesCircle.put(0f).put(0f);
+		for (int i = 0; i <= CIRCLE_SEGMENTS; ++i) {
+			double angle = 2 * Math.PI * i / CIRCLE_SEGMENTS;
+			mVerticesCircle.put((float) Math.cos(angle)).put(
+					(float) Math.sin(angle));
+		}
+		mVerticesCircle.position(0);
+
 		for (int i = 0; i < mClouds.length; ++i) {
-			mClouds[i] = new StructCloud();
+			mClouds[i] = mCloudSlots[i] = new StructCloud(i);
+			mSimClouds[i] = new StructCloud(i);
 		}
 	}
 
@@ -80,20 +132,22 @@ public final class FlierClouds {
 	 *            Cloud to modify.
 	 */
 	private void genRandCloud(StructCloud cloud) {
-		RectF rect = cloud.mViewRect;
+		StructRect rect = cloud.mViewRect;
+		cloud.mGeneration = cloud.mGeneration % MAX_GENERATION + 1;
 
 		cloud.mZValue = rand(-ZFAR, -ZNEAR);
 		float t = (-cloud.mZValue - ZNEAR) / (ZFAR - ZNEAR);
-		rect.left = mRectNear.left + t * (mRectFar.left - mRectNear.left);
-		rect.right = mRectNear.right + t * (mRectFar.right - mRectNear.right);
-		rect.top = mRectNear.top + t * (mRectFar.top - mRectNear.top);
-		rect.bottom = rect.top * 0.4f;
-
-		cloud.mWidth = rect.width() * 0.2f;
-		cloud.mHeight = rect.height() * 0.2f;
+		rect.mLeft = mRectNear.mLeft + t * (mRectFar.mLeft - mRectNear.mLeft);
+		rect.mRight = mRectNear.mRight + t
+				* (mRectFar.mRight - mRectNear.mRight);
+		rect.mTop = mRectNear.mTop + t * (mRectFar.mTop - mRectNear.mTop);
+		rect.mBottom = rect.mTop * 0.4f;
+
+		cloud.mWidth = (rect.mRight - rect.mLeft) * 0.2f;
+		cloud.mHeight = (rect.mBottom - rect.mTop) * 0.2f;
 		cloud.mSpeed = rand(.3f, .6f);
 
-		float y = rand(rect.bottom, rect.top - cloud.mHeight);
+		float y = rand(rect.mBottom, rect.mTop - cloud.mHeight);
 		float maxPointSz = MAX_POINTSIZE_NEAR + t
 				* (MAX_POINTSIZE_FAR - MAX_POINTSIZE_NEAR);
 
@@ -106,64 +160,130 @@ public final class FlierClouds {
 	}
 
 	/**
-	 * Called from renderer for rendering clouds into scene.
+	 * Generates all simulated clouds for given aspect ratio.
+	 * 
+	 * @param aspectRatioX
+	 *            Projection aspect ratio x.
+	 * @param aspectRatioY
+	 *            Projection aspect ratio y.
 	 */
-	public void onDrawFrame() {
-		// First do animation.
-		boolean needsSorting = false;
-		long renderTime = SystemClock.uptimeMillis();
-		float t = (float) (renderTime - mRenderTime) / 1000;
-		mRenderTime = renderTime;
+	private void genRandClouds(float aspectRatioX, float aspectRatioY) {
+		final float projM[] = new float[16];
+		FlierMatrix.frustumM(projM, 0, -aspectRatioX, aspectRatioX,
+				-aspectRatioY, aspectRatioY, ZNEAR, ZFAR);
+		final float projInvM[] = new float[16];
+		FlierMatrix.invertM(projInvM, 0, projM, 0);
+		unproject(projInvM, mRectNear, -1);
+		unproject(projInvM, mRectFar, 1);
+
+		mRectNear.mRight += X_OFFSET_MULTIPLIER;
+		mRectFar.mRight += X_OFFSET_MULTIPLIER;
+
+		for (StructCloud cloud : mSimClouds) {
+			genRandCloud(cloud);
+			cloud.mXOffset = rand(cloud.mViewRect.mLeft,
+					cloud.mViewRect.mRight);
+		}
+	}
+
+	/**
+	 * Adds regions changed during latest update into damage. Clouds hidden by
+	 * density limit are not rendered and do not damage anything, density
+	 * changes come with new configuration which redraws whole scene anyway.
+	 * 
+	 * @param damage
+	 *            Damage to add regions into.
+	 */
+	@Override
+	public void addDamage(FlierDamage damage) {
 		for (StructCloud cloud : mClouds) {
-			cloud.mXOffset -= t * cloud.mSpeed;
-			if (cloud.mXOffset + cloud.mWidth < cloud.mViewRect.left) {
-				genRandCloud(cloud);
-				cloud.mXOffset = cloud.mViewRect.right + cloud.mWidth;
-				needsSorting = true;
+			if (cloud.mSlot >= mCloudSlotsRendered) {
+				continue;
 			}
+			StructRect bounds = cloud.mBounds, boundsPrev = cloud.mBoundsPrev;
+			damage.add(Math.min(bounds.mLeft, boundsPrev.mLeft),
+					Math.min(bounds.mBottom, boundsPrev.mBottom),
+					Math.max(bounds.mRight, boundsPrev.mRight),
+					Math.max(bounds.mTop, boundsPrev.mTop));
 		}
-		if (needsSorting) {
-			sortClouds();
-		}
+	}
+
+	@Override
+	public int getMaxReduction() {
+		return 1;
+	}
 
+	@Override
+	public int getStateSize() {
+		return FlierConstants.CLOUD_COUNT * CLOUD_STATE_SIZE;
+	}
+
+	/**
+	 * Called from renderer for rendering clouds into scene. Clouds are split
+	 * into far and mid ranges based on their z value. First reduction step
+	 * renders clouds without outlines in a single pass.
+	 */
+	@Override
+	public void onDrawFrame(int ranges, int reduction) {
 		// Get shader ids.
-		mShaderPoint.useProgram();
-		int uModelViewProjM = mShaderPoint.getHandle("uModelViewProjM");
-		int uPointPosition = mShaderPoint.getHandle("uPointPosition");
-		int uPointSize = mShaderPoint.getHandle("uPointSize");
-		int uAspectRatio = mShaderPoint.getHandle("uAspectRatio");
-		int uColor = mShaderPoint.getHandle("uColor");
-		int aPosition = mShaderPoint.getHandle("aPosition");
+		FlierShader shader = mTessellated ? mShaderPointMesh : mShaderPoint;
+		shader.useProgram();
+		int uModelViewProjM = shader.getHandle("uModelViewProjM");
+		int uPointPosition = shader.getHandle("uPointPosition");
+		int uPointSize = shader.getHandle("uPointSize");
+		int uAspectRatio = shader.getHandle("uAspectRatio");
+		int uColorIndex = shader.getHandle("uColorIndex");
+		int aPosition = shader.getHandle("aPosition");
 
 		// Set common values to shader.
 		GLES20.glUniformMatrix4fv(uModelViewProjM, 1, false, mProjM, 0);
 		GLES20.glUniform2f(uAspectRatio, mAspectRatioX, mAspectRatioY);
-		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
-				mVertices);
+		int mode, count;
+		if (mTessellated) {
+			GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_FLOAT,
+					false, 0, mVerticesCircle);
+			mode = GLES20.GL_TRIANGLE_FAN;
+			count = CIRCLE_SEGMENTS + 2;
+		} else {
+			GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false,
+					0, mVertices);
+			mode = GLES20.GL_TRIANGLE_STRIP;
+			count = 4;
+		}
 		GLES20.glEnableVertexAttribArray(aPosition);
 
 		GLES20.glEnable(GLES20.GL_STENCIL_TEST);
 		GLES20.glStencilFunc(GLES20.GL_EQUAL, 0x00, 0xFFFFFFFF);
 		GLES20.glStencilOp(GLES20.GL_KEEP, GLES20.GL_INCR, GLES20.GL_INCR);
 
+		// Without outlines inner parts are rendered using full size.
+		float borderSize = reduction > 0 ? 0f : POINT_BORDER_SIZE;
 		for (StructCloud cloud : mClouds) {
+			int range = cloud.mZValue < Z_LAYER_SPLIT ? RANGE_FAR : RANGE_MID;
+			if (cloud.mGeneration == 0 || (ranges & range) == 0
+					|| cloud.mSlot >= mCloudSlotsRendered) {
+				continue;
+			}
 			// First render inner part of circles.
-			GLES20.glUniform3fv(uColor, 1, mCloudColor, 0);
+			GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_CLOUD);
 			for (StructCloudPoint point : cloud.mPoints) {
 				GLES20.glUniform3f(uPointPosition, point.mPosition[0]
 						+ cloud.mXOffset - mXOffset, point.mPosition[1],
 						cloud.mZValue);
-				GLES20.glUniform1f(uPointSize, point.mSize - POINT_BORDER_SIZE);
-				GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+				GLES20.glUniform1f(uPointSize, point.mSize - borderSize);
+				GLES20.glDrawArrays(mode, 0, count);
+			}
+			if (reduction > 0) {
+				continue;
 			}
 			// Then border.
-			GLES20.glUniform3fv(uColor, 1, mCloudOutlineColor, 0);
+			GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_CLOUD_OUTLINE);
 			for (StructCloudPoint point : cloud.mPoints) {
 				GLES20.glUniform3f(uPointPosition, point.mPosition[0]
 						+ cloud.mXOffset - mXOffset, point.mPosition[1],
 						cloud.mZValue);
 				GLES20.glUniform1f(uPointSize, point.mSize);
-				GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+				GLES20.glDrawArrays(mode, 0, count);
 			}
 		}
 
@@ -178,37 +298,28 @@ public final class FlierClouds {
 	 * @param height
 	 *            Height in pixels.
 	 */
+	@Override
 	public void onSurfaceChanged(int width, int height) {
-		mAspectRatioX = (float) Math.min(width, height) / width;
-		mAspectRatioY = (float) Math.min(width, height) / height;
-		Matrix.frustumM(mProjM, 0, -mAspectRatioX, mAspectRatioX,
-				-mAspectRatioY, mAspectRatioY, ZNEAR, ZFAR);
-
-		final float projInvM[] = new float[16];
-		Matrix.invertM(projInvM, 0, mProjM, 0);
-		unproject(projInvM, mRectNear, -1);
-		unproject(projInvM, mRectFar, 1);
-
-		mRectNear.right += X_OFFSET_MULTIPLIER;
-		mRectFar.right += X_OFFSET_MULTIPLIER;
-
-		for (StructCloud cloud : mClouds) {
-			genRandCloud(cloud);
-			cloud.mXOffset = rand(cloud.mViewRect.left, cloud.mViewRect.right);
-		}
-		sortClouds();
-		mRenderTime = SystemClock.uptimeMillis();
+		// Clouds have no GL objects depending on size.
 	}
 
 	/**
 	 * Called once surface has been created.
 	 * 
-	 * @param ctx
-	 *            Context for reading shaders from.
+	 * @param shaders
+	 *            Shader variants to request programs from.
 	 */
-	public void onSurfaceCreated(Context ctx) {
-		mShaderPoint.setProgram(ctx.getString(R.string.shader_point_vs),
-				ctx.getString(R.string.shader_cloud_fs));
+	@Override
+	public void onSurfaceCreated(FlierShaderVariants shaders) {
+		mShaderPoint.setProgram(shaders, R.string.shader_point_vs,
+				R.string.shader_cloud_fs);
+		mShaderPointMesh.setProgram(shaders, R.string.shader_point_vs,
+				R.string.shader_cloud_mesh_fs);
+	}
+
+	@Override
+	public void onTouch(int action, float x, float y) {
+		// Clouds are not affected by touch.
 	}
 
 	/**
@@ -221,20 +332,128 @@ public final class FlierClouds {
 	 * @return Random value between [min, max).
 	 */
 	private float rand(float min, float max) {
-		return min + (float) Math.random() * (max - min);
+		return min + mRandom.nextFloat() * (max - min);
+	}
+
+	@Override
+	public void onRelease() {
+		// Programs are owned by shader variants, nothing to delete.
 	}
 
 	/**
-	 * Sets cloud colors.
+	 * Called from simulation thread once per time step. Clouds are
+	 * regenerated if aspect ratio has changed.
 	 * 
-	 * @param cloudColor
-	 *            Three float RGB array.
-	 * @param cloudOutlineColor
-	 *            Three float RGB array.
+	 * @param clock
+	 *            Simulation clock.
+	 * @param state
+	 *            Array to write state into.
 	 */
-	public void setColors(float[] cloudColor, float[] cloudOutlineColor) {
-		mCloudColor = cloudColor;
-		mCloudOutlineColor = cloudOutlineColor;
+	@Override
+	public void onSimulate(FlierClock clock, float[] state) {
+		float[] aspectRatio = mAspectRatioPending;
+		if (aspectRatio != mSimAspectRatio) {
+			mSimAspectRatio = aspectRatio;
+			if (aspectRatio != null) {
+				genRandClouds(aspectRatio[0], aspectRatio[1]);
+			}
+		}
+		// Nothing to simulate before aspect ratio is known.
+		if (mSimAspectRatio == null) {
+			Arrays.fill(state, 0f);
+			return;
+		}
+
+		float t = clock.getStepSeconds();
+		for (int i = 0; i < mSimClouds.length; ++i) {
+			StructCloud cloud = mSimClouds[i];
+			cloud.mXOffset -= t * cloud.mSpeed;
+			if (cloud.mXOffset + cloud.mWidth < cloud.mViewRect.mLeft) {
+				genRandCloud(cloud);
+				cloud.mXOffset = cloud.mViewRect.mRight + cloud.mWidth;
+			}
+
+			int index = i * CLOUD_STATE_SIZE;
+			state[index++] = cloud.mGeneration;
+			state[index++] = cloud.mZValue;
+			state[index++] = cloud.mXOffset;
+			for (StructCloudPoint point : cloud.mPoints) {
+				state[index++] = point.mPosition[0];
+				state[index++] = point.mPosition[1];
+				state[index++] = point.mSize;
+			}
+		}
+	}
+
+	@Override
+	public void setConfig(FlierConfig config) {
+		mTessellated = config.isTessellated();
+		mCloudSlotsRendered = Math.max(1, Math.round(FlierConstants.CLOUD_COUNT
+				* config.getCloudDensity()));
+	}
+
+	/**
+	 * Sets scene size, projection is updated accordingly.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	@Override
+	public void setSize(int width, int height) {
+		mAspectRatioX = (float) Math.min(width, height) / width;
+		mAspectRatioY = (float) Math.min(width, height) / height;
+		FlierMatrix.frustumM(mProjM, 0, -mAspectRatioX, mAspectRatioX,
+				-mAspectRatioY, mAspectRatioY, ZNEAR, ZFAR);
+
+		// Simulation regenerates clouds once aspect ratio changes.
+		float[] aspectRatio = mAspectRatioPending;
+		if (aspectRatio == null || aspectRatio[0] != mAspectRatioX
+				|| aspectRatio[1] != mAspectRatioY) {
+			mAspectRatioPending = new float[] { mAspectRatioX, mAspectRatioY };
+		}
+	}
+
+	/**
+	 * Called from renderer once per frame. Copies respawned clouds from state
+	 * and interpolates positions of others.
+	 * 
+	 * @param prevState
+	 *            State of previous simulation step.
+	 * @param state
+	 *            State of current simulation step.
+	 * @param t
+	 *            Interpolation factor.
+	 */
+	@Override
+	public void setState(float[] prevState, float[] state, float t) {
+		boolean needsSorting = false;
+		for (int i = 0; i < mCloudSlots.length; ++i) {
+			StructCloud cloud = mCloudSlots[i];
+			int index = i * CLOUD_STATE_SIZE;
+			int generation = (int) state[index];
+			if (cloud.mGeneration != generation) {
+				cloud.mGeneration = generation;
+				cloud.mZValue = state[index + 1];
+				int pointIndex = index + 3;
+				for (StructCloudPoint point : cloud.mPoints) {
+					point.mPosition[0] = state[pointIndex++];
+					point.mPosition[1] = state[pointIndex++];
+					point.mSize = state[pointIndex++];
+				}
+				needsSorting = true;
+			}
+			cloud.mXOffset = state[index + 2];
+			if ((int) prevState[index] == generation) {
+				cloud.mXOffset = prevState[index + 2] + t
+						* (state[index + 2] - prevState[index + 2]);
+			}
+			updateBounds(cloud);
+		}
+		if (needsSorting) {
+			sortClouds();
+		}
 	}
 
 	/**
@@ -244,6 +463,7 @@ public final class FlierClouds {
 	 * @param xOffset
 	 *            New x offset value.
 	 */
+	@Override
 	public void setXOffset(float xOffset) {
 		mXOffset = xOffset * X_OFFSET_MULTIPLIER;
 	}
@@ -263,6 +483,38 @@ public final class FlierClouds {
 		Arrays.sort(mClouds, comparator);
 	}
 
+	/**
+	 * Updates cloud bounds in normalized device coordinates, storing previous
+	 * ones.
+	 * 
+	 * @param cloud
+	 *            Cloud to update.
+	 */
+	private void updateBounds(StructCloud cloud) {
+		StructRect bounds = cloud.mBounds;
+		cloud.mBoundsPrev.set(bounds);
+		bounds.mLeft = bounds.mBottom = Float.MAX_VALUE;
+		bounds.mRight = bounds.mTop = -Float.MAX_VALUE;
+		if (cloud.mGeneration == 0) {
+			return;
+		}
+		mVecIn[2] = cloud.mZValue;
+		mVecIn[3] = 1f;
+		for (StructCloudPoint point : cloud.mPoints) {
+			mVecIn[0] = point.mPosition[0] + cloud.mXOffset - mXOffset;
+			mVecIn[1] = point.mPosition[1];
+			FlierMatrix.multiplyMV(mVecOut, 0, mProjM, 0, mVecIn, 0);
+			float x = mVecOut[0] / mVecOut[3];
+			float y = mVecOut[1] / mVecOut[3];
+			float sx = mAspectRatioX * point.mSize;
+			float sy = mAspectRatioY * point.mSize;
+			bounds.mLeft = Math.min(bounds.mLeft, x - sx);
+			bounds.mRight = Math.max(bounds.mRight, x + sx);
+			bounds.mBottom = Math.min(bounds.mBottom, y - sy);
+			bounds.mTop = Math.max(bounds.mTop, y + sy);
+		}
+	}
+
 	/**
 	 * Calculates unprojected rectangle at given z value in screen space.
 	 * 
@@ -273,26 +525,33 @@ public final class FlierClouds {
 	 * @param z
 	 *            Z value.
 	 */
-	private void unproject(float[] projInv, RectF rect, float z) {
+	private void unproject(float[] projInv, StructRect rect, float z) {
 		final float result[] = new float[4];
-		Matrix.multiplyMV(result, 0, projInv, 0, new float[] { -1, 1, z, 1 }, 0);
-		rect.left = result[0] / result[3];
-		rect.top = result[1] / result[3];
-		Matrix.multiplyMV(result, 0, projInv, 0, new float[] { 1, -1, z, 1 }, 0);
-		rect.right = result[0] / result[3];
-		rect.bottom = result[1] / result[3];
+		FlierMatrix.multiplyMV(result, 0, projInv, 0,
+				new float[] { -1, 1, z, 1 }, 0);
+		rect.mLeft = result[0] / result[3];
+		rect.mTop = result[1] / result[3];
+		FlierMatrix.multiplyMV(result, 0, projInv, 0,
+				new float[] { 1, -1, z, 1 }, 0);
+		rect.mRight = result[0] / result[3];
+		rect.mBottom = result[1] / result[3];
 	}
 
 	/**
 	 * Private class for storing cloud information.
 	 */
 	private final class StructCloud {
+		public final StructRect mBounds = new StructRect(),
+				mBoundsPrev = new StructRect();
+		public int mGeneration;
 		public final StructCloudPoint mPoints[] = new StructCloudPoint[FlierConstants.CLOUD_POINT_COUNT];
+		public final int mSlot;
 		public float mSpeed, mXOffset;
-		public final RectF mViewRect = new RectF();
+		public final StructRect mViewRect = new StructRect();
 		public float mWidth, mHeight, mZValue;
 
-		public StructCloud() {
+		public StructCloud(int slot) {
+			mSlot = slot;
 			for (int i = 0; i < mPoints.length; ++i) {
 				mPoints[i] = new StructCloudPoint();
 			}
@@ -307,4 +566,19 @@ public final class FlierClouds {
 		public float mSize;
 	}
 
+	/**
+	 * Private class for storing rectangle, y axis pointing up in the same
+	 * way as in normalized device coordinates.
+	 */
+	private static final class StructRect {
+		public float mLeft, mTop, mRight, mBottom;
+
+		public void set(StructRect rect) {
+			mLeft = rect.mLeft;
+			mTop = rect.mTop;
+			mRight = rect.mRight;
+			mBottom = rect.mBottom;
+		}
+	}
+
 }
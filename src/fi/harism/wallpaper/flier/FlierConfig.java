@@ -0,0 +1,509 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+
+/**
+ * Immutable snapshot of rendering configuration. Instances are created from
+ * preferences on main thread and handed over to rendering thread as a whole,
+ * meaning rendering thread never sees partially updated values. Power
+ * policy tier limits values read from preferences.
+ */
+public final class FlierConfig {
+
+	// Color indices.
+	public static final int COLOR_BG_TOP = 0;
+	public static final int COLOR_BG_BOTTOM = 1;
+	public static final int COLOR_WAVE_FRONT = 2;
+	public static final int COLOR_WAVE_BACK = 3;
+	public static final int COLOR_PLANE = 4;
+	public static final int COLOR_PLANE_OUTLINE = 5;
+	public static final int COLOR_CLOUD = 6;
+	public static final int COLOR_CLOUD_OUTLINE = 7;
+	public static final int COLOR_COUNT = 8;
+	// Custom color preference keys, ordered by COLOR_* indices.
+	private static final int[] COLOR_KEYS = { R.string.key_colors_bg_top,
+			R.string.key_colors_bg_bottom, R.string.key_colors_wave_front,
+			R.string.key_colors_wave_back, R.string.key_colors_plane,
+			R.string.key_colors_plane_outline, R.string.key_colors_cloud,
+			R.string.key_colors_cloud_outline };
+
+	// Brightness multiplier.
+	private final float mBrightness;
+	// All colors as consecutive three component RGB values.
+	private final float[] mColors;
+	// Number of planes in flock.
+	private int mFlockSize;
+	// Layer caching flag.
+	private boolean mLayered;
+	// Overdraw diagnostics flag.
+	private boolean mOverdraw;
+	// Partial redraw flag.
+	private boolean mPartialRedraw;
+	// Power policy tier.
+	private int mPowerTier = FlierPowerPolicy.TIER_FULL;
+	// Render quality.
+	private final int mQuality;
+	// Edge-aware upscaling flag.
+	private boolean mSharpUpscale;
+	// Tessellated shapes flag.
+	private boolean mTessellated;
+	// Pass timing diagnostics flag.
+	private boolean mTiming;
+	// Flag for keeping rendering context alive while hidden.
+	private boolean mWarmResume;
+
+	/**
+	 * Default constructor. Optional features are disabled and flock is
+	 * empty, with* methods create copies with them changed. Non-final fields
+	 * are written only by with* methods before copy is returned, meaning
+	 * instances are never modified once handed out.
+	 * 
+	 * @param quality
+	 *            Render quality, value between [0, 2].
+	 * @param brightness
+	 *            Brightness multiplier.
+	 * @param colors
+	 *            Array of COLOR_COUNT three float RGB arrays, ordered by
+	 *            COLOR_* indices. Values are copied.
+	 */
+	public FlierConfig(int quality, float brightness, float[][] colors) {
+		mQuality = quality;
+		mBrightness = brightness;
+		mColors = new float[COLOR_COUNT * 3];
+		for (int i = 0; i < COLOR_COUNT; ++i) {
+			System.arraycopy(colors[i], 0, mColors, i * 3, 3);
+		}
+	}
+
+	/**
+	 * Copy constructor, colors are shared as they are never modified.
+	 * 
+	 * @param other
+	 *            Configuration to copy values from.
+	 */
+	private FlierConfig(FlierConfig other) {
+		mQuality = other.mQuality;
+		mBrightness = other.mBrightness;
+		mPartialRedraw = other.mPartialRedraw;
+		mLayered = other.mLayered;
+		mTessellated = other.mTessellated;
+		mSharpUpscale = other.mSharpUpscale;
+		mWarmResume = other.mWarmResume;
+		mFlockSize = other.mFlockSize;
+		mOverdraw = other.mOverdraw;
+		mTiming = other.mTiming;
+		mPowerTier = other.mPowerTier;
+		mColors = other.mColors;
+	}
+
+	/**
+	 * Creates new configuration from preference values.
+	 * 
+	 * @param ctx
+	 *            Context for reading preference keys.
+	 * @param preferences
+	 *            Preferences to read values from.
+	 * @return New configuration instance.
+	 */
+	public static FlierConfig fromPreferences(Context ctx,
+			SharedPreferences preferences) {
+		String key = ctx.getString(R.string.key_general_quality);
+		int quality = Integer.parseInt(preferences.getString(key, "1"));
+		key = ctx.getString(R.string.key_general_brightness);
+		float brightness = (float) preferences.getInt(key, 100) / 100;
+		key = ctx.getString(R.string.key_general_partial_redraw);
+		boolean partialRedraw = preferences.getBoolean(key, false);
+		key = ctx.getString(R.string.key_general_layered);
+		boolean layered = preferences.getBoolean(key, false);
+		key = ctx.getString(R.string.key_general_tessellated);
+		boolean tessellated = preferences.getBoolean(key, false);
+		key = ctx.getString(R.string.key_general_sharp_upscale);
+		boolean sharpUpscale = preferences.getBoolean(key, true);
+		key = ctx.getString(R.string.key_general_warm_resume);
+		boolean warmResume = preferences.getBoolean(key, true);
+		key = ctx.getString(R.string.key_general_flock);
+		int flockSize = Integer.parseInt(preferences.getString(key, "0"));
+		key = ctx.getString(R.string.key_diagnostics_overdraw);
+		boolean overdraw = preferences.getBoolean(key, false);
+		key = ctx.getString(R.string.key_diagnostics_timing);
+		boolean timing = preferences.getBoolean(key, false);
+
+		key = ctx.getString(R.string.key_colors_scheme);
+		int scheme = Integer.parseInt(preferences.getString(key, "1"));
+		float[][] colors = getSchemeColors(ctx, preferences, scheme);
+
+		return new FlierConfig(quality, brightness, colors)
+				.withPartialRedraw(partialRedraw).withLayered(layered)
+				.withTessellated(tessellated).withSharpUpscale(sharpUpscale)
+				.withWarmResume(warmResume).withFlockSize(flockSize)
+				.withOverdraw(overdraw).withTiming(timing);
+	}
+
+	/**
+	 * Converts color into three component RGB values.
+	 * 
+	 * @param color
+	 *            Color as ARGB integer.
+	 * @return Three element float RGB array.
+	 */
+	public static float[] toRGB(int color) {
+		float[] retVal = new float[3];
+		retVal[0] = (float) Color.red(color) / 255;
+		retVal[1] = (float) Color.green(color) / 255;
+		retVal[2] = (float) Color.blue(color) / 255;
+		return retVal;
+	}
+
+	/**
+	 * Returns COLOR_* index custom color preference with given key sets.
+	 * 
+	 * @param ctx
+	 *            Context for reading preference keys.
+	 * @param key
+	 *            Color preference key.
+	 * @return One of COLOR_* indices, or -1 if key is not a color key.
+	 */
+	public static int getColorIndex(Context ctx, String key) {
+		for (int i = 0; i < COLOR_COUNT; ++i) {
+			if (ctx.getString(COLOR_KEYS[i]).equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads colors of given color scheme.
+	 * 
+	 * @param ctx
+	 *            Context for reading palettes and preference keys.
+	 * @param preferences
+	 *            Preferences to read custom colors from.
+	 * @param scheme
+	 *            Scheme index, zero for custom colors.
+	 * @return COLOR_COUNT three component RGB values.
+	 */
+	public static float[][] getSchemeColors(Context ctx,
+			SharedPreferences preferences, int scheme) {
+		float[][] colors = new float[COLOR_COUNT][];
+		if (scheme > 0) {
+			// Predefined schemes are palettes in resources, not code.
+			Resources res = ctx.getResources();
+			TypedArray palettes = res
+					.obtainTypedArray(R.array.colors_scheme_palettes);
+			String[] palette = res.getStringArray(palettes.getResourceId(
+					scheme - 1, 0));
+			palettes.recycle();
+			for (int i = 0; i < COLOR_COUNT; ++i) {
+				colors[i] = toRGB(Color.parseColor(palette[i]));
+			}
+		} else {
+			for (int i = 0; i < COLOR_COUNT; ++i) {
+				String colorKey = ctx.getString(COLOR_KEYS[i]);
+				colors[i] = toRGB(preferences.getInt(colorKey, 0));
+			}
+		}
+		return colors;
+	}
+
+	/**
+	 * Getter for brightness multiplier.
+	 * 
+	 * @return Brightness value, 1.0 being default.
+	 */
+	public float getBrightness() {
+		return mBrightness;
+	}
+
+	/**
+	 * Getter for color value. Returned array is a copy and can be modified
+	 * freely.
+	 * 
+	 * @param index
+	 *            One of COLOR_* indices.
+	 * @return New three float RGB array.
+	 */
+	public float[] getColor(int index) {
+		float[] color = new float[3];
+		System.arraycopy(mColors, index * 3, color, 0, 3);
+		return color;
+	}
+
+	/**
+	 * Getter for portion of clouds to render.
+	 * 
+	 * @return Cloud density, value between (0, 1].
+	 */
+	public float getCloudDensity() {
+		return FlierPowerPolicy.getCloudDensity(mPowerTier);
+	}
+
+	/**
+	 * Getter for flock size.
+	 * 
+	 * @return Number of planes in flock, zero if flock is disabled.
+	 */
+	public int getFlockSize() {
+		return mFlockSize;
+	}
+
+	/**
+	 * Getter for frame rate cap.
+	 * 
+	 * @return Minimum time between frames in nanoseconds, zero if frame rate
+	 *         is not capped.
+	 */
+	public long getFrameIntervalNanos() {
+		return FlierPowerPolicy.getFrameIntervalNanos(mPowerTier);
+	}
+
+	/**
+	 * Getter for minimum detail reduction applied to every layer.
+	 * 
+	 * @return Minimum layer reduction.
+	 */
+	public int getMinReduction() {
+		return FlierPowerPolicy.getMinReduction(mPowerTier);
+	}
+
+	/**
+	 * Getter for power policy tier.
+	 * 
+	 * @return One of FlierPowerPolicy.TIER_* values.
+	 */
+	public int getPowerTier() {
+		return mPowerTier;
+	}
+
+	/**
+	 * Getter for render quality, limited by power policy tier.
+	 * 
+	 * @return Render quality, value between [0, 2].
+	 */
+	public int getQuality() {
+		return Math.min(mQuality, FlierPowerPolicy.getMaxQuality(mPowerTier));
+	}
+
+	/**
+	 * Getter for layer caching flag.
+	 * 
+	 * @return True if slowly changing layers should be cached.
+	 */
+	public boolean isLayered() {
+		return mLayered;
+	}
+
+	/**
+	 * Getter for overdraw diagnostics flag.
+	 * 
+	 * @return True if overdraw heat map should be rendered.
+	 */
+	public boolean isOverdraw() {
+		return mOverdraw;
+	}
+
+	/**
+	 * Getter for partial redraw flag.
+	 * 
+	 * @return True if only changed regions should be redrawn.
+	 */
+	public boolean isPartialRedraw() {
+		return mPartialRedraw;
+	}
+
+	/**
+	 * Getter for edge-aware upscaling flag. Upscaling is used only if scene
+	 * is rendered at reduced resolution and power policy tier allows it.
+	 * 
+	 * @return True if scene is upscaled with edge-aware filter.
+	 */
+	public boolean isSharpUpscale() {
+		return mSharpUpscale && getQuality() < 2
+				&& FlierPowerPolicy.isSharpUpscaleAllowed(mPowerTier);
+	}
+
+	/**
+	 * Getter for tessellated shapes flag.
+	 * 
+	 * @return True if round shapes should be rendered as meshes.
+	 */
+	public boolean isTessellated() {
+		return mTessellated;
+	}
+
+	/**
+	 * Getter for pass timing diagnostics flag.
+	 * 
+	 * @return True if render pass times should be measured.
+	 */
+	public boolean isTiming() {
+		return mTiming;
+	}
+
+	/**
+	 * Getter for warm resume flag.
+	 * 
+	 * @return True if rendering context should be kept alive while hidden.
+	 */
+	public boolean isWarmResume() {
+		return mWarmResume;
+	}
+
+	/**
+	 * Checks whether given configuration has equal colors to this one.
+	 * 
+	 * @param other
+	 *            Configuration to compare against, can be null.
+	 * @return True if all colors are equal.
+	 */
+	public boolean hasSameColors(FlierConfig other) {
+		return other != null && Arrays.equals(mColors, other.mColors);
+	}
+
+	/**
+	 * Creates copy of this configuration with given flock size.
+	 * 
+	 * @param flockSize
+	 *            Number of planes in flock, zero disables flock.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withFlockSize(int flockSize) {
+		FlierConfig config = new FlierConfig(this);
+		config.mFlockSize = flockSize;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given layer caching flag.
+	 * 
+	 * @param layered
+	 *            If true, slowly changing layers are cached and redrawn less
+	 *            often.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withLayered(boolean layered) {
+		FlierConfig config = new FlierConfig(this);
+		config.mLayered = layered;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given overdraw diagnostics
+	 * flag.
+	 * 
+	 * @param overdraw
+	 *            If true, overdraw heat map is rendered instead of scene.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withOverdraw(boolean overdraw) {
+		FlierConfig config = new FlierConfig(this);
+		config.mOverdraw = overdraw;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given partial redraw flag.
+	 * 
+	 * @param partialRedraw
+	 *            If true, only changed regions are redrawn.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withPartialRedraw(boolean partialRedraw) {
+		FlierConfig config = new FlierConfig(this);
+		config.mPartialRedraw = partialRedraw;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration limited by given power policy tier.
+	 * 
+	 * @param powerTier
+	 *            One of FlierPowerPolicy.TIER_* values.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withPowerTier(int powerTier) {
+		FlierConfig config = new FlierConfig(this);
+		config.mPowerTier = powerTier;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given edge-aware upscaling
+	 * flag.
+	 * 
+	 * @param sharpUpscale
+	 *            If true, reduced resolution scene is upscaled with edge-aware
+	 *            filter instead of bilinear filtering.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withSharpUpscale(boolean sharpUpscale) {
+		FlierConfig config = new FlierConfig(this);
+		config.mSharpUpscale = sharpUpscale;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given tessellated shapes flag.
+	 * 
+	 * @param tessellated
+	 *            If true, round shapes are rendered as meshes instead of
+	 *            discarding fragments.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withTessellated(boolean tessellated) {
+		FlierConfig config = new FlierConfig(this);
+		config.mTessellated = tessellated;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given pass timing diagnostics
+	 * flag.
+	 * 
+	 * @param timing
+	 *            If true, render pass times are measured and logged.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withTiming(boolean timing) {
+		FlierConfig config = new FlierConfig(this);
+		config.mTiming = timing;
+		return config;
+	}
+
+	/**
+	 * Creates copy of this configuration with given warm resume flag.
+	 * 
+	 * @param warmResume
+	 *            If true, rendering context is kept alive while wallpaper is
+	 *            hidden.
+	 * @return New configuration instance.
+	 */
+	public FlierConfig withWarmResume(boolean warmResume) {
+		FlierConfig config = new FlierConfig(this);
+		config.mWarmResume = warmResume;
+		return config;
+	}
+
+}
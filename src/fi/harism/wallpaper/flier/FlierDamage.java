@@ -0,0 +1,215 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Collects regions of the scene that have changed during a frame. Regions
+ * are given in normalized device coordinates and stored as a small number of
+ * pixel rectangles. If there are more regions than rectangles, regions are
+ * merged together, and once they cover most of the view, damage is
+ * considered to be full.
+ */
+public final class FlierDamage {
+
+	// Coverage after which whole view is redrawn instead.
+	private static final float FULL_COVERAGE = .7f;
+	// Maximum number of separate rectangles, every rectangle costs one
+	// scissored scene pass.
+	private static final int MAX_RECTS = 8;
+
+	// Flag for full damage.
+	private boolean mFull;
+	// Number of rectangles stored.
+	private int mRectCount;
+	// Rectangles as consecutive left, bottom, right, top pixel values.
+	// One extra slot is used while merging.
+	private final int[] mRects = new int[(MAX_RECTS + 1) * 4];
+	// View size in pixels.
+	private int mWidth, mHeight;
+
+	/**
+	 * Adds damaged region. Region is rounded outwards to pixel boundaries and
+	 * clamped to view.
+	 * 
+	 * @param left
+	 *            Left coordinate, in range [-1, 1].
+	 * @param bottom
+	 *            Bottom coordinate, in range [-1, 1].
+	 * @param right
+	 *            Right coordinate, in range [-1, 1].
+	 * @param top
+	 *            Top coordinate, in range [-1, 1].
+	 */
+	public void add(float left, float bottom, float right, float top) {
+		if (mFull) {
+			return;
+		}
+		float sx = .5f * mWidth, sy = .5f * mHeight;
+		int x0 = Math.max(0, (int) Math.floor((left + 1f) * sx));
+		int y0 = Math.max(0, (int) Math.floor((bottom + 1f) * sy));
+		int x1 = Math.min(mWidth, (int) Math.ceil((right + 1f) * sx));
+		int y1 = Math.min(mHeight, (int) Math.ceil((top + 1f) * sy));
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+
+		int index = mRectCount++ * 4;
+		mRects[index] = x0;
+		mRects[index + 1] = y0;
+		mRects[index + 2] = x1;
+		mRects[index + 3] = y1;
+		if (mRectCount <= MAX_RECTS) {
+			return;
+		}
+
+		// Merge pair of rectangles, new one included, which grows least.
+		// Merging pairs instead of merging new rectangle always keeps nearby
+		// regions together, e.g. separate groups of planes in a flock.
+		int bestI = 0, bestJ = 4;
+		long bestGrowth = Long.MAX_VALUE;
+		for (int i = 0; i < mRectCount * 4; i += 4) {
+			for (int j = i + 4; j < mRectCount * 4; j += 4) {
+				long merged = area(Math.min(mRects[i], mRects[j]),
+						Math.min(mRects[i + 1], mRects[j + 1]),
+						Math.max(mRects[i + 2], mRects[j + 2]),
+						Math.max(mRects[i + 3], mRects[j + 3]));
+				long growth = merged - area(i) - area(j);
+				if (growth < bestGrowth) {
+					bestGrowth = growth;
+					bestI = i;
+					bestJ = j;
+				}
+			}
+		}
+		mRects[bestI] = Math.min(mRects[bestI], mRects[bestJ]);
+		mRects[bestI + 1] = Math.min(mRects[bestI + 1], mRects[bestJ + 1]);
+		mRects[bestI + 2] = Math.max(mRects[bestI + 2], mRects[bestJ + 2]);
+		mRects[bestI + 3] = Math.max(mRects[bestI + 3], mRects[bestJ + 3]);
+		int last = --mRectCount * 4;
+		System.arraycopy(mRects, last, mRects, bestJ, 4);
+	}
+
+	/**
+	 * Calculates area of stored rectangle.
+	 */
+	private long area(int index) {
+		return area(mRects[index], mRects[index + 1], mRects[index + 2],
+				mRects[index + 3]);
+	}
+
+	/**
+	 * Calculates rectangle area.
+	 */
+	private long area(int left, int bottom, int right, int top) {
+		return (long) (right - left) * (top - bottom);
+	}
+
+	/**
+	 * Getter for rectangle bottom.
+	 * 
+	 * @param index
+	 *            Rectangle index.
+	 * @return Bottom coordinate in pixels.
+	 */
+	public int getBottom(int index) {
+		return mRects[index * 4 + 1];
+	}
+
+	/**
+	 * Getter for rectangle height.
+	 * 
+	 * @param index
+	 *            Rectangle index.
+	 * @return Height in pixels.
+	 */
+	public int getHeight(int index) {
+		return mRects[index * 4 + 3] - mRects[index * 4 + 1];
+	}
+
+	/**
+	 * Getter for rectangle left.
+	 * 
+	 * @param index
+	 *            Rectangle index.
+	 * @return Left coordinate in pixels.
+	 */
+	public int getLeft(int index) {
+		return mRects[index * 4];
+	}
+
+	/**
+	 * Getter for number of damaged rectangles. Value is meaningful only if
+	 * damage is not full.
+	 * 
+	 * @return Number of rectangles.
+	 */
+	public int getRectCount() {
+		return mRectCount;
+	}
+
+	/**
+	 * Getter for rectangle width.
+	 * 
+	 * @param index
+	 *            Rectangle index.
+	 * @return Width in pixels.
+	 */
+	public int getWidth(int index) {
+		return mRects[index * 4 + 2] - mRects[index * 4];
+	}
+
+	/**
+	 * Checks whether whole view should be redrawn. Damage is full if it has
+	 * been set full explicitly or if rectangles cover most of the view.
+	 * 
+	 * @return True if damage is full.
+	 */
+	public boolean isFull() {
+		if (!mFull) {
+			long area = 0;
+			for (int i = 0; i < mRectCount * 4; i += 4) {
+				area += area(mRects[i], mRects[i + 1], mRects[i + 2],
+						mRects[i + 3]);
+			}
+			mFull = area > FULL_COVERAGE * mWidth * mHeight;
+		}
+		return mFull;
+	}
+
+	/**
+	 * Resets damage into empty state.
+	 * 
+	 * @param width
+	 *            View width in pixels.
+	 * @param height
+	 *            View height in pixels.
+	 */
+	public void reset(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mRectCount = 0;
+		mFull = false;
+	}
+
+	/**
+	 * Marks whole view damaged.
+	 */
+	public void setFull() {
+		mFull = true;
+	}
+
+}
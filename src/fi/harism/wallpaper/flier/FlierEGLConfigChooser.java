@@ -20,31 +20,73 @@ import javax.microedition.khronos.egl.EGL10;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.egl.EGLDisplay;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.opengl.GLSurfaceView;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.WindowManager;
 
 /**
- * EGLConfigChooser for selecting highest available RGB precision plus depth
- * buffer precision if needed. As for alpha and stencil buffer (and depth buffer
- * if set to false), lowest ones are preferred.
+ * EGLConfigChooser delegating config selection to FlierEGLConfigPolicy.
+ * Policy can be changed at any time, new policy is used once EGL is
+ * initialized next time.
  */
 public final class FlierEGLConfigChooser implements
 		GLSurfaceView.EGLConfigChooser {
 
-	private boolean mNeedsDepth;
+	// Devices with memory class at most this are considered low-memory.
+	private static final int LOW_MEMORY_CLASS = 24;
+	// Displays with more pixels than this are considered high resolution.
+	private static final int HIGH_RESOLUTION_PIXELS = 1920 * 1080;
+	// Tag for log messages.
+	private static final String TAG = "FlierEGLConfigChooser";
+
+	// Current config policy.
+	private volatile FlierEGLConfigPolicy mPolicy;
 
 	/**
 	 * Default constructor.
 	 * 
-	 * @param needsDepth
-	 *            If true, will try to find config with highest depth buffer
-	 *            precision on top of RGB precision.
+	 * @param policy
+	 *            Policy used for choosing config.
+	 */
+	public FlierEGLConfigChooser(FlierEGLConfigPolicy policy) {
+		mPolicy = policy;
+	}
+
+	/**
+	 * Creates policy suitable for current device. RGB565 is preferred on
+	 * low-memory and high resolution devices where bandwidth of the final
+	 * copy matters most.
+	 * 
+	 * @param ctx
+	 *            Context for reading device properties.
+	 * @param preservedSwap
+	 *            If true, configs supporting preserved swap behavior are
+	 *            preferred.
+	 * @return New policy instance.
 	 */
-	public FlierEGLConfigChooser(boolean needsDepth) {
-		mNeedsDepth = needsDepth;
+	public static FlierEGLConfigPolicy createPolicy(Context ctx,
+			boolean preservedSwap) {
+		ActivityManager am = (ActivityManager) ctx
+				.getSystemService(Context.ACTIVITY_SERVICE);
+		boolean lowMemory = am.getMemoryClass() <= LOW_MEMORY_CLASS;
+
+		DisplayMetrics metrics = new DisplayMetrics();
+		WindowManager wm = (WindowManager) ctx
+				.getSystemService(Context.WINDOW_SERVICE);
+		wm.getDefaultDisplay().getMetrics(metrics);
+		int pixels = metrics.widthPixels * metrics.heightPixels;
+		boolean highResolution = pixels > HIGH_RESOLUTION_PIXELS;
+
+		return new FlierEGLConfigPolicy(lowMemory || highResolution, false,
+				preservedSwap);
 	}
 
 	@Override
 	public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+		FlierEGLConfigPolicy policy = mPolicy;
 		int[] configSpec = { EGL10.EGL_RED_SIZE, 4, EGL10.EGL_GREEN_SIZE, 4,
 				EGL10.EGL_BLUE_SIZE, 4, EGL10.EGL_ALPHA_SIZE, 0,
 				EGL10.EGL_DEPTH_SIZE, 0, EGL10.EGL_STENCIL_SIZE, 0,
@@ -59,32 +101,33 @@ public final class FlierEGLConfigChooser implements
 		EGLConfig[] configs = new EGLConfig[numConfigs];
 		egl.eglChooseConfig(display, configSpec, configs, numConfigs, temp);
 
-		int highestSum = 0;
-		EGLConfig highestConfig = null;
-		for (EGLConfig config : configs) {
-			int r = getConfigAttrib(egl, display, config, EGL10.EGL_RED_SIZE,
-					0, temp);
-			int g = getConfigAttrib(egl, display, config, EGL10.EGL_GREEN_SIZE,
-					0, temp);
-			int b = getConfigAttrib(egl, display, config, EGL10.EGL_BLUE_SIZE,
-					0, temp);
-			int d = getConfigAttrib(egl, display, config, EGL10.EGL_DEPTH_SIZE,
-					0, temp);
-			int a = getConfigAttrib(egl, display, config, EGL10.EGL_ALPHA_SIZE,
-					0, temp);
-			int s = getConfigAttrib(egl, display, config,
-					EGL10.EGL_STENCIL_SIZE, 0, temp);
-			int sum = r + g + b + (mNeedsDepth ? d : -d) - a - s;
-			if (sum > highestSum) {
-				highestSum = sum;
-				highestConfig = config;
+		final int[] attribs = { EGL10.EGL_RED_SIZE, EGL10.EGL_GREEN_SIZE,
+				EGL10.EGL_BLUE_SIZE, EGL10.EGL_ALPHA_SIZE,
+				EGL10.EGL_DEPTH_SIZE, EGL10.EGL_STENCIL_SIZE,
+				EGL10.EGL_SURFACE_TYPE };
+		int[][] values = new int[numConfigs][FlierEGLConfigPolicy.ATTRIB_COUNT];
+		for (int i = 0; i < numConfigs; ++i) {
+			for (int j = 0; j < attribs.length; ++j) {
+				values[i][j] = getConfigAttrib(egl, display, configs[i],
+						attribs[j], 0, temp);
 			}
 		}
-		if (highestConfig == null) {
+
+		int index = policy.choose(values);
+		if (index < 0) {
 			throw new RuntimeException(
 					"No config chosen, this should never happen.");
 		}
-		return highestConfig;
+		int[] c = values[index];
+		Log.d(TAG, "Chose config R" + c[FlierEGLConfigPolicy.ATTRIB_RED] + "G"
+				+ c[FlierEGLConfigPolicy.ATTRIB_GREEN] + "B"
+				+ c[FlierEGLConfigPolicy.ATTRIB_BLUE] + "A"
+				+ c[FlierEGLConfigPolicy.ATTRIB_ALPHA] + " depth "
+				+ c[FlierEGLConfigPolicy.ATTRIB_DEPTH] + " stencil "
+				+ c[FlierEGLConfigPolicy.ATTRIB_STENCIL] + " surface type 0x"
+				+ Integer.toHexString(c[FlierEGLConfigPolicy.ATTRIB_SURFACE_TYPE])
+				+ ", " + numConfigs + " candidates");
+		return configs[index];
 	}
 
 	/**
@@ -97,4 +140,23 @@ public final class FlierEGLConfigChooser implements
 		}
 		return defaultValue;
 	}
+
+	/**
+	 * Getter for current policy.
+	 * 
+	 * @return Current policy.
+	 */
+	public FlierEGLConfigPolicy getPolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Sets new policy, used once EGL is initialized next time.
+	 * 
+	 * @param policy
+	 *            New policy.
+	 */
+	public void setPolicy(FlierEGLConfigPolicy policy) {
+		mPolicy = policy;
+	}
 }
@@ -0,0 +1,140 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Policy for scoring EGL configs. Scene is rendered offscreen and copied into
+ * window surface, so window config never needs depth, stencil or alpha and
+ * its color precision only affects final copy. This class has no Android
+ * dependencies, configs are given as plain attribute arrays.
+ */
+public final class FlierEGLConfigPolicy {
+
+	// Attribute indices within config attribute array.
+	public static final int ATTRIB_RED = 0;
+	public static final int ATTRIB_GREEN = 1;
+	public static final int ATTRIB_BLUE = 2;
+	public static final int ATTRIB_ALPHA = 3;
+	public static final int ATTRIB_DEPTH = 4;
+	public static final int ATTRIB_STENCIL = 5;
+	public static final int ATTRIB_SURFACE_TYPE = 6;
+	public static final int ATTRIB_COUNT = 7;
+
+	// EGL_SURFACE_TYPE bit for configs supporting preserved swap behavior.
+	public static final int EGL_SWAP_BEHAVIOR_PRESERVED_BIT = 0x0400;
+
+	// Score weights, color precision dominates preserved swap which
+	// dominates remaining attributes. Remaining attributes differ by less
+	// than WEIGHT_PRESERVED, and preserved swap with them by less than
+	// WEIGHT_COLOR.
+	private static final int WEIGHT_COLOR = 256, WEIGHT_PRESERVED = 128;
+
+	// Flag for preferring depth buffer.
+	private final boolean mNeedsDepth;
+	// Flag for preferring configs supporting preserved swap behavior.
+	private final boolean mPreservedSwap;
+	// Flag for preferring RGB565 over highest precision.
+	private final boolean mPreferRgb565;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param preferRgb565
+	 *            If true, RGB565 configs are preferred over higher precision
+	 *            ones for saving memory bandwidth.
+	 * @param needsDepth
+	 *            If true, highest depth buffer precision is preferred.
+	 * @param preservedSwap
+	 *            If true, configs supporting preserved swap behavior are
+	 *            preferred.
+	 */
+	public FlierEGLConfigPolicy(boolean preferRgb565, boolean needsDepth,
+			boolean preservedSwap) {
+		mPreferRgb565 = preferRgb565;
+		mNeedsDepth = needsDepth;
+		mPreservedSwap = preservedSwap;
+	}
+
+	/**
+	 * Chooses best config from given list.
+	 * 
+	 * @param configs
+	 *            Array of config attribute arrays, each containing
+	 *            ATTRIB_COUNT values indexed by ATTRIB_* constants.
+	 * @return Index of best config, or -1 if array is empty.
+	 */
+	public int choose(int[][] configs) {
+		int bestIndex = -1;
+		int bestScore = Integer.MIN_VALUE;
+		for (int i = 0; i < configs.length; ++i) {
+			int score = score(configs[i]);
+			if (score > bestScore) {
+				bestScore = score;
+				bestIndex = i;
+			}
+		}
+		return bestIndex;
+	}
+
+	/**
+	 * Getter for RGB565 preference.
+	 * 
+	 * @return True if RGB565 configs are preferred.
+	 */
+	public boolean isRgb565Preferred() {
+		return mPreferRgb565;
+	}
+
+	/**
+	 * Calculates score for given config, higher being better. Configs are
+	 * ordered by color precision first, meaning chosen config always matches
+	 * requested window format. Preserved swap behavior only breaks ties
+	 * between equal color precisions, and depth, alpha and stencil sizes
+	 * ties between those.
+	 * 
+	 * @param config
+	 *            Config attributes indexed by ATTRIB_* constants.
+	 * @return Config score.
+	 */
+	public int score(int[] config) {
+		int r = config[ATTRIB_RED];
+		int g = config[ATTRIB_GREEN];
+		int b = config[ATTRIB_BLUE];
+		int d = config[ATTRIB_DEPTH];
+
+		int color;
+		if (mPreferRgb565) {
+			// Exact RGB565 wins, everything else is penalized by distance.
+			color = -(Math.abs(r - 5) + Math.abs(g - 6) + Math.abs(b - 5));
+		} else {
+			color = r + g + b;
+		}
+		int score = color * WEIGHT_COLOR;
+		int surfaceType = config[ATTRIB_SURFACE_TYPE];
+		if (mPreservedSwap
+				&& (surfaceType & EGL_SWAP_BEHAVIOR_PRESERVED_BIT) != 0) {
+			score += WEIGHT_PRESERVED;
+		}
+		// Sizes are clamped for keeping them below preserved swap weight.
+		int rest = (mNeedsDepth ? d : -d) - config[ATTRIB_ALPHA]
+				- config[ATTRIB_STENCIL];
+		score += Math.max(-WEIGHT_PRESERVED / 2 + 1,
+				Math.min(WEIGHT_PRESERVED / 2 - 1, rest));
+		return score;
+	}
+
+}
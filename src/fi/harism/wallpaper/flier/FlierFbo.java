@@ -19,7 +19,9 @@ package fi.harism.wallpaper.flier;
 import android.opengl.GLES20;
 
 /**
- * Helper class for handling frame buffer objects.
+ * Helper class for handling frame buffer objects. Generated objects are
+ * registered into FlierGLResources, meaning handles left from a lost context
+ * are never deleted from new one.
  */
 public final class FlierFbo {
 
@@ -27,6 +29,8 @@ public final class FlierFbo {
 	private int mDepthBufferHandle = -1;
 	// FBO handle.
 	private int mFrameBufferHandle = -1;
+	// Context generation FBO was initialized for.
+	private int mGeneration;
 	// Optional stencil buffer handle.
 	private int mStencilBufferHandle = -1;
 	// Generated texture handles.
@@ -84,6 +88,16 @@ public final class FlierFbo {
 		return mWidth;
 	}
 
+	/**
+	 * Checks whether FBO has been initialized within current context.
+	 * 
+	 * @return True if FBO can be used.
+	 */
+	public boolean isValid() {
+		return mFrameBufferHandle != -1
+				&& mGeneration == FlierGLResources.getGeneration();
+	}
+
 	/**
 	 * Initializes FBO with given parameters. Calls simply init(int, int, int,
 	 * boolean) without render buffer generations.
@@ -124,17 +138,21 @@ public final class FlierFbo {
 		// Store FBO size.
 		mWidth = width;
 		mHeight = height;
+		mGeneration = FlierGLResources.getGeneration();
 
 		// Genereta FBO.
 		int handle[] = { 0 };
 		GLES20.glGenFramebuffers(1, handle, 0);
 		mFrameBufferHandle = handle[0];
+		FlierGLResources.add(this, FlierGLResources.TYPE_FRAMEBUFFER,
+				mFrameBufferHandle);
 		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferHandle);
 
 		// Generate textures.
 		mTextureHandles = new int[textureCount];
 		GLES20.glGenTextures(textureCount, mTextureHandles, 0);
 		for (int texture : mTextureHandles) {
+			FlierGLResources.add(this, FlierGLResources.TYPE_TEXTURE, texture);
 			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
 			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
 					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
@@ -153,6 +171,8 @@ public final class FlierFbo {
 		if (genDepthBuffer) {
 			GLES20.glGenRenderbuffers(1, handle, 0);
 			mDepthBufferHandle = handle[0];
+			FlierGLResources.add(this, FlierGLResources.TYPE_RENDERBUFFER,
+					mDepthBufferHandle);
 			GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
 					mDepthBufferHandle);
 			GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
@@ -165,6 +185,8 @@ public final class FlierFbo {
 		if (genStencilBuffer) {
 			GLES20.glGenRenderbuffers(1, handle, 0);
 			mStencilBufferHandle = handle[0];
+			FlierGLResources.add(this, FlierGLResources.TYPE_RENDERBUFFER,
+					mStencilBufferHandle);
 			GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
 					mStencilBufferHandle);
 			GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
@@ -177,16 +199,11 @@ public final class FlierFbo {
 
 	/**
 	 * Resets this FBO into its initial state, releasing all resources that were
-	 * allocated during a call to init.
+	 * allocated during a call to init. Resources of a lost context are only
+	 * forgotten.
 	 */
 	public void reset() {
-		int[] handle = { mFrameBufferHandle };
-		GLES20.glDeleteFramebuffers(1, handle, 0);
-		handle[0] = mDepthBufferHandle;
-		GLES20.glDeleteRenderbuffers(1, handle, 0);
-		handle[0] = mStencilBufferHandle;
-		GLES20.glDeleteRenderbuffers(1, handle, 0);
-		GLES20.glDeleteTextures(mTextureHandles.length, mTextureHandles, 0);
+		FlierGLResources.deleteAll(this);
 		mFrameBufferHandle = mDepthBufferHandle = mStencilBufferHandle = -1;
 		mTextureHandles = new int[0];
 	}
@@ -0,0 +1,393 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import android.opengl.GLES20;
+
+/**
+ * Class for handling flock of paper planes. Flock is simulated with boids
+ * model and every plane is transformed on CPU into shared vertex batches,
+ * meaning whole flock is rendered with two draw calls regardless of its size.
+ * Batches are rewritten every frame into one stream buffer.
+ */
+public final class FlierFlock implements FlierLayer {
+
+	// Maximum number of planes in flock.
+	public static final int MAX_FLOCK_SIZE = 512;
+
+	// Number of floats per plane in state, position and velocity.
+	private static final int PLANE_STATE_SIZE = 6;
+	// Plane scale in flock space.
+	private static final float PLANE_SCALE = .035f;
+	// Plane model vertices, nose pointing towards negative z.
+	private static final float[] PLANE_VERTICES = { 0f, .3f, -1.2f, 1f, .3f,
+			1.2f, .3f, .3f, 1.2f, 0f, -.3f, 1.2f, -.3f, .3f, 1.2f, -1f, .3f,
+			1.2f };
+	// Plane model triangle indices.
+	private static final int[] PLANE_TRIANGLES = { 0, 1, 2, 0, 2, 3, 0, 3, 4,
+			0, 4, 5 };
+	// Plane model line indices.
+	private static final int[] PLANE_LINES = { 0, 1, 0, 2, 0, 3, 0, 4, 0, 5,
+			1, 2, 2, 3, 3, 4, 4, 5 };
+
+	// FBO aspect ratio.
+	private float mAspectRatio;
+	// Boids simulation, simulation only.
+	private final FlierBoids mBoids = new FlierBoids(MAX_FLOCK_SIZE);
+	// Plane bounds in normalized device coordinates as consecutive left,
+	// bottom, right and top values, for current and previous frame.
+	private float[] mBounds = new float[MAX_FLOCK_SIZE * 4],
+			mBoundsPrev = new float[MAX_FLOCK_SIZE * 4];
+	// Stream buffer holding batched vertices.
+	private final FlierStreamBuffer mBuffer;
+	// Number of planes in latest and previous state.
+	private int mCount, mCountPrev;
+	// Latest flock size published from rendering thread.
+	private volatile int mFlockSizePending;
+	// Outline line width.
+	private int mLineWidth;
+	// Bounds padding covering outline width.
+	private float mLinePadding;
+	// Offsets of line and triangle batches within stream buffer.
+	private int mOffsetLines, mOffsetTriangles;
+	// Flag for leaving blending to renderer while counting overdraw.
+	private boolean mOverdraw;
+	// Projection and view matrix combined.
+	private final float[] mProjViewM = new float[16];
+	// Projection and view matrices.
+	private final float[] mProjM = new float[16], mViewM = new float[16];
+	// Shader shared with single plane.
+	private final FlierShader mShaderPlane = new FlierShader();
+	// Temporary arrays for building vertex batches.
+	private final float[] mTempLines, mTempTriangles;
+	// Temporary array for transformed plane vertices.
+	private final float[] mTempVertices = new float[PLANE_VERTICES.length];
+
+	/**
+	 * Default constructor.
+	 */
+	public FlierFlock() {
+		mTempLines = new float[MAX_FLOCK_SIZE * PLANE_LINES.length * 3];
+		mTempTriangles = new float[MAX_FLOCK_SIZE * PLANE_TRIANGLES.length * 3];
+		mBuffer = new FlierStreamBuffer(mTempLines.length
+				+ mTempTriangles.length);
+	}
+
+	/**
+	 * Adds regions changed during latest update into damage. Every plane
+	 * adds its own bounds over current and previous frame, damage merges
+	 * them into a few rectangles around groups of planes. Planes removed
+	 * since previous frame add their previous bounds only.
+	 * 
+	 * @param damage
+	 *            Damage to add regions into.
+	 */
+	@Override
+	public void addDamage(FlierDamage damage) {
+		final float[] bounds = mBounds, boundsPrev = mBoundsPrev;
+		int count = Math.max(mCount, mCountPrev);
+		for (int i = 0; i < count * 4; i += 4) {
+			if (i >= mCount * 4) {
+				damage.add(boundsPrev[i], boundsPrev[i + 1],
+						boundsPrev[i + 2], boundsPrev[i + 3]);
+			} else if (i >= mCountPrev * 4) {
+				damage.add(bounds[i], bounds[i + 1], bounds[i + 2],
+						bounds[i + 3]);
+			} else {
+				damage.add(Math.min(bounds[i], boundsPrev[i]),
+						Math.min(bounds[i + 1], boundsPrev[i + 1]),
+						Math.max(bounds[i + 2], boundsPrev[i + 2]),
+						Math.max(bounds[i + 3], boundsPrev[i + 3]));
+			}
+		}
+	}
+
+	@Override
+	public int getMaxReduction() {
+		return 1;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 1 + MAX_FLOCK_SIZE * PLANE_STATE_SIZE;
+	}
+
+	/**
+	 * Called from renderer for rendering flock into the scene. First
+	 * reduction step skips blended outline pass.
+	 */
+	@Override
+	public void onDrawFrame(int ranges, int reduction) {
+		if ((ranges & RANGE_NEAR) == 0 || mCount == 0) {
+			return;
+		}
+
+		mShaderPlane.useProgram();
+		int uModelViewProjM = mShaderPlane.getHandle("uModelViewProjM");
+		int uColorIndex = mShaderPlane.getHandle("uColorIndex");
+		int uAlpha = mShaderPlane.getHandle("uAlpha");
+		int aPosition = mShaderPlane.getHandle("aPosition");
+		GLES20.glUniformMatrix4fv(uModelViewProjM, 1, false, mProjViewM, 0);
+		GLES20.glEnableVertexAttribArray(aPosition);
+
+		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+		GLES20.glDepthFunc(GLES20.GL_LESS);
+		GLES20.glEnable(GLES20.GL_STENCIL_TEST);
+		GLES20.glStencilFunc(GLES20.GL_ALWAYS, 0x01, 0xFFFFFFFF);
+		GLES20.glStencilOp(GLES20.GL_REPLACE, GLES20.GL_REPLACE,
+				GLES20.GL_REPLACE);
+
+		// Render filled polygons.
+		mBuffer.setVertexAttribPointer(aPosition, 3, 3, mOffsetTriangles);
+		GLES20.glEnable(GLES20.GL_POLYGON_OFFSET_FILL);
+		GLES20.glPolygonOffset(1f, 1f);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_PLANE);
+		GLES20.glUniform1f(uAlpha, 1f);
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, mCount
+				* PLANE_TRIANGLES.length);
+		GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
+
+		// Render sharp outlines.
+		mBuffer.setVertexAttribPointer(aPosition, 3, 3, mOffsetLines);
+		GLES20.glLineWidth(mLineWidth);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_PLANE_OUTLINE);
+		GLES20.glDrawArrays(GLES20.GL_LINES, 0, mCount * PLANE_LINES.length);
+
+		// Render outlines with blending for smoothening them a bit.
+		if (reduction == 0) {
+			if (!mOverdraw) {
+				GLES20.glEnable(GLES20.GL_BLEND);
+				GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA,
+						GLES20.GL_ONE_MINUS_SRC_ALPHA, GLES20.GL_ONE,
+						GLES20.GL_ONE_MINUS_SRC_ALPHA);
+			}
+			GLES20.glLineWidth(mLineWidth + .5f);
+			GLES20.glUniform1f(uAlpha, .5f);
+			GLES20.glDrawArrays(GLES20.GL_LINES, 0, mCount
+					* PLANE_LINES.length);
+			if (!mOverdraw) {
+				GLES20.glDisable(GLES20.GL_BLEND);
+			}
+		}
+
+		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+	}
+
+	/**
+	 * Called from renderer once surface has changed.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	@Override
+	public void onSurfaceChanged(int width, int height) {
+		// Flock has no GL objects depending on size.
+	}
+
+	/**
+	 * Called from renderer once surface has been created.
+	 * 
+	 * @param shaders
+	 *            Shader variants to request programs from.
+	 */
+	@Override
+	public void onSurfaceCreated(FlierShaderVariants shaders) {
+		mShaderPlane.setProgram(shaders, R.string.shader_plane_vs,
+				R.string.shader_plane_fs);
+	}
+
+	@Override
+	public void onTouch(int action, float x, float y) {
+		// Flock is not affected by touch.
+	}
+
+	@Override
+	public void onRelease() {
+		// Programs are owned by shader variants, nothing to delete.
+	}
+
+	/**
+	 * Called from simulation thread once per time step. State holds plane
+	 * count followed by position and velocity of every plane.
+	 * 
+	 * @param clock
+	 *            Simulation clock.
+	 * @param state
+	 *            Array to write state into.
+	 */
+	@Override
+	public void onSimulate(FlierClock clock, float[] state) {
+		int flockSize = mFlockSizePending;
+		if (flockSize != mBoids.getCount()) {
+			mBoids.setCount(flockSize);
+		}
+		mBoids.step(clock.getStepSeconds());
+
+		int count = mBoids.getCount();
+		float[] positions = mBoids.getPositions();
+		float[] velocities = mBoids.getVelocities();
+		state[0] = count;
+		for (int i = 0; i < count; ++i) {
+			int index = 1 + i * PLANE_STATE_SIZE;
+			System.arraycopy(positions, i * 3, state, index, 3);
+			System.arraycopy(velocities, i * 3, state, index + 3, 3);
+		}
+	}
+
+	@Override
+	public void setConfig(FlierConfig config) {
+		mFlockSizePending = Math.min(MAX_FLOCK_SIZE, config.getFlockSize());
+		mOverdraw = config.isOverdraw();
+	}
+
+	/**
+	 * Sets scene size, projection is updated accordingly.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	@Override
+	public void setSize(int width, int height) {
+		mLineWidth = Math.max(1, Math.min(width, height) / 320);
+		mLinePadding = 2f * (mLineWidth + 1) / Math.min(width, height);
+		mAspectRatio = (float) height / width;
+		FlierMatrix.orthoM(mProjM, 0, -1f, 1f, -mAspectRatio, mAspectRatio,
+				1f, 21f);
+		FlierMatrix.setLookAtM(mViewM, 0, 0, 1f, 5f, 0, 0, 0, 0f, 1f, 0f);
+		FlierMatrix.multiplyMM(mProjViewM, 0, mProjM, 0, mViewM, 0);
+	}
+
+	/**
+	 * Called from renderer once per frame. Interpolates planes between
+	 * simulation steps and builds vertex batches for them.
+	 * 
+	 * @param prevState
+	 *            State of previous simulation step.
+	 * @param state
+	 *            State of current simulation step.
+	 * @param t
+	 *            Interpolation factor.
+	 */
+	@Override
+	public void setState(float[] prevState, float[] state, float t) {
+		mCountPrev = mCount;
+		mCount = (int) state[0];
+		// Planes may have been respawned once flock size changes.
+		if ((int) prevState[0] != mCount) {
+			prevState = state;
+		}
+
+		// Bounds are collected from transformed vertices, projection is
+		// orthographic. Previous bounds are kept by swapping arrays.
+		final float[] m = mProjViewM;
+		final float[] bounds = mBoundsPrev;
+		mBoundsPrev = mBounds;
+		mBounds = bounds;
+
+		final float[] vertices = mTempVertices;
+		final float[] lines = mTempLines;
+		final float[] triangles = mTempTriangles;
+		int lineIndex = 0, triangleIndex = 0;
+		for (int i = 0; i < mCount; ++i) {
+			int index = 1 + i * PLANE_STATE_SIZE;
+			float px = prevState[index] + t
+					* (state[index] - prevState[index]);
+			float py = prevState[index + 1] + t
+					* (state[index + 1] - prevState[index + 1]);
+			float pz = prevState[index + 2] + t
+					* (state[index + 2] - prevState[index + 2]);
+			float fx = prevState[index + 3] + t
+					* (state[index + 3] - prevState[index + 3]);
+			float fy = prevState[index + 4] + t
+					* (state[index + 4] - prevState[index + 4]);
+			float fz = prevState[index + 5] + t
+					* (state[index + 5] - prevState[index + 5]);
+
+			// Build orthonormal basis from velocity, forward, right and up.
+			float len = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+			if (len < 1e-6f) {
+				fx = 0f;
+				fy = 0f;
+				fz = -1f;
+			} else {
+				fx /= len;
+				fy /= len;
+				fz /= len;
+			}
+			float rx = -fz, rz = fx;
+			len = (float) Math.sqrt(rx * rx + rz * rz);
+			if (len < 1e-3f) {
+				rx = 1f;
+				rz = 0f;
+			} else {
+				rx /= len;
+				rz /= len;
+			}
+			float ux = -rz * fy, uy = rz * fx - rx * fz, uz = rx * fy;
+
+			py *= mAspectRatio;
+			int boundsIndex = i * 4;
+			bounds[boundsIndex] = bounds[boundsIndex + 1] = Float.MAX_VALUE;
+			bounds[boundsIndex + 2] = -Float.MAX_VALUE;
+			bounds[boundsIndex + 3] = -Float.MAX_VALUE;
+			for (int j = 0; j < PLANE_VERTICES.length; j += 3) {
+				float mx = PLANE_VERTICES[j] * PLANE_SCALE;
+				float my = PLANE_VERTICES[j + 1] * PLANE_SCALE;
+				float mz = -PLANE_VERTICES[j + 2] * PLANE_SCALE;
+				vertices[j] = px + rx * mx + ux * my + fx * mz;
+				vertices[j + 1] = py + uy * my + fy * mz;
+				vertices[j + 2] = pz + rz * mx + uz * my + fz * mz;
+				float x = m[0] * vertices[j] + m[4] * vertices[j + 1] + m[8]
+						* vertices[j + 2] + m[12];
+				float y = m[1] * vertices[j] + m[5] * vertices[j + 1] + m[9]
+						* vertices[j + 2] + m[13];
+				bounds[boundsIndex] = Math.min(bounds[boundsIndex], x
+						- mLinePadding);
+				bounds[boundsIndex + 1] = Math.min(bounds[boundsIndex + 1], y
+						- mLinePadding);
+				bounds[boundsIndex + 2] = Math.max(bounds[boundsIndex + 2], x
+						+ mLinePadding);
+				bounds[boundsIndex + 3] = Math.max(bounds[boundsIndex + 3], y
+						+ mLinePadding);
+			}
+			for (int j = 0; j < PLANE_TRIANGLES.length; ++j) {
+				System.arraycopy(vertices, PLANE_TRIANGLES[j] * 3, triangles,
+						triangleIndex, 3);
+				triangleIndex += 3;
+			}
+			for (int j = 0; j < PLANE_LINES.length; ++j) {
+				System.arraycopy(vertices, PLANE_LINES[j] * 3, lines,
+						lineIndex, 3);
+				lineIndex += 3;
+			}
+		}
+		mBuffer.reset();
+		mOffsetTriangles = mBuffer.append(triangles, 0, triangleIndex);
+		mOffsetLines = mBuffer.append(lines, 0, lineIndex);
+	}
+
+	@Override
+	public void setXOffset(float xOffset) {
+		// Flock is not affected by scrolling.
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Registry of GL objects by owner. Every object created for rendering
+ * context is added here together with its owner and deleted through here,
+ * meaning all of them can be freed deterministically before context is
+ * destroyed. Once new context is created, objects of previous context are
+ * forgotten without deleting them, as their handles may already be reused
+ * by new objects. When leak detection is enabled, objects whose owner has
+ * been garbage collected or which are still alive once everything is
+ * released are logged as leaks. Should be used from rendering thread only.
+ */
+public final class FlierGLResources {
+
+	// Object types.
+	public static final int TYPE_BUFFER = 0;
+	public static final int TYPE_FRAMEBUFFER = 1;
+	public static final int TYPE_PROGRAM = 2;
+	public static final int TYPE_RENDERBUFFER = 3;
+	public static final int TYPE_SHADER = 4;
+	public static final int TYPE_TEXTURE = 5;
+
+	// Tag for log messages.
+	private static final String TAG = "FlierGLResources";
+	// Object type names for log messages.
+	private static final String[] TYPE_NAMES = { "buffer", "framebuffer",
+			"program", "renderbuffer", "shader", "texture" };
+
+	// Objects of current context.
+	private static final ArrayList<Entry> sEntries = new ArrayList<Entry>();
+	// Counter increased every time new context is created.
+	private static int sGeneration;
+	// Flag for logging leaked objects.
+	private static boolean sLeakDetection;
+
+	/**
+	 * Adds object into registry.
+	 * 
+	 * @param owner
+	 *            Object responsible for deleting GL object.
+	 * @param type
+	 *            One of TYPE_* values.
+	 * @param handle
+	 *            GL object handle.
+	 */
+	public static void add(Object owner, int type, int handle) {
+		sEntries.add(new Entry(owner, type, handle));
+	}
+
+	/**
+	 * Deletes object if it is registered for given owner. Handles created
+	 * for previous context are ignored.
+	 * 
+	 * @param owner
+	 *            Object object was registered for.
+	 * @param type
+	 *            One of TYPE_* values.
+	 * @param handle
+	 *            GL object handle.
+	 * @return True if object was deleted.
+	 */
+	public static boolean delete(Object owner, int type, int handle) {
+		for (int i = 0; i < sEntries.size(); ++i) {
+			Entry entry = sEntries.get(i);
+			if (entry.mType == type && entry.mHandle == handle
+					&& entry.mOwner.get() == owner) {
+				sEntries.remove(i);
+				deleteObject(type, handle);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes all objects. Objects still registered at this point were not
+	 * deleted by their owners and are logged as leaks if leak detection is
+	 * enabled.
+	 */
+	public static void deleteAll() {
+		for (Entry entry : sEntries) {
+			if (sLeakDetection) {
+				Log.w(TAG, "Leaked " + TYPE_NAMES[entry.mType] + " "
+						+ entry.mHandle + " of " + entry.mOwnerName);
+			}
+			deleteObject(entry.mType, entry.mHandle);
+		}
+		sEntries.clear();
+	}
+
+	/**
+	 * Deletes all objects registered for given owner.
+	 * 
+	 * @param owner
+	 *            Object objects were registered for.
+	 */
+	public static void deleteAll(Object owner) {
+		for (int i = sEntries.size() - 1; i >= 0; --i) {
+			Entry entry = sEntries.get(i);
+			if (entry.mOwner.get() == owner) {
+				sEntries.remove(i);
+				deleteObject(entry.mType, entry.mHandle);
+			}
+		}
+	}
+
+	/**
+	 * Deletes GL object.
+	 * 
+	 * @param type
+	 *            One of TYPE_* values.
+	 * @param handle
+	 *            GL object handle.
+	 */
+	private static void deleteObject(int type, int handle) {
+		int[] handles = { handle };
+		switch (type) {
+		case TYPE_BUFFER:
+			GLES20.glDeleteBuffers(1, handles, 0);
+			break;
+		case TYPE_FRAMEBUFFER:
+			GLES20.glDeleteFramebuffers(1, handles, 0);
+			break;
+		case TYPE_PROGRAM:
+			GLES20.glDeleteProgram(handle);
+			break;
+		case TYPE_RENDERBUFFER:
+			GLES20.glDeleteRenderbuffers(1, handles, 0);
+			break;
+		case TYPE_SHADER:
+			GLES20.glDeleteShader(handle);
+			break;
+		case TYPE_TEXTURE:
+			GLES20.glDeleteTextures(1, handles, 0);
+			break;
+		}
+	}
+
+	/**
+	 * Deletes objects whose owner has been garbage collected, logging them
+	 * as leaks. Does nothing unless leak detection is enabled.
+	 * 
+	 * @return Number of leaked objects found.
+	 */
+	public static int detectLeaks() {
+		if (!sLeakDetection) {
+			return 0;
+		}
+		int count = 0;
+		for (int i = sEntries.size() - 1; i >= 0; --i) {
+			Entry entry = sEntries.get(i);
+			if (entry.mOwner.get() == null) {
+				Log.w(TAG, "Leaked " + TYPE_NAMES[entry.mType] + " "
+						+ entry.mHandle + " of collected " + entry.mOwnerName);
+				sEntries.remove(i);
+				deleteObject(entry.mType, entry.mHandle);
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Getter for number of registered objects of given type.
+	 * 
+	 * @param type
+	 *            One of TYPE_* values.
+	 * @return Object count.
+	 */
+	public static int getCount(int type) {
+		int count = 0;
+		for (Entry entry : sEntries) {
+			if (entry.mType == type) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Getter for context generation. Generation changes every time new
+	 * context is created, objects created for older generations are gone.
+	 * 
+	 * @return Generation counter.
+	 */
+	public static int getGeneration() {
+		return sGeneration;
+	}
+
+	/**
+	 * Should be called once new context has been created. Objects of previous
+	 * context are forgotten without deleting them.
+	 */
+	public static void onContextCreated() {
+		sEntries.clear();
+		++sGeneration;
+	}
+
+	/**
+	 * Enables or disables leak detection, meant for debug builds.
+	 * 
+	 * @param leakDetection
+	 *            True if leaked objects should be logged.
+	 */
+	public static void setLeakDetection(boolean leakDetection) {
+		sLeakDetection = leakDetection;
+	}
+
+	/**
+	 * Private class for storing registered object.
+	 */
+	private static final class Entry {
+		public final int mHandle;
+		public final WeakReference<Object> mOwner;
+		public final String mOwnerName;
+		public final int mType;
+
+		public Entry(Object owner, int type, int handle) {
+			mOwner = new WeakReference<Object>(owner);
+			mOwnerName = owner.getClass().getSimpleName();
+			mType = type;
+			mHandle = handle;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Common interface for scene layers. Renderer keeps an ordered list of layers
+ * and calls these methods for each of them, meaning new layers can be added
+ * without changes to renderer itself. Layers are rendered in list order.
+ * Simulation runs on its own thread, onSimulate(..) is called from there and
+ * it must not touch any values used for rendering, all other methods are
+ * called from rendering thread.
+ */
+public interface FlierLayer {
+
+	// Depth ranges layers render into, used for caching layers separately.
+	public static final int RANGE_FAR = 0x01, RANGE_MID = 0x02,
+			RANGE_NEAR = 0x04, RANGE_ALL = 0x07;
+
+	/**
+	 * Adds regions changed during latest update into damage.
+	 * 
+	 * @param damage
+	 *            Damage to add regions into.
+	 */
+	public void addDamage(FlierDamage damage);
+
+	/**
+	 * Getter for number of detail reduction steps this layer supports. Each
+	 * step should skip or decimate some optional rendering work.
+	 * 
+	 * @return Maximum reduction value, zero if layer has no optional work.
+	 */
+	public int getMaxReduction();
+
+	/**
+	 * Getter for size of layer simulation state.
+	 * 
+	 * @return Number of floats needed for storing state.
+	 */
+	public int getStateSize();
+
+	/**
+	 * Called from renderer for rendering layer into scene.
+	 * 
+	 * @param ranges
+	 *            Combination of RANGE_* flags, only parts of layer within
+	 *            given depth ranges should be rendered.
+	 * @param reduction
+	 *            Detail reduction, value between [0, getMaxReduction()].
+	 */
+	public void onDrawFrame(int ranges, int reduction);
+
+	/**
+	 * Called from renderer before rendering context is released, while it is
+	 * still current. Layer should delete GL objects it has created itself.
+	 */
+	public void onRelease();
+
+	/**
+	 * Called from simulation thread once per fixed time step. Layer advances
+	 * its simulation and writes resulting state into given array.
+	 * 
+	 * @param clock
+	 *            Simulation clock.
+	 * @param state
+	 *            Array of getStateSize() floats to write state into.
+	 */
+	public void onSimulate(FlierClock clock, float[] state);
+
+	/**
+	 * Called from renderer once surface has changed, after setSize(..).
+	 * Layer recreates GL objects depending on scene size.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	public void onSurfaceChanged(int width, int height);
+
+	/**
+	 * Called from renderer once surface has been created.
+	 * 
+	 * @param shaders
+	 *            Shader variants to request programs from.
+	 */
+	public void onSurfaceCreated(FlierShaderVariants shaders);
+
+	/**
+	 * Called from renderer for every touch event received since previous
+	 * frame, before setState(..) of the frame touch should affect.
+	 * 
+	 * @param action
+	 *            One of FlierTouchQueue.ACTION_* values.
+	 * @param x
+	 *            Touch x position in normalized device coordinates.
+	 * @param y
+	 *            Touch y position in normalized device coordinates.
+	 */
+	public void onTouch(int action, float x, float y);
+
+	/**
+	 * Applies colors from given configuration.
+	 * 
+	 * @param config
+	 *            Configuration to read colors from.
+	 */
+	public void setConfig(FlierConfig config);
+
+	/**
+	 * Sets size of scene layer is rendered into. Layer updates projection
+	 * and other values depending on size, no GL calls are allowed here as
+	 * scene may be driven without rendering context.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 */
+	public void setSize(int width, int height);
+
+	/**
+	 * Called from renderer once per frame before rendering. Layer updates its
+	 * rendered values by interpolating between two simulation states.
+	 * 
+	 * @param prevState
+	 *            State of previous simulation step.
+	 * @param state
+	 *            State of current simulation step.
+	 * @param t
+	 *            Interpolation factor, value between [0, 1].
+	 */
+	public void setState(float[] prevState, float[] state, float t);
+
+	/**
+	 * Setter for scroll offset. Called before setState(..).
+	 * 
+	 * @param xOffset
+	 *            Scroll offset, value between [0, 1].
+	 */
+	public void setXOffset(float xOffset);
+
+}
@@ -0,0 +1,176 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Keeps layer rendering within per frame time budget. Layer costs are
+ * measured on probe frames only, once every PROBE_INTERVAL frames, as
+ * measuring requires synchronizing with GPU. If total cost exceeds budget,
+ * detail of most expensive reducible layer is reduced by one step, and once
+ * cost drops well below budget, detail is restored one step at a time.
+ * Minimum reduction can be forced on all layers regardless of their costs.
+ * This class has no Android dependencies.
+ */
+public final class FlierLayerScheduler {
+
+	// Frames between two probe frames, has to be a power of two.
+	private static final int PROBE_INTERVAL = 32;
+	// Portion of budget total cost has to drop below for restoring detail.
+	private static final float RESTORE_RATIO = .6f;
+
+	// Per frame rendering budget.
+	private final long mBudgetNanos;
+	// Smoothed layer costs.
+	private final long[] mCosts;
+	// Costs measured during current frame.
+	private final long[] mFrameCosts;
+	// Frame counter.
+	private int mFrameCount;
+	// Maximum reductions per layer.
+	private final int[] mMaxReductions;
+	// Reduction forced on all layers.
+	private int mMinReduction;
+	// Flag for indicating current frame is a probe frame.
+	private boolean mProbeFrame;
+	// Current reductions per layer.
+	private final int[] mReductions;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param budgetNanos
+	 *            Rendering budget per frame in nanoseconds.
+	 * @param maxReductions
+	 *            Maximum detail reduction for each layer.
+	 */
+	public FlierLayerScheduler(long budgetNanos, int[] maxReductions) {
+		mBudgetNanos = budgetNanos;
+		mMaxReductions = maxReductions.clone();
+		mReductions = new int[maxReductions.length];
+		mCosts = new long[maxReductions.length];
+		mFrameCosts = new long[maxReductions.length];
+	}
+
+	/**
+	 * Adds measured cost for layer. Should be called on probe frames only,
+	 * costs added during one frame are summed together.
+	 * 
+	 * @param layer
+	 *            Layer index.
+	 * @param costNanos
+	 *            Measured cost in nanoseconds.
+	 */
+	public void addCost(int layer, long costNanos) {
+		mFrameCosts[layer] += costNanos;
+	}
+
+	/**
+	 * Starts new frame.
+	 * 
+	 * @return True if layer costs should be measured during this frame.
+	 */
+	public boolean beginFrame() {
+		mProbeFrame = (mFrameCount++ & (PROBE_INTERVAL - 1)) == 0;
+		if (mProbeFrame) {
+			for (int i = 0; i < mFrameCosts.length; ++i) {
+				mFrameCosts[i] = 0;
+			}
+		}
+		return mProbeFrame;
+	}
+
+	/**
+	 * Ends current frame and adjusts layer reductions if it was a probe
+	 * frame.
+	 * 
+	 * @return True if any layer reduction changed.
+	 */
+	public boolean endFrame() {
+		if (!mProbeFrame) {
+			return false;
+		}
+		long total = 0;
+		for (int i = 0; i < mCosts.length; ++i) {
+			mCosts[i] += (mFrameCosts[i] - mCosts[i]) / 4;
+			total += mCosts[i];
+		}
+
+		if (total > mBudgetNanos) {
+			// Reduce most expensive layer which still can be reduced.
+			int layer = -1;
+			for (int i = 0; i < mCosts.length; ++i) {
+				if (mReductions[i] < mMaxReductions[i]
+						&& (layer == -1 || mCosts[i] > mCosts[layer])) {
+					layer = i;
+				}
+			}
+			if (layer != -1) {
+				++mReductions[layer];
+				return true;
+			}
+		} else if (total < mBudgetNanos * RESTORE_RATIO) {
+			// Restore cheapest reduced layer.
+			int layer = -1;
+			for (int i = 0; i < mCosts.length; ++i) {
+				if (mReductions[i] > 0
+						&& (layer == -1 || mCosts[i] < mCosts[layer])) {
+					layer = i;
+				}
+			}
+			if (layer != -1) {
+				--mReductions[layer];
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Getter for smoothed layer cost.
+	 * 
+	 * @param layer
+	 *            Layer index.
+	 * @return Cost in nanoseconds.
+	 */
+	public long getCost(int layer) {
+		return mCosts[layer];
+	}
+
+	/**
+	 * Getter for current layer reduction.
+	 * 
+	 * @param layer
+	 *            Layer index.
+	 * @return Reduction value between [0, max reduction].
+	 */
+	public int getReduction(int layer) {
+		return Math.max(mReductions[layer],
+				Math.min(mMinReduction, mMaxReductions[layer]));
+	}
+
+	/**
+	 * Sets reduction forced on all layers, limited by maximum reduction of
+	 * each layer.
+	 * 
+	 * @param minReduction
+	 *            Minimum reduction.
+	 */
+	public void setMinReduction(int minReduction) {
+		mMinReduction = minReduction;
+	}
+
+}
@@ -0,0 +1,453 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Matrix and vector operations used by layers outside rendering, same
+ * column-major layout and semantics as in android.opengl.Matrix. Layers
+ * update their state and damage with these, meaning the per-frame CPU path
+ * can be run on desktop JVM too. This class has no Android dependencies.
+ */
+public final class FlierMatrix {
+
+	// Temporary matrices for rotateM, guarded by itself.
+	private static final float[] sTemp = new float[32];
+
+	/**
+	 * Static methods only.
+	 */
+	private FlierMatrix() {
+	}
+
+	/**
+	 * Defines a perspective projection matrix in terms of six clip planes.
+	 * 
+	 * @param m
+	 *            Array to write matrix into.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param left
+	 *            Left clip plane at near plane.
+	 * @param right
+	 *            Right clip plane at near plane.
+	 * @param bottom
+	 *            Bottom clip plane at near plane.
+	 * @param top
+	 *            Top clip plane at near plane.
+	 * @param near
+	 *            Near plane distance.
+	 * @param far
+	 *            Far plane distance.
+	 */
+	public static void frustumM(float[] m, int offset, float left,
+			float right, float bottom, float top, float near, float far) {
+		final float rWidth = 1f / (right - left);
+		final float rHeight = 1f / (top - bottom);
+		final float rDepth = 1f / (near - far);
+		m[offset] = 2f * near * rWidth;
+		m[offset + 1] = m[offset + 2] = m[offset + 3] = 0f;
+		m[offset + 4] = 0f;
+		m[offset + 5] = 2f * near * rHeight;
+		m[offset + 6] = m[offset + 7] = 0f;
+		m[offset + 8] = (right + left) * rWidth;
+		m[offset + 9] = (top + bottom) * rHeight;
+		m[offset + 10] = (far + near) * rDepth;
+		m[offset + 11] = -1f;
+		m[offset + 12] = m[offset + 13] = 0f;
+		m[offset + 14] = 2f * far * near * rDepth;
+		m[offset + 15] = 0f;
+	}
+
+	/**
+	 * Inverts a matrix. Result and source must not overlap.
+	 * 
+	 * @param inv
+	 *            Array to write inverted matrix into.
+	 * @param invOffset
+	 *            Offset of inverted matrix in array.
+	 * @param m
+	 *            Source matrix.
+	 * @param mOffset
+	 *            Offset of source matrix in array.
+	 * @return False if matrix is not invertible, result is left untouched.
+	 */
+	public static boolean invertM(float[] inv, int invOffset, float[] m,
+			int mOffset) {
+		final float m0 = m[mOffset], m1 = m[mOffset + 1];
+		final float m2 = m[mOffset + 2], m3 = m[mOffset + 3];
+		final float m4 = m[mOffset + 4], m5 = m[mOffset + 5];
+		final float m6 = m[mOffset + 6], m7 = m[mOffset + 7];
+		final float m8 = m[mOffset + 8], m9 = m[mOffset + 9];
+		final float m10 = m[mOffset + 10], m11 = m[mOffset + 11];
+		final float m12 = m[mOffset + 12], m13 = m[mOffset + 13];
+		final float m14 = m[mOffset + 14], m15 = m[mOffset + 15];
+
+		// Cofactors, inverse of transpose is transpose of inverse meaning
+		// the same expansion works for column-major layout.
+		final float c0 = m5 * m10 * m15 - m5 * m11 * m14 - m9 * m6 * m15
+				+ m9 * m7 * m14 + m13 * m6 * m11 - m13 * m7 * m10;
+		final float c4 = -m4 * m10 * m15 + m4 * m11 * m14 + m8 * m6 * m15
+				- m8 * m7 * m14 - m12 * m6 * m11 + m12 * m7 * m10;
+		final float c8 = m4 * m9 * m15 - m4 * m11 * m13 - m8 * m5 * m15
+				+ m8 * m7 * m13 + m12 * m5 * m11 - m12 * m7 * m9;
+		final float c12 = -m4 * m9 * m14 + m4 * m10 * m13 + m8 * m5 * m14
+				- m8 * m6 * m13 - m12 * m5 * m10 + m12 * m6 * m9;
+		final float det = m0 * c0 + m1 * c4 + m2 * c8 + m3 * c12;
+		if (det == 0f) {
+			return false;
+		}
+		final float rDet = 1f / det;
+
+		inv[invOffset] = c0 * rDet;
+		inv[invOffset + 1] = (-m1 * m10 * m15 + m1 * m11 * m14 + m9 * m2
+				* m15 - m9 * m3 * m14 - m13 * m2 * m11 + m13 * m3 * m10)
+				* rDet;
+		inv[invOffset + 2] = (m1 * m6 * m15 - m1 * m7 * m14 - m5 * m2 * m15
+				+ m5 * m3 * m14 + m13 * m2 * m7 - m13 * m3 * m6)
+				* rDet;
+		inv[invOffset + 3] = (-m1 * m6 * m11 + m1 * m7 * m10 + m5 * m2 * m11
+				- m5 * m3 * m10 - m9 * m2 * m7 + m9 * m3 * m6)
+				* rDet;
+		inv[invOffset + 4] = c4 * rDet;
+		inv[invOffset + 5] = (m0 * m10 * m15 - m0 * m11 * m14 - m8 * m2 * m15
+				+ m8 * m3 * m14 + m12 * m2 * m11 - m12 * m3 * m10)
+				* rDet;
+		inv[invOffset + 6] = (-m0 * m6 * m15 + m0 * m7 * m14 + m4 * m2 * m15
+				- m4 * m3 * m14 - m12 * m2 * m7 + m12 * m3 * m6)
+				* rDet;
+		inv[invOffset + 7] = (m0 * m6 * m11 - m0 * m7 * m10 - m4 * m2 * m11
+				+ m4 * m3 * m10 + m8 * m2 * m7 - m8 * m3 * m6)
+				* rDet;
+		inv[invOffset + 8] = c8 * rDet;
+		inv[invOffset + 9] = (-m0 * m9 * m15 + m0 * m11 * m13 + m8 * m1 * m15
+				- m8 * m3 * m13 - m12 * m1 * m11 + m12 * m3 * m9)
+				* rDet;
+		inv[invOffset + 10] = (m0 * m5 * m15 - m0 * m7 * m13 - m4 * m1 * m15
+				+ m4 * m3 * m13 + m12 * m1 * m7 - m12 * m3 * m5)
+				* rDet;
+		inv[invOffset + 11] = (-m0 * m5 * m11 + m0 * m7 * m9 + m4 * m1 * m11
+				- m4 * m3 * m9 - m8 * m1 * m7 + m8 * m3 * m5)
+				* rDet;
+		inv[invOffset + 12] = c12 * rDet;
+		inv[invOffset + 13] = (m0 * m9 * m14 - m0 * m10 * m13 - m8 * m1 * m14
+				+ m8 * m2 * m13 + m12 * m1 * m10 - m12 * m2 * m9)
+				* rDet;
+		inv[invOffset + 14] = (-m0 * m5 * m14 + m0 * m6 * m13 + m4 * m1 * m14
+				- m4 * m2 * m13 - m12 * m1 * m6 + m12 * m2 * m5)
+				* rDet;
+		inv[invOffset + 15] = (m0 * m5 * m10 - m0 * m6 * m9 - m4 * m1 * m10
+				+ m4 * m2 * m9 + m8 * m1 * m6 - m8 * m2 * m5)
+				* rDet;
+		return true;
+	}
+
+	/**
+	 * Multiplies two matrices, result = lhs * rhs. Result must not overlap
+	 * with either source matrix.
+	 * 
+	 * @param result
+	 *            Array to write result into.
+	 * @param resultOffset
+	 *            Offset of result in array.
+	 * @param lhs
+	 *            Left hand side matrix.
+	 * @param lhsOffset
+	 *            Offset of left hand side matrix in array.
+	 * @param rhs
+	 *            Right hand side matrix.
+	 * @param rhsOffset
+	 *            Offset of right hand side matrix in array.
+	 */
+	public static void multiplyMM(float[] result, int resultOffset,
+			float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+		for (int i = 0; i < 4; ++i) {
+			final float r0 = rhs[rhsOffset + i * 4];
+			final float r1 = rhs[rhsOffset + i * 4 + 1];
+			final float r2 = rhs[rhsOffset + i * 4 + 2];
+			final float r3 = rhs[rhsOffset + i * 4 + 3];
+			for (int j = 0; j < 4; ++j) {
+				result[resultOffset + i * 4 + j] = lhs[lhsOffset + j] * r0
+						+ lhs[lhsOffset + 4 + j] * r1
+						+ lhs[lhsOffset + 8 + j] * r2
+						+ lhs[lhsOffset + 12 + j] * r3;
+			}
+		}
+	}
+
+	/**
+	 * Multiplies a four component vector by a matrix, result = lhs * rhs.
+	 * Result must not overlap with either source.
+	 * 
+	 * @param result
+	 *            Array to write result vector into.
+	 * @param resultOffset
+	 *            Offset of result vector in array.
+	 * @param lhs
+	 *            Matrix.
+	 * @param lhsOffset
+	 *            Offset of matrix in array.
+	 * @param rhs
+	 *            Vector.
+	 * @param rhsOffset
+	 *            Offset of vector in array.
+	 */
+	public static void multiplyMV(float[] result, int resultOffset,
+			float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+		final float x = rhs[rhsOffset], y = rhs[rhsOffset + 1];
+		final float z = rhs[rhsOffset + 2], w = rhs[rhsOffset + 3];
+		for (int j = 0; j < 4; ++j) {
+			result[resultOffset + j] = lhs[lhsOffset + j] * x
+					+ lhs[lhsOffset + 4 + j] * y + lhs[lhsOffset + 8 + j] * z
+					+ lhs[lhsOffset + 12 + j] * w;
+		}
+	}
+
+	/**
+	 * Defines an orthographic projection matrix.
+	 * 
+	 * @param m
+	 *            Array to write matrix into.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param left
+	 *            Left clip plane.
+	 * @param right
+	 *            Right clip plane.
+	 * @param bottom
+	 *            Bottom clip plane.
+	 * @param top
+	 *            Top clip plane.
+	 * @param near
+	 *            Near plane distance.
+	 * @param far
+	 *            Far plane distance.
+	 */
+	public static void orthoM(float[] m, int offset, float left, float right,
+			float bottom, float top, float near, float far) {
+		final float rWidth = 1f / (right - left);
+		final float rHeight = 1f / (top - bottom);
+		final float rDepth = 1f / (far - near);
+		setIdentityM(m, offset);
+		m[offset] = 2f * rWidth;
+		m[offset + 5] = 2f * rHeight;
+		m[offset + 10] = -2f * rDepth;
+		m[offset + 12] = -(right + left) * rWidth;
+		m[offset + 13] = -(top + bottom) * rHeight;
+		m[offset + 14] = -(far + near) * rDepth;
+	}
+
+	/**
+	 * Rotates matrix in place by given angle around axis (x, y, z).
+	 * 
+	 * @param m
+	 *            Matrix to rotate.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param a
+	 *            Angle in degrees.
+	 * @param x
+	 *            Axis x component.
+	 * @param y
+	 *            Axis y component.
+	 * @param z
+	 *            Axis z component.
+	 */
+	public static void rotateM(float[] m, int offset, float a, float x,
+			float y, float z) {
+		synchronized (sTemp) {
+			setRotateM(sTemp, 0, a, x, y, z);
+			multiplyMM(sTemp, 16, m, offset, sTemp, 0);
+			System.arraycopy(sTemp, 16, m, offset, 16);
+		}
+	}
+
+	/**
+	 * Scales matrix in place by given factors.
+	 * 
+	 * @param m
+	 *            Matrix to scale.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param x
+	 *            Scale factor x.
+	 * @param y
+	 *            Scale factor y.
+	 * @param z
+	 *            Scale factor z.
+	 */
+	public static void scaleM(float[] m, int offset, float x, float y, float z) {
+		for (int i = 0; i < 4; ++i) {
+			m[offset + i] *= x;
+			m[offset + 4 + i] *= y;
+			m[offset + 8 + i] *= z;
+		}
+	}
+
+	/**
+	 * Sets matrix to identity.
+	 * 
+	 * @param m
+	 *            Array to write matrix into.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 */
+	public static void setIdentityM(float[] m, int offset) {
+		for (int i = 0; i < 16; ++i) {
+			m[offset + i] = i % 5 == 0 ? 1f : 0f;
+		}
+	}
+
+	/**
+	 * Defines a viewing transformation in terms of eye position, point to
+	 * look at and up vector.
+	 * 
+	 * @param m
+	 *            Array to write matrix into.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param eyeX
+	 *            Eye x position.
+	 * @param eyeY
+	 *            Eye y position.
+	 * @param eyeZ
+	 *            Eye z position.
+	 * @param centerX
+	 *            Look at x position.
+	 * @param centerY
+	 *            Look at y position.
+	 * @param centerZ
+	 *            Look at z position.
+	 * @param upX
+	 *            Up vector x component.
+	 * @param upY
+	 *            Up vector y component.
+	 * @param upZ
+	 *            Up vector z component.
+	 */
+	public static void setLookAtM(float[] m, int offset, float eyeX,
+			float eyeY, float eyeZ, float centerX, float centerY,
+			float centerZ, float upX, float upY, float upZ) {
+		// Forward vector.
+		float fx = centerX - eyeX, fy = centerY - eyeY, fz = centerZ - eyeZ;
+		float rlf = 1f / length(fx, fy, fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+
+		// Side vector, forward x up.
+		float sx = fy * upZ - fz * upY;
+		float sy = fz * upX - fx * upZ;
+		float sz = fx * upY - fy * upX;
+		float rls = 1f / length(sx, sy, sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+
+		// Recomputed up vector, side x forward.
+		float ux = sy * fz - sz * fy;
+		float uy = sz * fx - sx * fz;
+		float uz = sx * fy - sy * fx;
+
+		m[offset] = sx;
+		m[offset + 1] = ux;
+		m[offset + 2] = -fx;
+		m[offset + 3] = 0f;
+		m[offset + 4] = sy;
+		m[offset + 5] = uy;
+		m[offset + 6] = -fy;
+		m[offset + 7] = 0f;
+		m[offset + 8] = sz;
+		m[offset + 9] = uz;
+		m[offset + 10] = -fz;
+		m[offset + 11] = 0f;
+		m[offset + 12] = m[offset + 13] = m[offset + 14] = 0f;
+		m[offset + 15] = 1f;
+		translateM(m, offset, -eyeX, -eyeY, -eyeZ);
+	}
+
+	/**
+	 * Defines a rotation matrix by given angle around axis (x, y, z).
+	 * 
+	 * @param m
+	 *            Array to write matrix into.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param a
+	 *            Angle in degrees.
+	 * @param x
+	 *            Axis x component.
+	 * @param y
+	 *            Axis y component.
+	 * @param z
+	 *            Axis z component.
+	 */
+	public static void setRotateM(float[] m, int offset, float a, float x,
+			float y, float z) {
+		a *= (float) (Math.PI / 180.0);
+		final float s = (float) Math.sin(a);
+		final float c = (float) Math.cos(a);
+		float rl = 1f / length(x, y, z);
+		x *= rl;
+		y *= rl;
+		z *= rl;
+		final float nc = 1f - c;
+		m[offset] = x * x * nc + c;
+		m[offset + 1] = x * y * nc + z * s;
+		m[offset + 2] = z * x * nc - y * s;
+		m[offset + 3] = 0f;
+		m[offset + 4] = x * y * nc - z * s;
+		m[offset + 5] = y * y * nc + c;
+		m[offset + 6] = y * z * nc + x * s;
+		m[offset + 7] = 0f;
+		m[offset + 8] = z * x * nc + y * s;
+		m[offset + 9] = y * z * nc - x * s;
+		m[offset + 10] = z * z * nc + c;
+		m[offset + 11] = 0f;
+		m[offset + 12] = m[offset + 13] = m[offset + 14] = 0f;
+		m[offset + 15] = 1f;
+	}
+
+	/**
+	 * Translates matrix in place by (x, y, z).
+	 * 
+	 * @param m
+	 *            Matrix to translate.
+	 * @param offset
+	 *            Offset of matrix in array.
+	 * @param x
+	 *            Translation x.
+	 * @param y
+	 *            Translation y.
+	 * @param z
+	 *            Translation z.
+	 */
+	public static void translateM(float[] m, int offset, float x, float y,
+			float z) {
+		for (int i = 0; i < 4; ++i) {
+			m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y
+					+ m[offset + 8 + i] * z;
+		}
+	}
+
+	/**
+	 * Calculates length of a three component vector.
+	 */
+	private static float length(float x, float y, float z) {
+		return (float) Math.sqrt(x * x + y * y + z * z);
+	}
+
+}
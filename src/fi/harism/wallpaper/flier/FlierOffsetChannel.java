@@ -0,0 +1,134 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Lock-free channel for passing timestamped scroll offsets from main thread
+ * into rendering thread. Writer stores samples into a small ring buffer and
+ * publishes them by incrementing a volatile counter, reader never blocks and
+ * retries only if writer managed to wrap around the ring while reading.
+ * Reader can request offset for any point in time, value is interpolated
+ * between stored samples or extrapolated from latest ones.
+ */
+public final class FlierOffsetChannel {
+
+	// How long offset is extrapolated after latest sample.
+	private static final long EXTRAPOLATE_NANOS = 32000000L;
+	// Number of samples kept, has to be a power of two.
+	private static final int SAMPLE_COUNT = 16;
+	// Samples older than this are not used for velocity estimation.
+	private static final long VELOCITY_WINDOW_NANOS = 48000000L;
+
+	// Sample offsets.
+	private final float[] mOffsets = new float[SAMPLE_COUNT];
+	// Sample timestamps in nanoseconds.
+	private final long[] mTimes = new long[SAMPLE_COUNT];
+	// Number of samples written, used for publishing samples.
+	private volatile int mWriteCount;
+
+	/**
+	 * Adds new offset sample. Should be called from one thread only.
+	 * 
+	 * @param offset
+	 *            Offset value.
+	 * @param timeNanos
+	 *            Sample time in System.nanoTime() time base.
+	 */
+	public void push(float offset, long timeNanos) {
+		int count = mWriteCount;
+		int index = count & (SAMPLE_COUNT - 1);
+		mOffsets[index] = offset;
+		mTimes[index] = timeNanos;
+		mWriteCount = count + 1;
+	}
+
+	/**
+	 * Calculates offset for given time. Can be called from any thread
+	 * concurrently with push(..).
+	 * 
+	 * @param timeNanos
+	 *            Time in System.nanoTime() time base, usually estimated
+	 *            presentation time of frame being rendered.
+	 * @return Offset value, or zero if there are no samples yet.
+	 */
+	public float sample(long timeNanos) {
+		for (;;) {
+			int count = mWriteCount;
+			if (count == 0) {
+				return 0f;
+			}
+			float offset = sample(timeNanos, count);
+			// Writer wraps around only if scrolling floods samples faster than
+			// we read them, in which case simply try again.
+			if (mWriteCount - count < SAMPLE_COUNT / 2) {
+				return offset;
+			}
+		}
+	}
+
+	/**
+	 * Calculates offset for given time using samples published before count.
+	 */
+	private float sample(long timeNanos, int count) {
+		int available = Math.min(count, SAMPLE_COUNT / 2);
+		int last = (count - 1) & (SAMPLE_COUNT - 1);
+		float lastOffset = mOffsets[last];
+		long lastTime = mTimes[last];
+
+		// Interpolate between samples if requested time is in the past.
+		if (timeNanos < lastTime) {
+			for (int i = 1; i < available; ++i) {
+				int index = (count - 1 - i) & (SAMPLE_COUNT - 1);
+				int next = (count - i) & (SAMPLE_COUNT - 1);
+				if (mTimes[index] <= timeNanos) {
+					float t = (float) (timeNanos - mTimes[index])
+							/ Math.max(1, mTimes[next] - mTimes[index]);
+					return mOffsets[index] + t
+							* (mOffsets[next] - mOffsets[index]);
+				}
+			}
+			return lastOffset;
+		}
+
+		// Find oldest sample within velocity window.
+		int first = last;
+		for (int i = 1; i < available; ++i) {
+			int index = (count - 1 - i) & (SAMPLE_COUNT - 1);
+			if (lastTime - mTimes[index] > VELOCITY_WINDOW_NANOS) {
+				break;
+			}
+			first = index;
+		}
+		long dt = lastTime - mTimes[first];
+		if (dt <= 0) {
+			return lastOffset;
+		}
+		float velocity = (lastOffset - mOffsets[first]) / dt;
+
+		// Extrapolate, easing back to latest sample once scrolling seems to
+		// have stopped.
+		long elapsed = timeNanos - lastTime;
+		if (elapsed > 2 * EXTRAPOLATE_NANOS) {
+			return lastOffset;
+		} else if (elapsed > EXTRAPOLATE_NANOS) {
+			elapsed = 2 * EXTRAPOLATE_NANOS - elapsed;
+		}
+		float offset = lastOffset + velocity * elapsed;
+		return Math.max(0f, Math.min(1f, offset));
+	}
+
+}
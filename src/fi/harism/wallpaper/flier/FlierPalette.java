@@ -0,0 +1,197 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Palette texture holding all scene colors. Texture is COLOR_COUNT texels
+ * wide and two texels high, colors ordered by FlierConfig.COLOR_* indices.
+ * Lower row holds colors faded from and upper row colors faded into, and
+ * shaders sample in between with linear filtering, meaning cross-fade
+ * between schemes is a single mix uniform and changing colors a single tiny
+ * texture upload.
+ */
+public final class FlierPalette {
+
+	// Duration of cross-fade between two palettes.
+	private static final float FADE_SECONDS = 1.5f;
+	// Texture unit palette is bound to, not used by anything else.
+	public static final int TEXTURE_UNIT = 3;
+
+	// Colors faded into.
+	private final float[] mColors = new float[FlierConfig.COLOR_COUNT * 3];
+	// Colors faded from.
+	private final float[] mColorsPrev = new float[FlierConfig.COLOR_COUNT * 3];
+	// Duration of current cross-fade.
+	private float mFadeSeconds = FADE_SECONDS;
+	// Resource generation texture was created in.
+	private int mGeneration;
+	// Flag for indicating colors have been set at least once.
+	private boolean mHasColors;
+	// Cross-fade position, 0 for previous colors and 1 for current ones.
+	private float mMix = 1f;
+	// Texel data for upload.
+	private final ByteBuffer mTexels = ByteBuffer
+			.allocateDirect(FlierConfig.COLOR_COUNT * 2 * 4);
+	// Palette texture handle.
+	private int mTexture = -1;
+	// Flag for indicating texture contents need to be uploaded.
+	private boolean mUploadNeeded;
+
+	/**
+	 * Binds palette texture into TEXTURE_UNIT, creating and uploading it
+	 * first if needed. Leaves TEXTURE0 as active texture unit. Should be
+	 * called from rendering thread once per frame before palette is used.
+	 */
+	public void bind() {
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + TEXTURE_UNIT);
+		if (mTexture == -1
+				|| mGeneration != FlierGLResources.getGeneration()) {
+			int[] handle = new int[1];
+			GLES20.glGenTextures(1, handle, 0);
+			mTexture = handle[0];
+			mGeneration = FlierGLResources.getGeneration();
+			FlierGLResources.add(this, FlierGLResources.TYPE_TEXTURE,
+					mTexture);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+			mUploadNeeded = true;
+		} else {
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+		}
+		if (mUploadNeeded) {
+			mTexels.position(0);
+			putTexels(mColorsPrev);
+			putTexels(mColors);
+			mTexels.position(0);
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+					FlierConfig.COLOR_COUNT, 2, 0, GLES20.GL_RGBA,
+					GLES20.GL_UNSIGNED_BYTE, mTexels);
+			mUploadNeeded = false;
+		}
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+	}
+
+	/**
+	 * Getter for cross-fade position.
+	 * 
+	 * @return Value between [0, 1], 0 for colors faded from and 1 for colors
+	 *         faded into.
+	 */
+	public float getMix() {
+		return mMix;
+	}
+
+	/**
+	 * Returns true if palette is cross-fading between two sets of colors.
+	 * 
+	 * @return True while fade is in progress.
+	 */
+	public boolean isFading() {
+		return mMix < 1f;
+	}
+
+	/**
+	 * Appends one row of texels from float RGB colors.
+	 * 
+	 * @param colors
+	 *            COLOR_COUNT * 3 float RGB values.
+	 */
+	private void putTexels(float[] colors) {
+		for (int i = 0; i < colors.length; i += 3) {
+			mTexels.put((byte) Math.round(colors[i] * 255));
+			mTexels.put((byte) Math.round(colors[i + 1] * 255));
+			mTexels.put((byte) Math.round(colors[i + 2] * 255));
+			mTexels.put((byte) 255);
+		}
+	}
+
+	/**
+	 * Deletes palette texture. Should be called from rendering thread before
+	 * context is released.
+	 */
+	public void release() {
+		FlierGLResources.deleteAll(this);
+		mTexture = -1;
+	}
+
+	/**
+	 * Sets new palette colors from configuration using default fade
+	 * duration.
+	 * 
+	 * @param config
+	 *            Configuration to read colors from.
+	 */
+	public void setColors(FlierConfig config) {
+		float[][] colors = new float[FlierConfig.COLOR_COUNT][];
+		for (int i = 0; i < colors.length; ++i) {
+			colors[i] = config.getColor(i);
+		}
+		setColors(colors, FADE_SECONDS);
+	}
+
+	/**
+	 * Sets new palette colors. Palette starts fading from currently shown
+	 * colors into new ones, colors set for the first time are shown
+	 * immediately.
+	 * 
+	 * @param colors
+	 *            COLOR_COUNT three component RGB values.
+	 * @param fadeSeconds
+	 *            Duration of cross-fade.
+	 */
+	public void setColors(float[][] colors, float fadeSeconds) {
+		for (int i = 0; i < mColors.length; i += 3) {
+			float[] color = colors[i / 3];
+			if (mHasColors) {
+				// Fade continues from whatever is currently on screen.
+				for (int j = 0; j < 3; ++j) {
+					mColorsPrev[i + j] += mMix
+							* (mColors[i + j] - mColorsPrev[i + j]);
+				}
+			} else {
+				System.arraycopy(color, 0, mColorsPrev, i, 3);
+			}
+			System.arraycopy(color, 0, mColors, i, 3);
+		}
+		mMix = mHasColors ? 0f : 1f;
+		mFadeSeconds = fadeSeconds;
+		mHasColors = true;
+		mUploadNeeded = true;
+	}
+
+	/**
+	 * Advances cross-fade.
+	 * 
+	 * @param stepSeconds
+	 *            Time step since previous frame.
+	 */
+	public void update(float stepSeconds) {
+		mMix = Math.min(1f, mMix + stepSeconds / mFadeSeconds);
+	}
+
+}
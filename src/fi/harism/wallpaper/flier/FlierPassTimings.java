@@ -0,0 +1,132 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Rolling summary of per pass render times. Times added during one frame are
+ * summed together and committed into a fixed size window of latest frames
+ * once frame ends, average and maximum are calculated over this window.
+ * Samples which are not comparable with each other, e.g. ones measured
+ * before rendering context or buffer sizes changed, should be dropped by
+ * resetting summary. As timer queries are not available through GLES20
+ * bindings, times are expected to be measured by synchronizing with GPU
+ * before and after each pass, on occasional frames only. This class has no
+ * Android dependencies.
+ */
+public final class FlierPassTimings {
+
+	// Times measured during current frame.
+	private final long[] mFrameTimes;
+	// Number of committed frames in window.
+	private int mSampleCount;
+	// Index of next window slot to write into.
+	private int mSampleIndex;
+	// Committed times per pass, window size times per pass.
+	private final long[][] mSamples;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param passCount
+	 *            Number of render passes.
+	 * @param windowSize
+	 *            Number of latest frames summary is calculated over.
+	 */
+	public FlierPassTimings(int passCount, int windowSize) {
+		mFrameTimes = new long[passCount];
+		mSamples = new long[passCount][windowSize];
+	}
+
+	/**
+	 * Adds measured time for pass. Times added during one frame are summed
+	 * together.
+	 * 
+	 * @param pass
+	 *            Pass index.
+	 * @param nanos
+	 *            Measured time in nanoseconds.
+	 */
+	public void add(int pass, long nanos) {
+		mFrameTimes[pass] += nanos;
+	}
+
+	/**
+	 * Commits times added since previous call into window.
+	 */
+	public void endFrame() {
+		for (int i = 0; i < mFrameTimes.length; ++i) {
+			mSamples[i][mSampleIndex] = mFrameTimes[i];
+			mFrameTimes[i] = 0;
+		}
+		mSampleIndex = (mSampleIndex + 1) % mSamples[0].length;
+		mSampleCount = Math.min(mSampleCount + 1, mSamples[0].length);
+	}
+
+	/**
+	 * Getter for average pass time over window.
+	 * 
+	 * @param pass
+	 *            Pass index.
+	 * @return Average time in nanoseconds, zero if there are no samples.
+	 */
+	public long getAverage(int pass) {
+		if (mSampleCount == 0) {
+			return 0;
+		}
+		long sum = 0;
+		for (int i = 0; i < mSampleCount; ++i) {
+			sum += mSamples[pass][i];
+		}
+		return sum / mSampleCount;
+	}
+
+	/**
+	 * Getter for maximum pass time over window.
+	 * 
+	 * @param pass
+	 *            Pass index.
+	 * @return Maximum time in nanoseconds, zero if there are no samples.
+	 */
+	public long getMax(int pass) {
+		long max = 0;
+		for (int i = 0; i < mSampleCount; ++i) {
+			max = Math.max(max, mSamples[pass][i]);
+		}
+		return max;
+	}
+
+	/**
+	 * Getter for number of committed frames in window.
+	 * 
+	 * @return Sample count, at most window size.
+	 */
+	public int getSampleCount() {
+		return mSampleCount;
+	}
+
+	/**
+	 * Drops all samples, including times added during current frame.
+	 */
+	public void reset() {
+		for (int i = 0; i < mFrameTimes.length; ++i) {
+			mFrameTimes[i] = 0;
+		}
+		mSampleCount = 0;
+		mSampleIndex = 0;
+	}
+
+}
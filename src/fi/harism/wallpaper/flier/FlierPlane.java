@@ -20,30 +20,93 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
-import android.content.Context;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
-import android.os.SystemClock;
 
 /**
- * Class for handling paper plane animation and rendering.
+ * Class for handling paper plane animation and rendering. Plane leaves a
+ * contrail behind both wing tips, trail segments are streamed into a ring
+ * buffer as plane moves and faded out by their age in shader. Touches push
+ * plane away from touch position, plane is pulled back to its animated
+ * path by a damped spring.
  */
-public final class FlierPlane {
+public final class FlierPlane implements FlierLayer {
+
+	// Damping of touch deflection, per second.
+	private static final float DEFLECTION_DAMPING = 5f;
+	// Maximum time step for touch deflection, in seconds.
+	private static final float DEFLECTION_MAX_STEP = .1f;
+	// Stiffness of spring pulling plane back from touch deflection.
+	private static final float DEFLECTION_SPRING = 40f;
+	// Wrap around time for state time values, in seconds.
+	private static final float TIME_WRAP = 3600f;
+	// Minimum time between two trail steps, in seconds.
+	private static final float TRAIL_INTERVAL = 1f / 60;
+	// Time trail segments take to fade out, in seconds.
+	private static final float TRAIL_LIFETIME = 1.5f;
+	// Floats per trail step, two segments with two four float vertices.
+	private static final int TRAIL_STEP_SIZE = 16;
+	// Maximum number of trail steps.
+	private static final int TRAIL_STEPS = 128;
+	// Plane vertex indices trails start from, wing tips.
+	private static final int[] TRAIL_VERTICES = { 1, 5 };
+	// Velocity given by touch press and by touch move, at touch position.
+	private static final float TOUCH_IMPULSE_DOWN = 4f,
+			TOUCH_IMPULSE_MOVE = .8f;
+	// Distance at which touch impulse has fallen into half.
+	private static final float TOUCH_RADIUS = .4f;
+
 	// FBO aspect ratio.
 	private float mAspectRatio;
+	// Touch deflection offset and velocity, x and y for both.
+	private final float[] mDeflection = new float[4];
 	// Buffer for line indices.
 	private ByteBuffer mBufferLineIndices;
 	// Vertices buffer.
 	private FloatBuffer mBufferVertices;
 	// Outline line width;
 	private int mLineWidth;
-	// Plane color.
-	private float[] mPlaneColor = new float[3],
-			mPlaneOutlineColor = new float[3];
-	// Projection and view matrices.
-	private final float[] mProjM = new float[16], mViewM = new float[16];
+	// Outline width in normalized device coordinates.
+	private float mLinePadding;
+	// Model and model view projection matrices.
+	private final float[] mModelM = new float[16],
+			mModelViewProjM = new float[16];
+	// Flag for leaving blending to renderer while counting overdraw.
+	private boolean mOverdraw;
+	// Plane and trail bounds in normalized device coordinates, for current
+	// and previous frame.
+	private final float[] mBounds = new float[4], mBoundsPrev = new float[4];
+	// Temporary vectors for projecting vertices.
+	private final float[] mVecIn = new float[4], mVecOut = new float[4];
+	// Projection and view matrices, and their combination.
+	private final float[] mProjM = new float[16], mViewM = new float[16],
+			mProjViewM = new float[16];
 	// Plane shader used for rendering both lines and surfaces.
 	private final FlierShader mShaderPlane = new FlierShader();
+	// Shader for rendering fading trail segments.
+	private final FlierShader mShaderTrail = new FlierShader();
+	// Interpolated simulation time, in seconds.
+	private float mTime;
+	// Ring buffer holding trail vertices.
+	private final FlierStreamBuffer mTrail = new FlierStreamBuffer(
+			TRAIL_STEPS * TRAIL_STEP_SIZE);
+	// Screen space bounds for every trail step.
+	private final float[] mTrailBounds = new float[TRAIL_STEPS * 4];
+	// Number of live trail steps and index of oldest one.
+	private int mTrailCount, mTrailFirst;
+	// Temporary array for building trail step.
+	private final float[] mTrailStep = new float[TRAIL_STEP_SIZE];
+	// Times trail steps were added at.
+	private final float[] mTrailTimes = new float[TRAIL_STEPS];
+	// Wing tip positions at latest trail step.
+	private final float[] mTrailTips = new float[TRAIL_VERTICES.length * 3];
+	// Time of latest trail step.
+	private float mTrailTipsTime;
+	// Flag for indicating wing tip positions have been stored.
+	private boolean mTrailTipsValid;
+	// Summed impulse of touches received since previous frame.
+	private float mTouchImpulse;
+	// Latest touch position in world coordinates.
+	private float mTouchX, mTouchY;
 
 	/**
 	 * Default constructor.
@@ -66,29 +129,88 @@ public final class FlierPlane {
 	}
 
 	/**
-	 * Called from renderer for rendering paper plane into the scene.
+	 * Adds regions changed during latest update into damage.
+	 * 
+	 * @param damage
+	 *            Damage to add regions into.
+	 */
+	@Override
+	public void addDamage(FlierDamage damage) {
+		damage.add(Math.min(mBounds[0], mBoundsPrev[0]),
+				Math.min(mBounds[1], mBoundsPrev[1]),
+				Math.max(mBounds[2], mBoundsPrev[2]),
+				Math.max(mBounds[3], mBoundsPrev[3]));
+	}
+
+	/**
+	 * Renders live trail steps. Oldest steps may reside at the end of ring
+	 * buffer and newest ones at its beginning, in which case trail is
+	 * rendered with two calls.
 	 */
-	public void onDrawFrame() {
-		long time = SystemClock.uptimeMillis();
-		float rx = sin(time, 4000, 2f) * mAspectRatio;
-		float rz = sin(time, 6234, 2f) * mAspectRatio;
-		float ry = (float) (time % (360 * 60)) / 60;
-		float scale = (0.15f + sin(time, 8345, .025f)) * mAspectRatio;
+	private void drawTrail() {
+		mShaderTrail.useProgram();
+		int uProjViewM = mShaderTrail.getHandle("uProjViewM");
+		int uColorIndex = mShaderTrail.getHandle("uColorIndex");
+		int uTime = mShaderTrail.getHandle("uTime");
+		int uTimeWrap = mShaderTrail.getHandle("uTimeWrap");
+		int uLifetime = mShaderTrail.getHandle("uLifetime");
+		int aPosition = mShaderTrail.getHandle("aPosition");
+		GLES20.glUniformMatrix4fv(uProjViewM, 1, false, mProjViewM, 0);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_PLANE);
+		GLES20.glUniform1f(uTime, mTime);
+		GLES20.glUniform1f(uTimeWrap, TIME_WRAP);
+		GLES20.glUniform1f(uLifetime, TRAIL_LIFETIME);
+		mTrail.setVertexAttribPointer(aPosition, 4, 4, 0);
+		GLES20.glEnableVertexAttribArray(aPosition);
 
-		final float[] modelViewProjM = new float[16];
-		Matrix.setRotateM(modelViewProjM, 0, rx, 1f, 0, 0);
-		Matrix.rotateM(modelViewProjM, 0, ry, 0, 1f, 0);
-		Matrix.rotateM(modelViewProjM, 0, rz, 0, 0, 1f);
+		// Trail is translucent, it does not hide anything behind it.
+		GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+		GLES20.glDepthMask(false);
+		if (!mOverdraw) {
+			GLES20.glEnable(GLES20.GL_BLEND);
+			GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA,
+					GLES20.GL_ONE_MINUS_SRC_ALPHA, GLES20.GL_ONE,
+					GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		}
+		GLES20.glLineWidth(mLineWidth);
 
-		Matrix.translateM(modelViewProjM, 0, 1f, -mAspectRatio / 5f, 0f);
-		Matrix.scaleM(modelViewProjM, 0, scale, scale, scale);
+		int count = Math.min(mTrailCount, TRAIL_STEPS - mTrailFirst);
+		GLES20.glDrawArrays(GLES20.GL_LINES, mTrailFirst * 4, count * 4);
+		if (count < mTrailCount) {
+			GLES20.glDrawArrays(GLES20.GL_LINES, 0, (mTrailCount - count) * 4);
+		}
+
+		if (!mOverdraw) {
+			GLES20.glDisable(GLES20.GL_BLEND);
+		}
+		GLES20.glDepthMask(true);
+	}
+
+	@Override
+	public int getMaxReduction() {
+		return 1;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 5;
+	}
+
+	/**
+	 * Called from renderer for rendering paper plane into the scene. First
+	 * reduction step skips blended outline pass.
+	 */
+	@Override
+	public void onDrawFrame(int ranges, int reduction) {
+		if ((ranges & RANGE_NEAR) == 0) {
+			return;
+		}
 
-		Matrix.multiplyMM(modelViewProjM, 0, mViewM, 0, modelViewProjM, 0);
-		Matrix.multiplyMM(modelViewProjM, 0, mProjM, 0, modelViewProjM, 0);
+		final float[] modelViewProjM = mModelViewProjM;
 
 		mShaderPlane.useProgram();
 		int uModelViewProjM = mShaderPlane.getHandle("uModelViewProjM");
-		int uColor = mShaderPlane.getHandle("uColor");
+		int uColorIndex = mShaderPlane.getHandle("uColorIndex");
 		int uAlpha = mShaderPlane.getHandle("uAlpha");
 		int aPosition = mShaderPlane.getHandle("aPosition");
 		GLES20.glUniformMatrix4fv(uModelViewProjM, 1, false, modelViewProjM, 0);
@@ -107,26 +229,41 @@ public final class FlierPlane {
 		// Render filled polygons.
 		GLES20.glEnable(GLES20.GL_POLYGON_OFFSET_FILL);
 		GLES20.glPolygonOffset(1f, 1f);
-		GLES20.glUniform3fv(uColor, 1, mPlaneColor, 0);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_PLANE);
 		GLES20.glUniform1f(uAlpha, 1f);
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 6);
 		GLES20.glDisable(GLES20.GL_POLYGON_OFFSET_FILL);
 
 		// Render sharp outlines.
 		GLES20.glLineWidth(mLineWidth);
-		GLES20.glUniform3fv(uColor, 1, mPlaneOutlineColor, 0);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_PLANE_OUTLINE);
 		GLES20.glDrawElements(GLES20.GL_LINES, mBufferLineIndices.capacity(),
 				GLES20.GL_UNSIGNED_BYTE, mBufferLineIndices);
 
-		// Render outlines with blending for smoothening them a bit.
-		GLES20.glEnable(GLES20.GL_BLEND);
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-		GLES20.glLineWidth(mLineWidth + .5f);
-		GLES20.glUniform1f(uAlpha, .5f);
-		GLES20.glDrawElements(GLES20.GL_LINES, mBufferLineIndices.capacity(),
-				GLES20.GL_UNSIGNED_BYTE, mBufferLineIndices);
+		// Render outlines with blending for smoothening them a bit. Alpha is
+		// accumulated separately so that layer caches stay premultiplied.
+		if (reduction == 0) {
+			if (!mOverdraw) {
+				GLES20.glEnable(GLES20.GL_BLEND);
+				GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA,
+						GLES20.GL_ONE_MINUS_SRC_ALPHA, GLES20.GL_ONE,
+						GLES20.GL_ONE_MINUS_SRC_ALPHA);
+			}
+			GLES20.glLineWidth(mLineWidth + .5f);
+			GLES20.glUniform1f(uAlpha, .5f);
+			GLES20.glDrawElements(GLES20.GL_LINES,
+					mBufferLineIndices.capacity(), GLES20.GL_UNSIGNED_BYTE,
+					mBufferLineIndices);
+			if (!mOverdraw) {
+				GLES20.glDisable(GLES20.GL_BLEND);
+			}
+		}
+
+		// Render trail after plane so that plane hides it.
+		if (mTrailCount > 0) {
+			drawTrail();
+		}
 
-		GLES20.glDisable(GLES20.GL_BLEND);
 		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
 		GLES20.glDisable(GLES20.GL_STENCIL_TEST);
 	}
@@ -139,42 +276,186 @@ public final class FlierPlane {
 	 * @param height
 	 *            Height in pixels.
 	 */
+	@Override
 	public void onSurfaceChanged(int width, int height) {
-		mLineWidth = Math.max(1, Math.min(width, height) / 160);
-		mAspectRatio = (float) height / width;
-		Matrix.orthoM(mProjM, 0, -1f, 1f, -mAspectRatio, mAspectRatio, 1f, 21f);
-		Matrix.setLookAtM(mViewM, 0, 0, 1f, 5f, 0, 0, 0, 0f, 1f, 0f);
+		// Plane has no GL objects depending on size.
 	}
 
 	/**
 	 * Called from renderer once surface has been created.
 	 * 
-	 * @param ctx
-	 *            Context to read shaders from.
+	 * @param shaders
+	 *            Shader variants to request programs from.
+	 */
+	@Override
+	public void onSurfaceCreated(FlierShaderVariants shaders) {
+		mShaderPlane.setProgram(shaders, R.string.shader_plane_vs,
+				R.string.shader_plane_fs);
+		mShaderTrail.setProgram(shaders, R.string.shader_trail_vs,
+				R.string.shader_trail_fs);
+	}
+
+	@Override
+	public void onRelease() {
+		// Programs are owned by shader variants, nothing to delete.
+	}
+
+	@Override
+	public void onTouch(int action, float x, float y) {
+		if (action == FlierTouchQueue.ACTION_UP) {
+			return;
+		}
+		// Projection is orthographic, y is scaled by aspect ratio only.
+		mTouchX = x;
+		mTouchY = y * mAspectRatio;
+		mTouchImpulse += action == FlierTouchQueue.ACTION_DOWN
+				? TOUCH_IMPULSE_DOWN : TOUCH_IMPULSE_MOVE;
+	}
+
+	/**
+	 * Called from simulation thread once per time step. Rotation and scale
+	 * are stored without aspect ratio which is applied during rendering.
+	 * 
+	 * @param clock
+	 *            Simulation clock.
+	 * @param state
+	 *            Array to write state into.
+	 */
+	@Override
+	public void onSimulate(FlierClock clock, float[] state) {
+		long time = clock.getTimeNanos();
+		state[0] = sin(time, 4000, 2f);
+		state[1] = (float) (time % (360 * 60000000L)) / 60000000;
+		state[2] = sin(time, 6234, 2f);
+		state[3] = 0.15f + sin(time, 8345, .025f);
+		state[4] = (float) (time % ((long) TIME_WRAP * 1000000000L)) / 1000000000;
+	}
+
+	@Override
+	public void setConfig(FlierConfig config) {
+		mOverdraw = config.isOverdraw();
+	}
+
+	/**
+	 * Sets scene size, projection is updated accordingly and trail is
+	 * restarted.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
 	 */
-	public void onSurfaceCreated(Context ctx) {
-		mShaderPlane.setProgram(ctx.getString(R.string.shader_plane_vs),
-				ctx.getString(R.string.shader_plane_fs));
+	@Override
+	public void setSize(int width, int height) {
+		mLineWidth = Math.max(1, Math.min(width, height) / 160);
+		mLinePadding = 2f * (mLineWidth + 1) / Math.min(width, height);
+		mAspectRatio = (float) height / width;
+		FlierMatrix.orthoM(mProjM, 0, -1f, 1f, -mAspectRatio, mAspectRatio,
+				1f, 21f);
+		FlierMatrix.setLookAtM(mViewM, 0, 0, 1f, 5f, 0, 0, 0, 0f, 1f, 0f);
+		FlierMatrix.multiplyMM(mProjViewM, 0, mProjM, 0, mViewM, 0);
+
+		// Trail positions depend on aspect ratio.
+		mTrail.reset();
+		mTrailCount = mTrailFirst = 0;
+		mTrailTipsValid = false;
 	}
 
 	/**
-	 * Sets plane color.
+	 * Called from renderer once per frame. Interpolates plane transformation
+	 * between simulation steps, extends trail and updates screen space
+	 * bounds.
 	 * 
-	 * @param planeColor
-	 *            Three float RGB array.
-	 * @param planeOutlineColor
-	 *            Three float RGB array.
+	 * @param prevState
+	 *            State of previous simulation step.
+	 * @param state
+	 *            State of current simulation step.
+	 * @param t
+	 *            Interpolation factor.
 	 */
-	public void setColor(float[] planeColor, float[] planeOutlineColor) {
-		mPlaneColor = planeColor;
-		mPlaneOutlineColor = planeOutlineColor;
+	@Override
+	public void setState(float[] prevState, float[] state, float t) {
+		// Y rotation wraps around at 360 degrees.
+		float ryPrev = prevState[1];
+		if (ryPrev > state[1]) {
+			ryPrev -= 360f;
+		}
+		float rx = (prevState[0] + t * (state[0] - prevState[0]))
+				* mAspectRatio;
+		float ry = ryPrev + t * (state[1] - ryPrev);
+		float rz = (prevState[2] + t * (state[2] - prevState[2]))
+				* mAspectRatio;
+		float scale = (prevState[3] + t * (state[3] - prevState[3]))
+				* mAspectRatio;
+
+		// Time wraps around at TIME_WRAP seconds.
+		float timeFrame = mTime;
+		float timePrev = prevState[4];
+		if (timePrev > state[4]) {
+			timePrev -= TIME_WRAP;
+		}
+		mTime = timePrev + t * (state[4] - timePrev);
+		if (mTime < 0f) {
+			mTime += TIME_WRAP;
+		}
+
+		final float[] modelM = mModelM;
+		FlierMatrix.setRotateM(modelM, 0, rx, 1f, 0, 0);
+		FlierMatrix.rotateM(modelM, 0, ry, 0, 1f, 0);
+		FlierMatrix.rotateM(modelM, 0, rz, 0, 0, 1f);
+
+		FlierMatrix.translateM(modelM, 0, 1f, -mAspectRatio / 5f, 0f);
+		FlierMatrix.scaleM(modelM, 0, scale, scale, scale);
+
+		// Touch deflection moves plane in world coordinates, translation is
+		// stored in last column.
+		updateDeflection(modelM[12], modelM[13],
+				Math.min(DEFLECTION_MAX_STEP, timeSince(timeFrame)));
+		modelM[12] += mDeflection[0];
+		modelM[13] += mDeflection[1];
+
+		final float[] modelViewProjM = mModelViewProjM;
+		FlierMatrix.multiplyMM(modelViewProjM, 0, mProjViewM, 0, modelM, 0);
+
+		// Update screen space bounds, projection is orthographic.
+		System.arraycopy(mBounds, 0, mBoundsPrev, 0, 4);
+		mBounds[0] = mBounds[1] = Float.MAX_VALUE;
+		mBounds[2] = mBounds[3] = -Float.MAX_VALUE;
+		mVecIn[3] = 1f;
+		for (int i = 0; i < 6; ++i) {
+			mBufferVertices.position(i * 3);
+			mBufferVertices.get(mVecIn, 0, 3);
+			FlierMatrix.multiplyMV(mVecOut, 0, modelViewProjM, 0, mVecIn, 0);
+			mBounds[0] = Math.min(mBounds[0], mVecOut[0] - mLinePadding);
+			mBounds[1] = Math.min(mBounds[1], mVecOut[1] - mLinePadding);
+			mBounds[2] = Math.max(mBounds[2], mVecOut[0] + mLinePadding);
+			mBounds[3] = Math.max(mBounds[3], mVecOut[1] + mLinePadding);
+		}
+		mBufferVertices.position(0);
+
+		updateTrail();
+		for (int i = 0; i < mTrailCount; ++i) {
+			int index = ((mTrailFirst + i) % TRAIL_STEPS) * 4;
+			mBounds[0] = Math.min(mBounds[0], mTrailBounds[index] - mLinePadding);
+			mBounds[1] = Math.min(mBounds[1], mTrailBounds[index + 1]
+					- mLinePadding);
+			mBounds[2] = Math.max(mBounds[2], mTrailBounds[index + 2]
+					+ mLinePadding);
+			mBounds[3] = Math.max(mBounds[3], mTrailBounds[index + 3]
+					+ mLinePadding);
+		}
+	}
+
+	@Override
+	public void setXOffset(float xOffset) {
+		// Plane is not affected by scrolling.
 	}
 
 	/**
 	 * Calculates sin value for timed position.
 	 * 
 	 * @param time
-	 *            Current time.
+	 *            Current time in nanoseconds.
 	 * @param frequency
 	 *            Time between full 360 degree cycle in millis.
 	 * @param multiplier
@@ -182,9 +463,120 @@ public final class FlierPlane {
 	 * @return Value between [-multiplier, multiplier].
 	 */
 	private float sin(long time, long frequency, float multiplier) {
+		long period = frequency * 1000000;
 		return multiplier
-				* (float) Math.sin((2 * Math.PI * (time % frequency))
-						/ frequency);
+				* (float) Math.sin((2 * Math.PI * (time % period)) / period);
+	}
+
+	/**
+	 * Calculates time passed since given time.
+	 * 
+	 * @param time
+	 *            Earlier time in seconds.
+	 * @return Time passed in seconds.
+	 */
+	private float timeSince(float time) {
+		float age = mTime - time;
+		return age < 0f ? age + TIME_WRAP : age;
+	}
+
+	/**
+	 * Applies touches received since previous frame into deflection
+	 * velocity and advances deflection spring.
+	 * 
+	 * @param x
+	 *            Plane x position without deflection.
+	 * @param y
+	 *            Plane y position without deflection.
+	 * @param dt
+	 *            Time step since previous frame, in seconds.
+	 */
+	private void updateDeflection(float x, float y, float dt) {
+		final float[] d = mDeflection;
+		if (mTouchImpulse > 0f) {
+			float dx = x + d[0] - mTouchX;
+			float dy = y + d[1] - mTouchY;
+			float dist = Math.max(.01f, (float) Math.sqrt(dx * dx + dy * dy));
+			float ratio = dist / TOUCH_RADIUS;
+			float impulse = mTouchImpulse / (1f + ratio * ratio) / dist;
+			d[2] += dx * impulse;
+			d[3] += dy * impulse;
+			mTouchImpulse = 0f;
+		}
+		// Semi-implicit Euler, velocity first.
+		float damping = Math.max(0f, 1f - DEFLECTION_DAMPING * dt);
+		d[2] = (d[2] - DEFLECTION_SPRING * d[0] * dt) * damping;
+		d[3] = (d[3] - DEFLECTION_SPRING * d[1] * dt) * damping;
+		d[0] += d[2] * dt;
+		d[1] += d[3] * dt;
+	}
+
+	/**
+	 * Drops expired trail steps and appends new step from previous wing tip
+	 * positions to current ones. At most one step is appended per frame and
+	 * only its vertices are written into ring buffer.
+	 */
+	private void updateTrail() {
+		while (mTrailCount > 0
+				&& timeSince(mTrailTimes[mTrailFirst]) > TRAIL_LIFETIME) {
+			mTrailFirst = (mTrailFirst + 1) % TRAIL_STEPS;
+			--mTrailCount;
+		}
+
+		// Restart trail if plane has not been rendered for a while.
+		if (mTrailTipsValid && timeSince(mTrailTipsTime) > TRAIL_LIFETIME) {
+			mTrailTipsValid = false;
+		}
+		if (mTrailTipsValid && timeSince(mTrailTipsTime) < TRAIL_INTERVAL) {
+			return;
+		}
+
+		final float[] step = mTrailStep;
+		final float[] tips = mTrailTips;
+		mVecIn[3] = 1f;
+		for (int i = 0; i < TRAIL_VERTICES.length; ++i) {
+			mBufferVertices.position(TRAIL_VERTICES[i] * 3);
+			mBufferVertices.get(mVecIn, 0, 3);
+			FlierMatrix.multiplyMV(mVecOut, 0, mModelM, 0, mVecIn, 0);
+			int index = i * 8;
+			System.arraycopy(tips, i * 3, step, index, 3);
+			step[index + 3] = mTrailTipsTime;
+			System.arraycopy(mVecOut, 0, step, index + 4, 3);
+			step[index + 7] = mTime;
+			System.arraycopy(mVecOut, 0, tips, i * 3, 3);
+		}
+		mBufferVertices.position(0);
+
+		boolean append = mTrailTipsValid;
+		mTrailTipsValid = true;
+		mTrailTipsTime = mTime;
+		if (!append) {
+			return;
+		}
+
+		int slot = mTrail.append(step, 0, TRAIL_STEP_SIZE) / TRAIL_STEP_SIZE;
+		if (mTrailCount == TRAIL_STEPS) {
+			mTrailFirst = (mTrailFirst + 1) % TRAIL_STEPS;
+		} else {
+			++mTrailCount;
+		}
+		mTrailTimes[slot] = mTime;
+
+		// Store screen space bounds of new step.
+		int index = slot * 4;
+		mTrailBounds[index] = mTrailBounds[index + 1] = Float.MAX_VALUE;
+		mTrailBounds[index + 2] = mTrailBounds[index + 3] = -Float.MAX_VALUE;
+		for (int i = 0; i < TRAIL_STEP_SIZE; i += 4) {
+			System.arraycopy(step, i, mVecIn, 0, 3);
+			FlierMatrix.multiplyMV(mVecOut, 0, mProjViewM, 0, mVecIn, 0);
+			mTrailBounds[index] = Math.min(mTrailBounds[index], mVecOut[0]);
+			mTrailBounds[index + 1] = Math.min(mTrailBounds[index + 1],
+					mVecOut[1]);
+			mTrailBounds[index + 2] = Math.max(mTrailBounds[index + 2],
+					mVecOut[0]);
+			mTrailBounds[index + 3] = Math.max(mTrailBounds[index + 3],
+					mVecOut[1]);
+		}
 	}
 
 }
@@ -0,0 +1,183 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Maps battery and thermal state into power policy tier. Tier is the more
+ * restrictive of battery tier, taken from battery level while not charging,
+ * and thermal tier, taken from battery temperature. Moving into a more
+ * restrictive tier happens immediately once a threshold is crossed, while
+ * moving back requires values to recover by a margin first so that tier does
+ * not flap around threshold values. Limits applied on each tier are given
+ * by static getters. This class has no Android dependencies.
+ */
+public final class FlierPowerPolicy {
+
+	// Policy tiers from least to most restrictive.
+	public static final int TIER_FULL = 0;
+	public static final int TIER_BALANCED = 1;
+	public static final int TIER_SAVING = 2;
+	public static final int TIER_CRITICAL = 3;
+
+	// Battery levels below which each tier is entered, for tiers above full.
+	private static final float[] BATTERY_THRESHOLDS = { .3f, .15f, .05f };
+	// Battery level margin required for moving into less restrictive tier.
+	private static final float BATTERY_HYSTERESIS = .05f;
+	// Cloud density on each tier.
+	private static final float[] CLOUD_DENSITIES = { 1f, 1f, .5f, .25f };
+	// Minimum time between frames on each tier, zero for uncapped.
+	private static final long[] FRAME_INTERVALS_NANOS = { 0L, 33333333L,
+			50000000L, 100000000L };
+	// Maximum render quality on each tier.
+	private static final int[] MAX_QUALITIES = { 2, 1, 0, 0 };
+	// Minimum layer detail reduction on each tier, skipping optional passes.
+	private static final int[] MIN_REDUCTIONS = { 0, 0, 1, 1 };
+	// Edge-aware upscaling availability on each tier.
+	private static final boolean[] SHARP_UPSCALES = { true, true, true, false };
+	// Temperature margin required for moving into less restrictive tier.
+	private static final float TEMPERATURE_HYSTERESIS = 2f;
+	// Temperatures in Celsius above which each tier is entered, for tiers
+	// above full.
+	private static final float[] TEMPERATURE_THRESHOLDS = { 40f, 43f, 46f };
+
+	// Current tier.
+	private int mTier = TIER_FULL;
+
+	/**
+	 * Getter for cloud density on given tier.
+	 * 
+	 * @param tier
+	 *            One of TIER_* values.
+	 * @return Portion of clouds to render, value between (0, 1].
+	 */
+	public static float getCloudDensity(int tier) {
+		return CLOUD_DENSITIES[tier];
+	}
+
+	/**
+	 * Getter for frame rate cap on given tier.
+	 * 
+	 * @param tier
+	 *            One of TIER_* values.
+	 * @return Minimum time between frames in nanoseconds, zero if frame rate
+	 *         is not capped.
+	 */
+	public static long getFrameIntervalNanos(int tier) {
+		return FRAME_INTERVALS_NANOS[tier];
+	}
+
+	/**
+	 * Getter for render quality cap on given tier.
+	 * 
+	 * @param tier
+	 *            One of TIER_* values.
+	 * @return Maximum render quality, value between [0, 2].
+	 */
+	public static int getMaxQuality(int tier) {
+		return MAX_QUALITIES[tier];
+	}
+
+	/**
+	 * Getter for minimum layer detail reduction on given tier. First
+	 * reduction step of every layer skips its optional passes.
+	 * 
+	 * @param tier
+	 *            One of TIER_* values.
+	 * @return Minimum reduction applied to every layer.
+	 */
+	public static int getMinReduction(int tier) {
+		return MIN_REDUCTIONS[tier];
+	}
+
+	/**
+	 * Getter for edge-aware upscaling availability on given tier. Filter
+	 * costs a few texture reads per screen pixel, on most restrictive tier
+	 * bilinear filtering is used instead.
+	 * 
+	 * @param tier
+	 *            One of TIER_* values.
+	 * @return True if edge-aware upscaling may be used.
+	 */
+	public static boolean isSharpUpscaleAllowed(int tier) {
+		return SHARP_UPSCALES[tier];
+	}
+
+	/**
+	 * Calculates tier for given values using thresholds only.
+	 * 
+	 * @param batteryLevel
+	 *            Battery level, value between [0, 1].
+	 * @param charging
+	 *            True if device is charging.
+	 * @param temperature
+	 *            Battery temperature in Celsius.
+	 * @return One of TIER_* values.
+	 */
+	private static int getTier(float batteryLevel, boolean charging,
+			float temperature) {
+		int tier = TIER_FULL;
+		for (int i = 0; i < TEMPERATURE_THRESHOLDS.length; ++i) {
+			if (temperature >= TEMPERATURE_THRESHOLDS[i]) {
+				tier = i + 1;
+			}
+		}
+		if (!charging) {
+			for (int i = 0; i < BATTERY_THRESHOLDS.length; ++i) {
+				if (batteryLevel < BATTERY_THRESHOLDS[i]) {
+					tier = Math.max(tier, i + 1);
+				}
+			}
+		}
+		return tier;
+	}
+
+	/**
+	 * Getter for current tier.
+	 * 
+	 * @return One of TIER_* values.
+	 */
+	public int getTier() {
+		return mTier;
+	}
+
+	/**
+	 * Updates current tier from new battery and thermal state.
+	 * 
+	 * @param batteryLevel
+	 *            Battery level, value between [0, 1].
+	 * @param charging
+	 *            True if device is charging.
+	 * @param temperature
+	 *            Battery temperature in Celsius.
+	 * @return True if tier changed.
+	 */
+	public boolean update(float batteryLevel, boolean charging,
+			float temperature) {
+		int tier = getTier(batteryLevel, charging, temperature);
+		if (tier < mTier) {
+			// Values have to recover past margins before relaxing policy.
+			tier = Math.min(mTier, getTier(batteryLevel - BATTERY_HYSTERESIS,
+					charging, temperature + TEMPERATURE_HYSTERESIS));
+		}
+		if (tier != mTier) {
+			mTier = tier;
+			return true;
+		}
+		return false;
+	}
+
+}
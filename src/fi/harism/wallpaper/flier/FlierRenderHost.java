@@ -0,0 +1,99 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import android.content.Context;
+
+/**
+ * Process wide holder for renderer and rendering thread. Wallpaper service
+ * and color preview in preferences share one renderer, meaning preview
+ * renders the very same scene and GL object registry only ever sees one
+ * rendering context. Renderer is created once first user acquires it and
+ * released once last user releases it. Should be used from main thread.
+ */
+public final class FlierRenderHost {
+
+	// Config chooser for rendering thread.
+	private static FlierEGLConfigChooser sConfigChooser;
+	// Number of users holding renderer.
+	private static int sRefCount;
+	// Shared renderer.
+	private static FlierRenderer sRenderer;
+	// Shared rendering thread.
+	private static FlierRenderThread sRenderThread;
+
+	/**
+	 * Acquires renderer, creating and starting it if needed. Every call must
+	 * be paired with a call to release().
+	 * 
+	 * @param ctx
+	 *            Context for creating renderer.
+	 */
+	public static synchronized void acquire(Context ctx) {
+		if (sRefCount++ == 0) {
+			Context appCtx = ctx.getApplicationContext();
+			sRenderer = new FlierRenderer(appCtx);
+			sRenderer.startSimulation();
+			sConfigChooser = new FlierEGLConfigChooser(
+					FlierEGLConfigChooser.createPolicy(appCtx, false));
+			sRenderThread = new FlierRenderThread(sRenderer, sConfigChooser);
+			sRenderThread.start();
+		}
+	}
+
+	/**
+	 * Getter for config chooser used by rendering thread.
+	 * 
+	 * @return Config chooser, or null if renderer is not acquired.
+	 */
+	public static synchronized FlierEGLConfigChooser getConfigChooser() {
+		return sConfigChooser;
+	}
+
+	/**
+	 * Getter for shared renderer.
+	 * 
+	 * @return Renderer, or null if renderer is not acquired.
+	 */
+	public static synchronized FlierRenderer getRenderer() {
+		return sRenderer;
+	}
+
+	/**
+	 * Getter for shared rendering thread.
+	 * 
+	 * @return Rendering thread, or null if renderer is not acquired.
+	 */
+	public static synchronized FlierRenderThread getRenderThread() {
+		return sRenderThread;
+	}
+
+	/**
+	 * Releases renderer acquired earlier. Rendering thread and simulation
+	 * are stopped once renderer is no longer used.
+	 */
+	public static synchronized void release() {
+		if (--sRefCount == 0) {
+			sRenderThread.requestExitAndWait();
+			sRenderThread = null;
+			sConfigChooser = null;
+			sRenderer.stopSimulation();
+			sRenderer = null;
+		}
+	}
+
+}
@@ -0,0 +1,603 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.ArrayList;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGL11;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+import javax.microedition.khronos.opengles.GL10;
+
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+/**
+ * Rendering thread shared by all wallpaper engines. Thread owns one EGL context
+ * and renders into window surfaces of all visible engines using the same
+ * renderer instance, meaning shaders and offscreen buffers are created only
+ * once no matter how many engines there are. Scene is rendered once per frame,
+ * at size of the largest target, and presented into every target, switching
+ * between targets only rebinds window surface. Once none of the engines is
+ * visible, thread waits until there is something to render again. EGL context
+ * and window surfaces are kept meanwhile if context preserving is enabled,
+ * allowing rendering to resume without recreating resources, and released
+ * otherwise. Frame rate is capped to interval given by renderer, if any. Target
+ * given a new surface while hidden is pre-warmed by rendering one frame into
+ * it, and context is kept until it is shown, meaning it becomes visible with a
+ * finished frame and initialized resources.
+ */
+public final class FlierRenderThread extends Thread {
+
+	// EGL attribute value for preserved swap behavior.
+	private static final int EGL_BUFFER_PRESERVED = 0x3094;
+	// EGL attribute for requesting OpenGL ES version.
+	private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+	// EGL surface attribute for swap behavior.
+	private static final int EGL_SWAP_BEHAVIOR = 0x3093;
+	// Tag for log messages.
+	private static final String TAG = "FlierRenderThread";
+
+	// Config chooser used once EGL is initialized.
+	private final GLSurfaceView.EGLConfigChooser mConfigChooser;
+	// EGL instance.
+	private EGL10 mEgl;
+	// Chosen EGL config.
+	private EGLConfig mEglConfig;
+	// Shared EGL context.
+	private EGLContext mEglContext = EGL10.EGL_NO_CONTEXT;
+	// EGL display.
+	private EGLDisplay mEglDisplay = EGL10.EGL_NO_DISPLAY;
+	// Frame counter, used for tracking which targets were presented on.
+	private long mFrame;
+	// Time latest frame was started at.
+	private long mFrameStartNanos;
+	// Flag for indicating current frame only pre-warms hidden targets.
+	private boolean mPrewarmFrame;
+	// Flag for keeping EGL context while nothing is visible.
+	private boolean mPreserveContext;
+	// Flag for requesting thread to exit.
+	private boolean mQuit;
+	// Flag for requesting EGL context release once nothing is visible.
+	private boolean mReleaseRequested;
+	// Flag for indicating renderer has not seen current context yet.
+	private boolean mRendererInitNeeded;
+	// Renderer shared by all targets.
+	private final FlierRenderer mRenderer;
+	// Targets to render during current frame, used from this thread only.
+	private final ArrayList<Target> mRenderTargets = new ArrayList<Target>();
+	// Scene size renderer was given latest, zero once context is created.
+	private int mSceneWidth, mSceneHeight;
+	// All registered targets.
+	private final ArrayList<Target> mTargets = new ArrayList<Target>();
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param renderer
+	 *            Renderer used for rendering all targets.
+	 * @param configChooser
+	 *            Chooser for selecting EGL config.
+	 */
+	public FlierRenderThread(FlierRenderer renderer,
+			GLSurfaceView.EGLConfigChooser configChooser) {
+		super(TAG);
+		mRenderer = renderer;
+		mConfigChooser = configChooser;
+	}
+
+	/**
+	 * Creates new rendering target. Target is not rendered into before it has
+	 * been given a surface and made visible.
+	 * 
+	 * @return New target instance.
+	 */
+	public synchronized Target createTarget() {
+		Target target = new Target();
+		mTargets.add(target);
+		return target;
+	}
+
+	/**
+	 * Creates EGL context if it does not exist. Must be called from this
+	 * thread.
+	 */
+	private void initEgl() {
+		if (mEglContext != EGL10.EGL_NO_CONTEXT) {
+			return;
+		}
+		mEgl = (EGL10) EGLContext.getEGL();
+		mEglDisplay = mEgl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+		if (mEglDisplay == EGL10.EGL_NO_DISPLAY) {
+			throw new RuntimeException("eglGetDisplay failed.");
+		}
+		if (!mEgl.eglInitialize(mEglDisplay, new int[2])) {
+			throw new RuntimeException("eglInitialize failed.");
+		}
+		mEglConfig = mConfigChooser.chooseConfig(mEgl, mEglDisplay);
+		int[] attribList = { EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE };
+		mEglContext = mEgl.eglCreateContext(mEglDisplay, mEglConfig,
+				EGL10.EGL_NO_CONTEXT, attribList);
+		if (mEglContext == null || mEglContext == EGL10.EGL_NO_CONTEXT) {
+			mEglContext = EGL10.EGL_NO_CONTEXT;
+			throw new RuntimeException("eglCreateContext failed.");
+		}
+		mSceneWidth = mSceneHeight = 0;
+		mRendererInitNeeded = true;
+	}
+
+	/**
+	 * Checks whether any target holds a pre-warmed frame it has not been
+	 * shown with yet. Must be called while holding lock.
+	 * 
+	 * @return True if context should be kept for pre-warmed target.
+	 */
+	private boolean isPrewarmed() {
+		for (Target target : mTargets) {
+			if (target.mPrewarmed && target.mEglSurface != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Releases EGL context and all window surfaces. Must be called from this
+	 * thread while holding lock.
+	 */
+	private void releaseEgl() {
+		if (mEglDisplay == EGL10.EGL_NO_DISPLAY) {
+			return;
+		}
+		mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE,
+				EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+		for (Target target : mTargets) {
+			releaseSurface(target);
+		}
+		if (mEglContext != EGL10.EGL_NO_CONTEXT) {
+			mEgl.eglDestroyContext(mEglDisplay, mEglContext);
+			mEglContext = EGL10.EGL_NO_CONTEXT;
+		}
+		mEgl.eglTerminate(mEglDisplay);
+		mEglDisplay = EGL10.EGL_NO_DISPLAY;
+		notifyAll();
+	}
+
+	/**
+	 * Lets renderer delete its GL objects while context can still be made
+	 * current with given surface. Renderer is initialized again before next
+	 * frame. Must be called from this thread while holding lock.
+	 */
+	private void releaseRenderer(EGLSurface surface) {
+		if (mEglContext != EGL10.EGL_NO_CONTEXT && !mRendererInitNeeded
+				&& mEgl.eglMakeCurrent(mEglDisplay, surface, surface,
+						mEglContext)) {
+			mRenderer.onRelease();
+			mRendererInitNeeded = true;
+		}
+	}
+
+	/**
+	 * Releases window surface of given target. If it is the last window
+	 * surface, renderer GL objects are deleted first. Must be called from
+	 * this thread while holding lock.
+	 */
+	private void releaseSurface(Target target) {
+		if (target.mEglSurface != null) {
+			boolean lastSurface = true;
+			for (Target other : mTargets) {
+				if (other != target && other.mEglSurface != null) {
+					lastSurface = false;
+				}
+			}
+			if (lastSurface) {
+				releaseRenderer(target.mEglSurface);
+			}
+			EGLSurface current = mEgl.eglGetCurrentSurface(EGL10.EGL_DRAW);
+			if (current == target.mEglSurface) {
+				mEgl.eglMakeCurrent(mEglDisplay, EGL10.EGL_NO_SURFACE,
+						EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+			}
+			mEgl.eglDestroySurface(mEglDisplay, target.mEglSurface);
+			target.mEglSurface = null;
+			target.mPrewarmed = false;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Creates window surface for given target if it does not have one yet.
+	 * 
+	 * @return True if target has a window surface to render into.
+	 */
+	private boolean prepareSurface(Target target) {
+		synchronized (this) {
+			if (target.mHolder == null) {
+				return false;
+			}
+			target.mRenderWidth = target.mWidth;
+			target.mRenderHeight = target.mHeight;
+			if (target.mSizeChanged) {
+				target.mFullCopyNeeded = true;
+				target.mSizeChanged = false;
+			}
+
+			// Surface is created while holding lock so that it can't be
+			// destroyed meanwhile.
+			initEgl();
+			if (target.mEglSurface == null) {
+				EGLSurface surface = mEgl.eglCreateWindowSurface(mEglDisplay,
+						mEglConfig, target.mHolder, null);
+				if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+					Log.w(TAG, "eglCreateWindowSurface failed "
+							+ mEgl.eglGetError());
+					// Wait for a new surface before trying again.
+					target.mHolder = null;
+					return false;
+				}
+				target.mEglSurface = surface;
+				target.mFullCopyNeeded = true;
+
+				// Swap behavior can't be set using EGL 1.0 bindings, but it
+				// is enough to know whether surface happens to preserve its
+				// contents.
+				int[] value = new int[1];
+				target.mBufferPreserved = mEgl.eglQuerySurface(mEglDisplay,
+						surface, EGL_SWAP_BEHAVIOR, value)
+						&& value[0] == EGL_BUFFER_PRESERVED;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Renders one frame. Per frame work, clock, simulation state, touches
+	 * and scene rendering, is done once with the largest target current, and
+	 * resulting scene is presented into every target afterwards.
+	 */
+	private void renderFrame() {
+		Target sceneTarget = null;
+		for (int i = 0; i < mRenderTargets.size(); ++i) {
+			Target target = mRenderTargets.get(i);
+			if (!prepareSurface(target)) {
+				mRenderTargets.remove(i--);
+			} else if (sceneTarget == null
+					|| target.getRenderArea() > sceneTarget.getRenderArea()) {
+				sceneTarget = target;
+			}
+		}
+		if (sceneTarget == null) {
+			return;
+		}
+
+		if (!mEgl.eglMakeCurrent(mEglDisplay, sceneTarget.mEglSurface,
+				sceneTarget.mEglSurface, mEglContext)) {
+			handleEglError(sceneTarget, "eglMakeCurrent");
+			return;
+		}
+		GL10 gl = (GL10) mEglContext.getGL();
+		if (mRendererInitNeeded) {
+			mRenderer.onSurfaceCreated(gl, mEglConfig);
+			mRendererInitNeeded = false;
+		}
+		if (sceneTarget.mRenderWidth != mSceneWidth
+				|| sceneTarget.mRenderHeight != mSceneHeight) {
+			mSceneWidth = sceneTarget.mRenderWidth;
+			mSceneHeight = sceneTarget.mRenderHeight;
+			mRenderer.onSurfaceChanged(gl, mSceneWidth, mSceneHeight);
+		}
+		mRenderer.onDrawFrame(gl);
+
+		++mFrame;
+		EGLSurface current = sceneTarget.mEglSurface;
+		for (Target target : mRenderTargets) {
+			if (target.mEglSurface != current) {
+				if (!mEgl.eglMakeCurrent(mEglDisplay, target.mEglSurface,
+						target.mEglSurface, mEglContext)) {
+					handleEglError(target, "eglMakeCurrent");
+					if (mEglContext == EGL10.EGL_NO_CONTEXT) {
+						return;
+					}
+					continue;
+				}
+				current = target.mEglSurface;
+			}
+			// Window which missed previous frame lacks its damage.
+			boolean fullCopy = target.mFullCopyNeeded
+					|| target.mPresentedFrame != mFrame - 1;
+			mRenderer.onPresent(target.mRenderWidth, target.mRenderHeight,
+					target.mBufferPreserved, fullCopy);
+			if (!mEgl.eglSwapBuffers(mEglDisplay, target.mEglSurface)) {
+				handleEglError(target, "eglSwapBuffers");
+				if (mEglContext == EGL10.EGL_NO_CONTEXT) {
+					return;
+				}
+				continue;
+			}
+			target.mFullCopyNeeded = false;
+			target.mPresentedFrame = mFrame;
+		}
+		mRenderer.onFrameEnd();
+	}
+
+	/**
+	 * Handles failed EGL call. Lost context is released completely and
+	 * recreated during next frame, all other errors release target surface
+	 * only.
+	 */
+	private synchronized void handleEglError(Target target, String function) {
+		int error = mEgl.eglGetError();
+		Log.w(TAG, function + " failed " + error);
+		if (error == EGL11.EGL_CONTEXT_LOST) {
+			releaseEgl();
+		} else {
+			releaseSurface(target);
+			target.mHolder = null;
+		}
+	}
+
+	/**
+	 * Requests EGL context to be released even if context preserving is
+	 * enabled. Context is released once none of the targets is visible, e.g.
+	 * on low memory.
+	 */
+	public synchronized void requestReleaseContext() {
+		mReleaseRequested = true;
+		notifyAll();
+	}
+
+	/**
+	 * Requests rendering thread to exit and waits until it has done so.
+	 */
+	public void requestExitAndWait() {
+		synchronized (this) {
+			mQuit = true;
+			notifyAll();
+		}
+		try {
+			join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			boolean resumed = true;
+			for (;;) {
+				synchronized (this) {
+					while (!mQuit && !updateRenderTargets()) {
+						// Nothing to render, release EGL until something
+						// becomes visible again unless it is preserved or
+						// waiting for pre-warmed target to be shown.
+						if ((!mPreserveContext && !isPrewarmed())
+								|| mReleaseRequested) {
+							releaseEgl();
+							mReleaseRequested = false;
+						}
+						resumed = true;
+						wait();
+					}
+					if (mQuit) {
+						break;
+					}
+				}
+				mFrameStartNanos = System.nanoTime();
+				boolean cold = mEglContext == EGL10.EGL_NO_CONTEXT;
+				if (resumed) {
+					mRenderer.onResume();
+				}
+				renderFrame();
+				if (resumed) {
+					String type = mPrewarmFrame ? "Prewarm" : cold ? "Cold"
+							: "Warm";
+					Log.d(TAG, type + " resume "
+							+ (System.nanoTime() - mFrameStartNanos) / 1000000
+							+ " ms");
+					resumed = false;
+				}
+				waitFrameInterval();
+			}
+		} catch (InterruptedException ex) {
+			// Exit quietly.
+		} finally {
+			synchronized (this) {
+				releaseEgl();
+				mQuit = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Sets whether EGL context and window surfaces are kept while none of
+	 * the targets is visible. Preserved context is released on context loss
+	 * or release request only.
+	 * 
+	 * @param preserveContext
+	 *            True if context should be preserved.
+	 */
+	public synchronized void setPreserveContext(boolean preserveContext) {
+		mPreserveContext = preserveContext;
+		notifyAll();
+	}
+
+	/**
+	 * Releases surfaces targets have requested to be released and collects
+	 * visible targets, and hidden targets waiting to be pre-warmed, into
+	 * render target list. Must be called while holding lock.
+	 * 
+	 * @return True if there is at least one target to render.
+	 */
+	private boolean updateRenderTargets() {
+		mRenderTargets.clear();
+		mPrewarmFrame = true;
+		for (Target target : mTargets) {
+			if (target.mReleaseSurface) {
+				if (mEglDisplay != EGL10.EGL_NO_DISPLAY) {
+					releaseSurface(target);
+				}
+				target.mReleaseSurface = false;
+			}
+			if (target.mHolder == null || target.mWidth <= 0
+					|| target.mHeight <= 0) {
+				continue;
+			}
+			if (target.mVisible) {
+				mRenderTargets.add(target);
+				mPrewarmFrame = false;
+				target.mPrewarmed = false;
+			} else if (target.mPrewarmNeeded) {
+				mRenderTargets.add(target);
+				target.mPrewarmed = true;
+			}
+			target.mPrewarmNeeded = false;
+		}
+		return !mRenderTargets.isEmpty();
+	}
+
+	/**
+	 * Waits until frame interval requested by renderer has passed since
+	 * latest frame was started. Waiting ends early on any target change or
+	 * exit request.
+	 * 
+	 * @throws InterruptedException
+	 *             If thread was interrupted while waiting.
+	 */
+	private synchronized void waitFrameInterval() throws InterruptedException {
+		long intervalNanos = mRenderer.getFrameIntervalNanos();
+		long waitNanos = mFrameStartNanos + intervalNanos - System.nanoTime();
+		if (intervalNanos > 0 && waitNanos > 0 && !mQuit) {
+			wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+		}
+	}
+
+	/**
+	 * Rendering target, one per wallpaper engine or preview view. All
+	 * methods are meant to be called from main thread, from corresponding
+	 * engine or surface callbacks.
+	 */
+	public final class Target {
+
+		// Flag for indicating window surface preserves its contents.
+		private boolean mBufferPreserved;
+		// Window surface, accessed while holding lock.
+		private EGLSurface mEglSurface;
+		// Flag for indicating whole window needs to be copied into.
+		private boolean mFullCopyNeeded;
+		// Surface holder to render into.
+		private SurfaceHolder mHolder;
+		// Flag for requesting one frame to be rendered while hidden.
+		private boolean mPrewarmNeeded;
+		// Flag for indicating surface holds a frame rendered while hidden.
+		private boolean mPrewarmed;
+		// Frame target was latest presented on.
+		private long mPresentedFrame = -1;
+		// Flag for requesting surface release.
+		private boolean mReleaseSurface;
+		// Flag for indicating surface size has changed.
+		private boolean mSizeChanged;
+		// Visibility flag.
+		private boolean mVisible;
+		// Surface size.
+		private int mWidth, mHeight;
+		// Surface size used for current frame, used from rendering thread
+		// only.
+		private int mRenderWidth, mRenderHeight;
+
+		/**
+		 * Getter for surface area used for current frame.
+		 * 
+		 * @return Area in pixels.
+		 */
+		private long getRenderArea() {
+			return (long) mRenderWidth * mRenderHeight;
+		}
+
+		/**
+		 * Should be called from Engine.onSurfaceChanged. If target is hidden,
+		 * one frame is rendered into new surface right away.
+		 * 
+		 * @param holder
+		 *            Surface holder.
+		 * @param width
+		 *            Surface width in pixels.
+		 * @param height
+		 *            Surface height in pixels.
+		 */
+		public void onSurfaceChanged(SurfaceHolder holder, int width,
+				int height) {
+			synchronized (FlierRenderThread.this) {
+				mHolder = holder;
+				mWidth = width;
+				mHeight = height;
+				mSizeChanged = true;
+				mPrewarmNeeded = true;
+				FlierRenderThread.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Should be called from Engine.onSurfaceDestroyed. Blocks until
+		 * rendering thread has released window surface.
+		 */
+		public void onSurfaceDestroyed() {
+			synchronized (FlierRenderThread.this) {
+				mHolder = null;
+				mReleaseSurface = true;
+				FlierRenderThread.this.notifyAll();
+				while (mEglSurface != null && !mQuit && isAlive()) {
+					try {
+						FlierRenderThread.this.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Releases this target. Target should not be used afterwards.
+		 */
+		public void release() {
+			onSurfaceDestroyed();
+			synchronized (FlierRenderThread.this) {
+				mTargets.remove(this);
+			}
+		}
+
+		/**
+		 * Should be called from Engine.onVisibilityChanged.
+		 * 
+		 * @param visible
+		 *            Visibility flag.
+		 */
+		public void setVisible(boolean visible) {
+			synchronized (FlierRenderThread.this) {
+				mVisible = visible;
+				FlierRenderThread.this.notifyAll();
+			}
+		}
+	}
+
+}
@@ -17,52 +17,121 @@
 package fi.harism.wallpaper.flier;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.graphics.Color;
+import android.content.pm.ApplicationInfo;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.Handler;
+import android.util.Log;
 import android.widget.Toast;
 
 /**
- * Main renderer class.
+ * Main renderer class. Scene is rendered into offscreen buffers once per
+ * frame through onDrawFrame, at size given through onSurfaceChanged, and
+ * presented into any number of window surfaces through onPresent. Frame ends
+ * with onFrameEnd once it has been presented everywhere.
  */
 public final class FlierRenderer implements GLSurfaceView.Renderer {
 
-	// Holder for background colors.
-	private FloatBuffer mBufferBgColors;
+	// Maximum time first frame waits for simulation state.
+	private static final long FIRST_SNAPSHOT_TIMEOUT_MILLIS = 200;
+	// Rendering time budget for all layers per frame.
+	private static final long LAYER_BUDGET_NANOS = 8000000L;
+	// Refresh intervals for cached far and mid layers, in frames.
+	private static final int LAYER_FAR_INTERVAL = 4, LAYER_MID_INTERVAL = 2;
+	// Interval for logging overdraw statistics, in frames.
+	private static final int OVERDRAW_REPORT_INTERVAL = 120;
+	// Pass indices for timing, layers follow copy pass in rendering order.
+	private static final int PASS_BACKGROUND = 0, PASS_COPY = 1,
+			PASS_LAYERS = 2;
+	// Interval for logging pass timings, in probe frames.
+	private static final int PASS_REPORT_INTERVAL = 8;
+	// Number of probe frames pass timings are summarized over.
+	private static final int PASS_TIMING_WINDOW = 16;
+	// Palette fade duration for preview colors, short enough for tracking
+	// seek bars closely.
+	private static final float PREVIEW_FADE_SECONDS = .15f;
+	private static final String TAG = "FlierRenderer";
+	// Sharpening amount of edge-aware upscaling for reduced quality levels,
+	// lower resolution gets stronger sharpening.
+	private static final float[] UPSCALE_SHARPNESS = { .2f, .12f };
+
 	// Vertices for full view rendering.
 	private ByteBuffer mBufferVertices;
+	// Configuration currently applied to rendering.
+	private FlierConfig mConfig;
+	// Latest configuration published from main thread.
+	private volatile FlierConfig mConfigPending;
 	// Application context.
 	private Context mContext;
-	// Clouds rendering class.
-	private final FlierClouds mFlierClouds = new FlierClouds();
+	// Regions changed during current frame.
+	private final FlierDamage mDamage;
 	// Fbo for offscreen rendering.
 	private final FlierFbo mFlierFbo = new FlierFbo();
-	// Plane rendering class.
-	private final FlierPlane mFlierPlane = new FlierPlane();
-	// Waves rendering class.
-	private final FlierWaves mFlierWaves = new FlierWaves();
-	// Brightness preference.
-	private float mPreferenceBrightness;
-	// Render quality preference.
-	private int mPreferenceQuality;
-	// Boolean to indicate preferences have changed.
-	private boolean mPreferencesChanged;
+	// Fbos for caching far layer, background and far clouds, and mid layer,
+	// near clouds, when layer caching is enabled.
+	private final FlierFbo mFlierFboFar = new FlierFbo(),
+			mFlierFboMid = new FlierFbo();
+	// Flag for indicating every window surface needs to be copied into as a
+	// whole during current frame.
+	private boolean mFullCopyNeeded;
+	// Flag for indicating whole offscreen buffer needs to be redrawn.
+	private boolean mFullRedrawNeeded;
+	// Frame counter for scheduling cached layer refreshes.
+	private int mLayerFrame;
+	// Scene layers in rendering order.
+	private final FlierLayer[] mLayers;
+	// Scheduler for keeping layers within time budget.
+	private final FlierLayerScheduler mLayerScheduler;
+	// Scroll offset cached layers were rendered with.
+	private float mLayerXOffset;
+	// Overdraw counts read back from offscreen buffer, latest and previous.
+	private ByteBuffer mOverdrawCounts, mOverdrawCountsPrev;
+	// Frame counter for scheduling overdraw reports.
+	private int mOverdrawFrame;
+	// Probe frame counter for scheduling pass timing reports.
+	private int mPassReportFrame;
+	// Rolling summary of render pass times.
+	private final FlierPassTimings mPassTimings;
+	// Palette texture all scene colors are read from.
+	private final FlierPalette mPalette = new FlierPalette();
+	// Preview colors overriding configuration colors, null if not set.
+	private volatile float[][] mPreviewColors;
+	// Preview colors palette was last updated with.
+	private float[][] mPreviewColorsApplied;
+	// Flag for indicating layer costs are measured during current frame.
+	private boolean mProbeFrame;
+	// Boolean to indicate offscreen buffers need to be resized.
+	private boolean mResizeNeeded;
+	// Flag for indicating scene was rendered during current frame.
+	private boolean mSceneReady;
 	// Flag for indicating whether shader compiler is supported.
 	private final boolean[] mShaderCompilerSupported = new boolean[1];
+	// Shader for compositing cached layers on screen.
+	private final FlierShader mShaderComposite = new FlierShader();
 	// Shader for copying offscreen texture on screen.
 	private final FlierShader mShaderCopy = new FlierShader();
 	// Shader for rendering background gradient.
 	private final FlierShader mShaderFill = new FlierShader();
-	// Surface/screen dimensions.
+	// Shader for rendering overdraw counts as heat map.
+	private final FlierShader mShaderOverdraw = new FlierShader();
+	// Shader for copying offscreen texture on screen with edge-aware
+	// upscaling.
+	private final FlierShader mShaderUpscale = new FlierShader();
+	// Shader variants for current quality.
+	private final FlierShaderVariants mShaderVariants;
+	// CPU side of frames, layer updates and damage.
+	private final FlierScene mScene;
+	// Flag for indicating pass times are measured during current frame.
+	private boolean mTimingFrame;
+	// Rolling summary of time from touch event until frame is rendered.
+	private final FlierPassTimings mTouchLatency = new FlierPassTimings(1,
+			PASS_TIMING_WINDOW);
+	// Scene dimensions, offscreen buffers are sized relative to these.
 	private int mWidth, mHeight;
 
 	/**
@@ -72,64 +141,302 @@ public final class FlierRenderer implements GLSurfaceView.Renderer {
 	 *            Context to read shaders from.
 	 */
 	public FlierRenderer(Context context) {
+		this(context, new FlierClock());
+	}
+
+	/**
+	 * Constructor for providing custom frame clock.
+	 * 
+	 * @param context
+	 *            Context to read shaders from.
+	 * @param clock
+	 *            Frame clock used for timing frames.
+	 */
+	public FlierRenderer(Context context, FlierClock clock) {
+		this(context, clock, new FlierLayer[] { new FlierWaves(),
+				new FlierFlock(), new FlierPlane(), new FlierClouds() });
+	}
+
+	/**
+	 * Constructor for providing custom frame clock and scene layers.
+	 * 
+	 * @param context
+	 *            Context to read shaders from.
+	 * @param clock
+	 *            Frame clock used for timing frames.
+	 * @param layers
+	 *            Scene layers in rendering order.
+	 */
+	public FlierRenderer(Context context, FlierClock clock,
+			FlierLayer[] layers) {
 		mContext = context;
+		// Leaked GL objects are reported on debug builds only.
+		int appFlags = context.getApplicationInfo().flags;
+		boolean debuggable = (appFlags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+		FlierGLResources.setLeakDetection(debuggable);
+		mShaderVariants = new FlierShaderVariants(context);
+		mShaderVariants.setPalette(mPalette);
+		mScene = new FlierScene(clock, layers);
+		mLayers = mScene.getLayers();
+		mDamage = mScene.getDamage();
+
+		int[] maxReductions = new int[mLayers.length];
+		for (int i = 0; i < mLayers.length; ++i) {
+			maxReductions[i] = mLayers[i].getMaxReduction();
+		}
+		mLayerScheduler = new FlierLayerScheduler(LAYER_BUDGET_NANOS,
+				maxReductions);
+		mPassTimings = new FlierPassTimings(PASS_LAYERS + mLayers.length,
+				PASS_TIMING_WINDOW);
 
 		// Create full scene quad buffer.
 		mBufferVertices = ByteBuffer.allocateDirect(4 * 2);
 		mBufferVertices.put(FlierConstants.FULL_QUAD_COORDS).position(0);
+	}
 
-		// Create background color float buffer.
-		ByteBuffer bBuf = ByteBuffer.allocateDirect(3 * 4 * 4);
-		mBufferBgColors = bBuf.order(ByteOrder.nativeOrder()).asFloatBuffer();
+	/**
+	 * Appends average and maximum overdraw into log message. Counts are
+	 * given as RGBA values read from offscreen buffer, red channel holding
+	 * number of fragments written.
+	 * 
+	 * @param log
+	 *            Log message to append into.
+	 * @param name
+	 *            Name for counted pass.
+	 * @param counts
+	 *            Counts after pass.
+	 * @param countsPrev
+	 *            Counts before pass, or null if pass started from zero.
+	 */
+	private void appendOverdraw(StringBuilder log, String name,
+			ByteBuffer counts, ByteBuffer countsPrev) {
+		long sum = 0;
+		int max = 0;
+		for (int i = 0; i < counts.capacity(); i += 4) {
+			int count = counts.get(i) & 0xFF;
+			if (countsPrev != null) {
+				count -= countsPrev.get(i) & 0xFF;
+			}
+			sum += count;
+			max = Math.max(max, count);
+		}
+		float average = (float) sum * 4 / counts.capacity();
+		log.append(String.format(" %s %.2f/%d", name, average, max));
+	}
+
+	/**
+	 * Applies changed values from given configuration. Layers pick their own
+	 * values and whole scene is redrawn, while quality or layer caching
+	 * change results in resizing offscreen buffers. Must be called from
+	 * rendering thread.
+	 * 
+	 * @param config
+	 *            New configuration.
+	 */
+	private void applyConfig(FlierConfig config) {
+		// Preview colors are kept until preview ends.
+		if (!config.hasSameColors(mConfig) && mPreviewColorsApplied == null) {
+			mPalette.setColors(config);
+		}
+		mScene.setConfig(config);
+		mLayerScheduler.setMinReduction(config.getMinReduction());
+		mFullRedrawNeeded = true;
+		if (mConfig == null || mConfig.getQuality() != config.getQuality()
+				|| mConfig.isLayered() != config.isLayered()) {
+			mShaderVariants.setQuality(config.getQuality());
+			mResizeNeeded = true;
+		}
+		mShaderVariants.setOverdraw(config.isOverdraw());
+		if (!config.isOverdraw()) {
+			mOverdrawCounts = mOverdrawCountsPrev = null;
+		}
+		mConfig = config;
 	}
 
 	/**
-	 * Loads three component RGB values from preferences.
+	 * Starts measuring render pass if pass times are measured during current
+	 * frame. GPU is synchronized with for this.
 	 * 
-	 * @param resId
-	 *            Color preference key resource id.
-	 * @param preferences
-	 *            Preferences to load value from.
-	 * @return Three element float RGB array.
-	 */
-	private float[] loadColor(int resId, SharedPreferences preferences) {
-		String key = mContext.getString(resId);
-		int color = preferences.getInt(key, 0);
-		float[] retVal = new float[3];
-		retVal[0] = (float) Color.red(color) / 255;
-		retVal[1] = (float) Color.green(color) / 255;
-		retVal[2] = (float) Color.blue(color) / 255;
-		return retVal;
+	 * @return Start time in nanoseconds, zero if pass is not measured.
+	 */
+	private long beginPass() {
+		if (!mTimingFrame) {
+			return 0;
+		}
+		GLES20.glFinish();
+		return System.nanoTime();
 	}
 
+	/**
+	 * Renders all layers within given depth ranges using current detail
+	 * reductions. On probe frames time spent in each layer is measured, GPU
+	 * is synchronized with before and after every layer for this.
+	 * 
+	 * @param ranges
+	 *            Combination of FlierLayer.RANGE_* flags.
+	 * @param interval
+	 *            Number of frames given ranges are rendered once in, cost
+	 *            given to scheduler is measured cost divided by this.
+	 */
+	private void drawLayers(int ranges, int interval) {
+		for (int i = 0; i < mLayers.length; ++i) {
+			long startNanos = 0;
+			if (mProbeFrame) {
+				GLES20.glFinish();
+				startNanos = System.nanoTime();
+			}
+			mLayers[i].onDrawFrame(ranges, mLayerScheduler.getReduction(i));
+			if (mProbeFrame) {
+				GLES20.glFinish();
+				long costNanos = System.nanoTime() - startNanos;
+				mLayerScheduler.addCost(i, costNanos / interval);
+				if (mTimingFrame) {
+					mPassTimings.add(PASS_LAYERS + i, costNanos);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends measuring render pass started with beginPass.
+	 * 
+	 * @param pass
+	 *            Pass index.
+	 * @param startNanos
+	 *            Start time returned from beginPass.
+	 */
+	private void endPass(int pass, long startNanos) {
+		if (mTimingFrame) {
+			GLES20.glFinish();
+			mPassTimings.add(pass, System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Getter for latest published configuration. Can be called from any
+	 * thread.
+	 * 
+	 * @return Latest configuration, or null if none has been set.
+	 */
+	public FlierConfig getConfig() {
+		return mConfigPending;
+	}
+
+	/**
+	 * Getter for frame rate cap of latest configuration. Can be called from
+	 * any thread.
+	 * 
+	 * @return Minimum time between frames in nanoseconds, zero if frame rate
+	 *         is not capped.
+	 */
+	public long getFrameIntervalNanos() {
+		FlierConfig config = mConfigPending;
+		return config == null ? 0 : config.getFrameIntervalNanos();
+	}
+
+	/**
+	 * Logs average and maximum render pass times over timing window, and
+	 * touch latency if there have been touches.
+	 */
+	private void logPassTimings() {
+		StringBuilder log = new StringBuilder("Pass avg/max ms");
+		for (int i = 0; i < PASS_LAYERS + mLayers.length; ++i) {
+			String name;
+			if (i == PASS_BACKGROUND) {
+				name = "Background";
+			} else if (i == PASS_COPY) {
+				name = "Copy";
+			} else {
+				name = mLayers[i - PASS_LAYERS].getClass().getSimpleName();
+			}
+			log.append(String.format(" %s %.2f/%.2f", name,
+					mPassTimings.getAverage(i) / 1000000f,
+					mPassTimings.getMax(i) / 1000000f));
+		}
+		if (mTouchLatency.getSampleCount() > 0) {
+			log.append(String.format(" Touch latency %.2f/%.2f",
+					mTouchLatency.getAverage(0) / 1000000f,
+					mTouchLatency.getMax(0) / 1000000f));
+		}
+		Log.d(TAG, log.toString());
+	}
+
+	/**
+	 * Called from rendering thread once per frame, before frame is presented
+	 * on any window surface. Advances frame clock, applies configuration,
+	 * touches and scroll offset, updates layers and renders scene into
+	 * offscreen buffers. Scene is left unrendered until there is a
+	 * configuration and simulation state, onPresent shows a blank frame
+	 * meanwhile.
+	 */
 	@Override
 	public void onDrawFrame(GL10 unused) {
-		// If shader compiler is not supported, clear screen buffer only.
+		mSceneReady = false;
+		// If shader compiler is not supported, there is nothing to render.
 		if (mShaderCompilerSupported[0] == false) {
-			GLES20.glClearColor(0, 0, 0, 1);
-			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 			return;
 		}
 
-		// If preferences have changed.
-		if (mPreferencesChanged) {
-			int width = mWidth;
-			int height = mHeight;
-			switch (mPreferenceQuality) {
-			case 0:
-				width /= 3;
-				height /= 3;
-				break;
-			case 1:
-				width /= 2;
-				height /= 2;
-				break;
+		// Apply latest configuration if it has changed.
+		FlierConfig config = mConfigPending;
+		if (config == null) {
+			return;
+		}
+		if (config != mConfig) {
+			applyConfig(config);
+		}
+
+		// Preview colors are picked once per frame, meaning any number of
+		// changes in between result in a single palette update.
+		float[][] previewColors = mPreviewColors;
+		if (previewColors != mPreviewColorsApplied) {
+			if (previewColors != null) {
+				mPalette.setColors(previewColors, PREVIEW_FADE_SECONDS);
+			} else {
+				mPalette.setColors(mConfig);
 			}
+			mPreviewColorsApplied = previewColors;
+		}
+
+		// If offscreen buffers need resizing.
+		if (mResizeNeeded) {
+			mScene.setSize(mWidth, mHeight);
+			int width = mScene.getWidth();
+			int height = mScene.getHeight();
 			mFlierFbo.init(width, height, 1, true, true);
-			mFlierWaves.onSurfaceChanged(width, height);
-			mFlierPlane.onSurfaceChanged(width, height);
-			mFlierClouds.onSurfaceChanged(width, height);
-			mPreferencesChanged = false;
+			if (mConfig.isLayered()) {
+				mFlierFboFar.init(width, height, 1, false, true);
+				mFlierFboMid.init(width, height, 1, false, true);
+			} else {
+				mFlierFboFar.reset();
+				mFlierFboMid.reset();
+			}
+			for (FlierLayer layer : mLayers) {
+				layer.onSurfaceChanged(width, height);
+			}
+			mResizeNeeded = false;
+			mFullRedrawNeeded = true;
+			mFullCopyNeeded = true;
+			// Times measured with previous buffers are not comparable.
+			mPassTimings.reset();
+			FlierGLResources.detectLeaks();
+		}
+
+		// Advance frame clock once, all layers are using the same time.
+		mScene.tick();
+
+		// Every pixel changes while palette is cross-fading.
+		if (mPalette.isFading()) {
+			mPalette.update(mScene.getClock().getStepSeconds());
+			mFullRedrawNeeded = true;
+		}
+		mPalette.bind();
+
+		// Nothing can be rendered before simulation has published state,
+		// first frame waits for it shortly instead of showing a blank frame.
+		// Touches, scroll offset and layer states are applied by scene.
+		if (!mScene.update(FIRST_SNAPSHOT_TIMEOUT_MILLIS)) {
+			return;
 		}
 
 		// Disable unneeded rendering flags.
@@ -137,55 +444,138 @@ public final class FlierRenderer implements GLSurfaceView.Renderer {
 		GLES20.glDisable(GLES20.GL_BLEND);
 		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
 
-		// Set render target to fbo.
-		mFlierFbo.bind();
-		mFlierFbo.bindTexture(0);
-		GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT
-				| GLES20.GL_STENCIL_BUFFER_BIT);
-
-		// Render background gradient.
-		mShaderFill.useProgram();
-		int positionAttribLocation = mShaderFill.getHandle("aPosition");
-		GLES20.glVertexAttribPointer(positionAttribLocation, 2, GLES20.GL_BYTE,
-				false, 0, mBufferVertices);
-		GLES20.glEnableVertexAttribArray(positionAttribLocation);
-		int colorAttribLocation = mShaderFill.getHandle("aColor");
-		GLES20.glVertexAttribPointer(colorAttribLocation, 3, GLES20.GL_FLOAT,
-				false, 0, mBufferBgColors);
-		GLES20.glEnableVertexAttribArray(colorAttribLocation);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		mProbeFrame = mLayerScheduler.beginFrame();
+		mTimingFrame = mProbeFrame && mConfig.isTiming()
+				&& !mConfig.isOverdraw();
+		if (mConfig.isOverdraw()) {
+			renderOverdraw();
+		} else if (mConfig.isLayered()) {
+			renderLayers(mScene.getXOffset());
+		} else {
+			renderDamaged();
+		}
+		mSceneReady = true;
+	}
 
-		// Render actual scene.
-		mFlierWaves.onDrawFrame();
-		mFlierPlane.onDrawFrame();
-		mFlierClouds.onDrawFrame();
+	/**
+	 * Called from rendering thread once frame has been presented on every
+	 * window surface.
+	 */
+	public void onFrameEnd() {
+		if (!mSceneReady) {
+			return;
+		}
+		mFullCopyNeeded = false;
+		long touchNanos = mScene.getTouchNanos();
+		if (touchNanos != 0) {
+			mTouchLatency.add(0, System.nanoTime() - touchNanos);
+			mTouchLatency.endFrame();
+		}
+		// Changed layer detail requires full redraw.
+		if (mLayerScheduler.endFrame()) {
+			mFullRedrawNeeded = true;
+		}
+		if (mTimingFrame) {
+			mPassTimings.endFrame();
+			if (++mPassReportFrame % PASS_REPORT_INTERVAL == 0) {
+				logPassTimings();
+			}
+		}
+	}
 
-		// Copy FBO to screen buffer.
+	/**
+	 * Called from rendering thread for presenting scene rendered during
+	 * current frame on window surface made current. Can be called any number
+	 * of times per frame, once for every window surface. Scene is scaled
+	 * into window keeping its aspect ratio, cropping it if window aspect
+	 * ratio differs from scene.
+	 * 
+	 * @param width
+	 *            Window width in pixels.
+	 * @param height
+	 *            Window height in pixels.
+	 * @param bufferPreserved
+	 *            True if window surface preserves its contents on swap.
+	 * @param fullCopy
+	 *            True if window does not hold previous frame, e.g. because
+	 *            it is new or was not presented on during previous frame.
+	 */
+	public void onPresent(int width, int height, boolean bufferPreserved,
+			boolean fullCopy) {
 		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-		GLES20.glViewport(0, 0, mWidth, mHeight);
-		mShaderCopy.useProgram();
-		int uBrightness = mShaderCopy.getHandle("uBrightness");
-		int aPosition = mShaderCopy.getHandle("aPosition");
-		GLES20.glUniform1f(uBrightness, mPreferenceBrightness);
-		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
-				mBufferVertices);
-		GLES20.glEnableVertexAttribArray(aPosition);
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFbo.getTexture(0));
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		GLES20.glViewport(0, 0, width, height);
+		if (!mSceneReady) {
+			GLES20.glClearColor(0, 0, 0, 1);
+			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+			return;
+		}
+
+		// Scene is scaled to cover window, texture coordinates are scaled
+		// along the axis which gets cropped.
+		float sceneAspect = (float) mWidth / mHeight;
+		float windowAspect = (float) width / height;
+		float scaleX = 1f, scaleY = 1f;
+		if (windowAspect > sceneAspect) {
+			scaleY = sceneAspect / windowAspect;
+		} else {
+			scaleX = windowAspect / sceneAspect;
+		}
+
+		long startNanos = beginPass();
+		if (mConfig.isOverdraw()) {
+			presentOverdraw(scaleX, scaleY);
+		} else if (mConfig.isLayered()) {
+			presentLayers(scaleX, scaleY);
+		} else {
+			presentDamaged(width, height, scaleX, scaleY, !bufferPreserved
+					|| fullCopy || mFullCopyNeeded);
+		}
+		endPass(PASS_COPY, startNanos);
+	}
+
+	/**
+	 * Called from rendering thread before rendering context is released,
+	 * while it is still current. All GL objects are deleted, and renderer is
+	 * initialized again through onSurfaceCreated before next frame.
+	 */
+	public void onRelease() {
+		mFlierFbo.reset();
+		mFlierFboFar.reset();
+		mFlierFboMid.reset();
+		for (FlierLayer layer : mLayers) {
+			layer.onRelease();
+		}
+		mShaderVariants.release();
+		mPalette.release();
+		// Anything left was not deleted by its owner.
+		FlierGLResources.detectLeaks();
+		FlierGLResources.deleteAll();
 	}
 
+	/**
+	 * Called from rendering thread once rendering resumes after no target
+	 * has been visible. Rendering context may or may not have been recreated
+	 * meanwhile. Animation clock continues from where it was paused and
+	 * window surface is copied into as a whole as it may have lost its
+	 * contents.
+	 */
+	public void onResume() {
+		mScene.getClock().resume();
+		mFullCopyNeeded = true;
+	}
+
+	/**
+	 * Called from rendering thread for setting scene size. Offscreen buffers
+	 * are resized before next frame only if size differs from current one,
+	 * window surfaces of any size can be presented on regardless.
+	 */
 	@Override
 	public void onSurfaceChanged(GL10 unused, int width, int height) {
-		// If shader compiler is not supported set viewport size only.
-		if (mShaderCompilerSupported[0] == false) {
-			GLES20.glViewport(0, 0, width, height);
-			return;
+		if (width != mWidth || height != mHeight) {
+			mWidth = width;
+			mHeight = height;
+			mResizeNeeded = true;
 		}
-
-		mWidth = width;
-		mHeight = height;
-		mPreferencesChanged = true;
 	}
 
 	@Override
@@ -207,108 +597,404 @@ public final class FlierRenderer implements GLSurfaceView.Renderer {
 			return;
 		}
 
-		mShaderCopy.setProgram(mContext.getString(R.string.shader_copy_vs),
-				mContext.getString(R.string.shader_copy_fs));
-		mShaderFill.setProgram(mContext.getString(R.string.shader_fill_vs),
-				mContext.getString(R.string.shader_fill_fs));
-		mFlierWaves.onSurfaceCreated(mContext);
-		mFlierPlane.onSurfaceCreated(mContext);
-		mFlierClouds.onSurfaceCreated(mContext);
+		// Objects of previous context are gone, everything is rebuilt below
+		// and on next frame.
+		FlierGLResources.onContextCreated();
+		mResizeNeeded = true;
+		mShaderVariants.onSurfaceCreated();
+		mPassTimings.reset();
+		mShaderCopy.setProgram(mShaderVariants, R.string.shader_copy_vs,
+				R.string.shader_copy_fs);
+		mShaderComposite.setProgram(mShaderVariants, R.string.shader_copy_vs,
+				R.string.shader_composite_fs);
+		mShaderFill.setProgram(mShaderVariants, R.string.shader_fill_vs,
+				R.string.shader_fill_fs);
+		mShaderOverdraw.setProgram(mShaderVariants, R.string.shader_copy_vs,
+				R.string.shader_overdraw_fs);
+		mShaderUpscale.setProgram(mShaderVariants, R.string.shader_copy_vs,
+				R.string.shader_upscale_fs);
+		for (FlierLayer layer : mLayers) {
+			layer.onSurfaceCreated(mShaderVariants);
+		}
+	}
+
+	/**
+	 * Reads overdraw counts from currently bound offscreen buffer into
+	 * mOverdrawCounts, previous counts are moved into mOverdrawCountsPrev.
+	 */
+	private void readOverdraw() {
+		int width = mFlierFbo.getWidth();
+		int height = mFlierFbo.getHeight();
+		if (mOverdrawCounts == null
+				|| mOverdrawCounts.capacity() != width * height * 4) {
+			mOverdrawCounts = ByteBuffer.allocateDirect(width * height * 4);
+			mOverdrawCountsPrev = ByteBuffer.allocateDirect(width * height
+					* 4);
+		}
+		ByteBuffer counts = mOverdrawCountsPrev;
+		mOverdrawCountsPrev = mOverdrawCounts;
+		mOverdrawCounts = counts;
+		GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA,
+				GLES20.GL_UNSIGNED_BYTE, counts);
+	}
+
+	/**
+	 * Renders background gradient into currently bound offscreen buffer.
+	 */
+	private void renderBackground() {
+		mShaderFill.useProgram();
+		int positionAttribLocation = mShaderFill.getHandle("aPosition");
+		GLES20.glVertexAttribPointer(positionAttribLocation, 2, GLES20.GL_BYTE,
+				false, 0, mBufferVertices);
+		GLES20.glEnableVertexAttribArray(positionAttribLocation);
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	}
+
+	/**
+	 * Copies offscreen buffer rendered with renderDamaged on window surface.
+	 * If window surface preserves its contents, only damaged regions are
+	 * copied.
+	 * 
+	 * @param width
+	 *            Window width in pixels.
+	 * @param height
+	 *            Window height in pixels.
+	 * @param scaleX
+	 *            Texture coordinate scale x.
+	 * @param scaleY
+	 *            Texture coordinate scale y.
+	 * @param fullCopy
+	 *            True if whole window has to be copied into.
+	 */
+	private void presentDamaged(int width, int height, float scaleX,
+			float scaleY, boolean fullCopy) {
+		// Reduced resolution scene is upscaled with edge-aware filter, which
+		// reads neighboring texels too.
+		boolean upscale = mConfig.isSharpUpscale();
+		FlierShader shader = upscale ? mShaderUpscale : mShaderCopy;
+		shader.useProgram();
+		int uBrightness = shader.getHandle("uBrightness");
+		int uTextureScale = shader.getHandle("uTextureScale");
+		int aPosition = shader.getHandle("aPosition");
+		GLES20.glUniform1f(uBrightness, mConfig.getBrightness());
+		GLES20.glUniform2f(uTextureScale, scaleX, scaleY);
+		if (upscale) {
+			int uSharpness = shader.getHandle("uSharpness");
+			int uTexelSize = shader.getHandle("uTexelSize");
+			GLES20.glUniform1f(uSharpness,
+					UPSCALE_SHARPNESS[mConfig.getQuality()]);
+			GLES20.glUniform2f(uTexelSize, 1f / mFlierFbo.getWidth(),
+					1f / mFlierFbo.getHeight());
+		}
+		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
+				mBufferVertices);
+		GLES20.glEnableVertexAttribArray(aPosition);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFbo.getTexture(0));
+		if (fullCopy || mDamage.isFull()) {
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+			return;
+		}
+
+		// Window surface preserves its contents, copy damaged regions only.
+		// Regions are grown by one texel for linear filtering, and by two for
+		// upscaling filter reading neighboring texels. Texels are mapped into
+		// window pixels through texture coordinate scale.
+		float sx = (float) width / (mFlierFbo.getWidth() * scaleX);
+		float sy = (float) height / (mFlierFbo.getHeight() * scaleY);
+		float ox = .5f * width * (1f - 1f / scaleX);
+		float oy = .5f * height * (1f - 1f / scaleY);
+		int margin = upscale ? 2 : 1;
+		GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+		for (int i = 0; i < mDamage.getRectCount(); ++i) {
+			int x0 = (int) Math.floor((mDamage.getLeft(i) - margin) * sx + ox);
+			int y0 = (int) Math.floor((mDamage.getBottom(i) - margin) * sy
+					+ oy);
+			int x1 = (int) Math.ceil((mDamage.getLeft(i) + mDamage.getWidth(i)
+					+ margin)
+					* sx + ox);
+			int y1 = (int) Math.ceil((mDamage.getBottom(i)
+					+ mDamage.getHeight(i) + margin)
+					* sy + oy);
+			GLES20.glScissor(x0, y0, x1 - x0, y1 - y0);
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		}
+		GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+	}
+
+	/**
+	 * Composites cached layers rendered with renderLayers on window surface,
+	 * layers are stored with premultiplied alpha.
+	 * 
+	 * @param scaleX
+	 *            Texture coordinate scale x.
+	 * @param scaleY
+	 *            Texture coordinate scale y.
+	 */
+	private void presentLayers(float scaleX, float scaleY) {
+		mShaderComposite.useProgram();
+		int uBrightness = mShaderComposite.getHandle("uBrightness");
+		int uTextureScale = mShaderComposite.getHandle("uTextureScale");
+		int sTextureFar = mShaderComposite.getHandle("sTextureFar");
+		int sTextureMid = mShaderComposite.getHandle("sTextureMid");
+		int sTextureNear = mShaderComposite.getHandle("sTextureNear");
+		int aPosition = mShaderComposite.getHandle("aPosition");
+		GLES20.glUniform1f(uBrightness, mConfig.getBrightness());
+		GLES20.glUniform2f(uTextureScale, scaleX, scaleY);
+		GLES20.glUniform1i(sTextureFar, 0);
+		GLES20.glUniform1i(sTextureMid, 1);
+		GLES20.glUniform1i(sTextureNear, 2);
+		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
+				mBufferVertices);
+		GLES20.glEnableVertexAttribArray(aPosition);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE2);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFbo.getTexture(0));
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFboMid.getTexture(0));
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFboFar.getTexture(0));
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	}
+
+	/**
+	 * Renders overdraw counts accumulated with renderOverdraw on window
+	 * surface as heat map.
+	 * 
+	 * @param scaleX
+	 *            Texture coordinate scale x.
+	 * @param scaleY
+	 *            Texture coordinate scale y.
+	 */
+	private void presentOverdraw(float scaleX, float scaleY) {
+		mShaderOverdraw.useProgram();
+		int uTextureScale = mShaderOverdraw.getHandle("uTextureScale");
+		int aPosition = mShaderOverdraw.getHandle("aPosition");
+		GLES20.glUniform2f(uTextureScale, scaleX, scaleY);
+		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
+				mBufferVertices);
+		GLES20.glEnableVertexAttribArray(aPosition);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mFlierFbo.getTexture(0));
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	}
+
+	/**
+	 * Renders scene into single offscreen buffer. If partial redraw is
+	 * enabled, only damaged regions are rendered. Buffer is copied on window
+	 * surfaces with presentDamaged.
+	 */
+	private void renderDamaged() {
+		// Collect regions which need to be redrawn.
+		mScene.collectDamage(mFullRedrawNeeded || !mConfig.isPartialRedraw());
+		mFullRedrawNeeded = false;
+
+		// Set render target to fbo.
+		mFlierFbo.bind();
+		mFlierFbo.bindTexture(0);
+		if (mDamage.isFull()) {
+			renderScene();
+		} else {
+			// Offscreen buffer keeps its contents between frames, render
+			// damaged regions only.
+			GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+			for (int i = 0; i < mDamage.getRectCount(); ++i) {
+				GLES20.glScissor(mDamage.getLeft(i), mDamage.getBottom(i),
+						mDamage.getWidth(i), mDamage.getHeight(i));
+				renderScene();
+			}
+			GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+		}
+	}
+
+	/**
+	 * Renders scene as separately cached layers and composites them on screen.
+	 * Far layer, background and far clouds, and mid layer, near clouds, are
+	 * redrawn every few frames or on scroll only. Waves and plane are redrawn
+	 * every frame into main offscreen buffer which acts as near layer. Layers
+	 * are composited on window surfaces with presentLayers.
+	 * 
+	 * Probe frames refresh every layer so that costs of all ranges are
+	 * measured, cost of far and mid ranges is divided by their refresh
+	 * interval unless scrolling refreshes them every frame anyway.
+	 * 
+	 * @param xOffset
+	 *            Scroll offset used for current frame.
+	 */
+	private void renderLayers(float xOffset) {
+		boolean scrolling = xOffset != mLayerXOffset;
+		boolean refreshAll = mFullRedrawNeeded || scrolling || mProbeFrame;
+		int farInterval = scrolling ? 1 : LAYER_FAR_INTERVAL;
+		int midInterval = scrolling ? 1 : LAYER_MID_INTERVAL;
+		mFullRedrawNeeded = false;
+		mLayerXOffset = xOffset;
+		mLayerFrame = (mLayerFrame + 1)
+				% (LAYER_FAR_INTERVAL * LAYER_MID_INTERVAL);
+
+		// Far and mid layers are refreshed on different frames for spreading
+		// load evenly.
+		if (refreshAll || mLayerFrame % LAYER_FAR_INTERVAL == 1) {
+			mFlierFboFar.bind();
+			mFlierFboFar.bindTexture(0);
+			GLES20.glClear(GLES20.GL_STENCIL_BUFFER_BIT);
+			long startNanos = beginPass();
+			renderBackground();
+			endPass(PASS_BACKGROUND, startNanos);
+			drawLayers(FlierLayer.RANGE_FAR, farInterval);
+		}
+		GLES20.glClearColor(0f, 0f, 0f, 0f);
+		if (refreshAll || mLayerFrame % LAYER_MID_INTERVAL == 0) {
+			mFlierFboMid.bind();
+			mFlierFboMid.bindTexture(0);
+			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT
+					| GLES20.GL_STENCIL_BUFFER_BIT);
+			drawLayers(FlierLayer.RANGE_MID, midInterval);
+		}
+		mFlierFbo.bind();
+		mFlierFbo.bindTexture(0);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT
+				| GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_STENCIL_BUFFER_BIT);
+		drawLayers(FlierLayer.RANGE_NEAR, 1);
+	}
+
+	/**
+	 * Renders overdraw counts instead of scene. Scene shaders are using
+	 * overdraw variant which outputs a single count for every fragment, and
+	 * counts are accumulated into offscreen buffer with additive blending,
+	 * presentOverdraw shows them as heat map. Stencil is left untouched as
+	 * layers rely on it for hiding clouds. Every OVERDRAW_REPORT_INTERVAL
+	 * frames counts are read back after every layer, and average and maximum
+	 * overdraw per layer are logged.
+	 */
+	private void renderOverdraw() {
+		// Never report on probe frames, readbacks would add to layer costs.
+		boolean report = false;
+		if (++mOverdrawFrame >= OVERDRAW_REPORT_INTERVAL && !mProbeFrame) {
+			mOverdrawFrame = 0;
+			report = true;
+		}
+
+		mFlierFbo.bind();
+		mFlierFbo.bindTexture(0);
+		GLES20.glClearColor(0f, 0f, 0f, 0f);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT
+				| GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_STENCIL_BUFFER_BIT);
+		GLES20.glEnable(GLES20.GL_BLEND);
+		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE);
+		renderBackground();
+		if (report) {
+			StringBuilder log = new StringBuilder("Overdraw avg/max");
+			readOverdraw();
+			appendOverdraw(log, "Background", mOverdrawCounts, null);
+			for (int i = 0; i < mLayers.length; ++i) {
+				mLayers[i].onDrawFrame(FlierLayer.RANGE_ALL,
+						mLayerScheduler.getReduction(i));
+				readOverdraw();
+				appendOverdraw(log, mLayers[i].getClass().getSimpleName(),
+						mOverdrawCounts, mOverdrawCountsPrev);
+			}
+			appendOverdraw(log, "Total", mOverdrawCounts, null);
+			Log.d(TAG, log.toString());
+		} else {
+			drawLayers(FlierLayer.RANGE_ALL, 1);
+		}
+		GLES20.glDisable(GLES20.GL_BLEND);
+	}
+
+	/**
+	 * Renders whole scene into currently bound offscreen buffer. Rendering is
+	 * limited to scissor rectangle if scissor test is enabled.
+	 */
+	private void renderScene() {
+		GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT
+				| GLES20.GL_STENCIL_BUFFER_BIT);
+
+		// Render background gradient.
+		long startNanos = beginPass();
+		renderBackground();
+		endPass(PASS_BACKGROUND, startNanos);
+
+		// Render actual scene.
+		drawLayers(FlierLayer.RANGE_ALL, 1);
+	}
+
+	/**
+	 * Adds touch event to be applied on next frame. Can be called from any
+	 * one thread.
+	 * 
+	 * @param action
+	 *            One of FlierTouchQueue.ACTION_* values.
+	 * @param x
+	 *            Touch x position in normalized device coordinates.
+	 * @param y
+	 *            Touch y position in normalized device coordinates.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void pushTouch(int action, float x, float y, long timeNanos) {
+		mScene.pushTouch(action, x, y, timeNanos);
+	}
+
+	/**
+	 * Sets colors shown instead of configuration colors, e.g. while colors
+	 * are being edited. Can be called from any thread, and as often as
+	 * needed, only latest colors are applied once per frame as a palette
+	 * update without touching rest of the scene. Given array must not be
+	 * modified afterwards.
+	 * 
+	 * @param colors
+	 *            COLOR_COUNT three component RGB values, or null for
+	 *            returning to configuration colors.
+	 */
+	public void setPreviewColors(float[][] colors) {
+		mPreviewColors = colors;
+	}
+
+	/**
+	 * Sets input recorder frame times and scroll offsets are recorded into.
+	 * Can be called from any thread.
+	 * 
+	 * @param recorder
+	 *            Recorder instance, or null for stopping recording.
+	 */
+	public void setRecorder(FlierReplayRecorder recorder) {
+		mScene.setRecorder(recorder);
+	}
+
+	/**
+	 * Starts simulation thread. Should be called once before rendering.
+	 */
+	public void startSimulation() {
+		mScene.startSimulation();
+	}
+
+	/**
+	 * Stops simulation thread and waits until it has exited.
+	 */
+	public void stopSimulation() {
+		mScene.stopSimulation();
 	}
 
 	/**
-	 * Updates rendering values from preferences.
+	 * Publishes new configuration for rendering. Can be called from any
+	 * thread, changes are applied before next frame is rendered.
 	 * 
-	 * @param preferences
-	 *            Preferences values.
-	 */
-	public void setPreferences(SharedPreferences preferences) {
-		String key = mContext.getString(R.string.key_general_quality);
-		mPreferenceQuality = Integer.parseInt(preferences.getString(key, "1"));
-		key = mContext.getString(R.string.key_general_brightness);
-		mPreferenceBrightness = (float) preferences.getInt(key, 100) / 100;
-
-		key = mContext.getString(R.string.key_colors_scheme);
-		int scheme = Integer.parseInt(preferences.getString(key, "1"));
-		float[] bgColorTop, bgColorBottom, waveColorFront, waveColorBack, planeColor, planeOutlineColor, cloudColor, cloudOutlineColor;
-
-		switch (scheme) {
-		case 1:
-			bgColorTop = FlierConstants.SCHEME_BLUE_BG_TOP;
-			bgColorBottom = FlierConstants.SCHEME_BLUE_BG_BOTTOM;
-			waveColorFront = FlierConstants.SCHEME_BLUE_WAVE_FRONT;
-			waveColorBack = FlierConstants.SCHEME_BLUE_WAVE_BACK;
-			planeColor = FlierConstants.SCHEME_BLUE_PLANE;
-			planeOutlineColor = FlierConstants.SCHEME_BLUE_PLANE_OUTLINE;
-			cloudColor = FlierConstants.SCHEME_BLUE_CLOUD;
-			cloudOutlineColor = FlierConstants.SCHEME_BLUE_CLOUD_OUTLINE;
-			break;
-		case 2:
-			bgColorTop = FlierConstants.SCHEME_GREY_BG_TOP;
-			bgColorBottom = FlierConstants.SCHEME_GREY_BG_BOTTOM;
-			waveColorFront = FlierConstants.SCHEME_GREY_WAVE_FRONT;
-			waveColorBack = FlierConstants.SCHEME_GREY_WAVE_BACK;
-			planeColor = FlierConstants.SCHEME_GREY_PLANE;
-			planeOutlineColor = FlierConstants.SCHEME_GREY_PLANE_OUTLINE;
-			cloudColor = FlierConstants.SCHEME_GREY_CLOUD;
-			cloudOutlineColor = FlierConstants.SCHEME_GREY_CLOUD_OUTLINE;
-			break;
-		case 3:
-			bgColorTop = FlierConstants.SCHEME_STRAWBERRY_BG_TOP;
-			bgColorBottom = FlierConstants.SCHEME_STRAWBERRY_BG_BOTTOM;
-			waveColorFront = FlierConstants.SCHEME_STRAWBERRY_WAVE_FRONT;
-			waveColorBack = FlierConstants.SCHEME_STRAWBERRY_WAVE_BACK;
-			planeColor = FlierConstants.SCHEME_STRAWBERRY_PLANE;
-			planeOutlineColor = FlierConstants.SCHEME_STRAWBERRY_PLANE_OUTLINE;
-			cloudColor = FlierConstants.SCHEME_STRAWBERRY_CLOUD;
-			cloudOutlineColor = FlierConstants.SCHEME_STRAWBERRY_CLOUD_OUTLINE;
-			break;
-		case 4:
-			bgColorTop = FlierConstants.SCHEME_CINNAMON_BG_TOP;
-			bgColorBottom = FlierConstants.SCHEME_CINNAMON_BG_BOTTOM;
-			waveColorFront = FlierConstants.SCHEME_CINNAMON_WAVE_FRONT;
-			waveColorBack = FlierConstants.SCHEME_CINNAMON_WAVE_BACK;
-			planeColor = FlierConstants.SCHEME_CINNAMON_PLANE;
-			planeOutlineColor = FlierConstants.SCHEME_CINNAMON_PLANE_OUTLINE;
-			cloudColor = FlierConstants.SCHEME_CINNAMON_CLOUD;
-			cloudOutlineColor = FlierConstants.SCHEME_CINNAMON_CLOUD_OUTLINE;
-			break;
-		default:
-			bgColorTop = loadColor(R.string.key_colors_bg_top, preferences);
-			bgColorBottom = loadColor(R.string.key_colors_bg_bottom,
-					preferences);
-			waveColorFront = loadColor(R.string.key_colors_wave_front,
-					preferences);
-			waveColorBack = loadColor(R.string.key_colors_wave_back,
-					preferences);
-			planeColor = loadColor(R.string.key_colors_plane, preferences);
-			planeOutlineColor = loadColor(R.string.key_colors_plane_outline,
-					preferences);
-			cloudColor = loadColor(R.string.key_colors_cloud, preferences);
-			cloudOutlineColor = loadColor(R.string.key_colors_cloud_outline,
-					preferences);
-			break;
-		}
-
-		mBufferBgColors.put(bgColorTop).put(bgColorBottom).put(bgColorTop)
-				.put(bgColorBottom).position(0);
-		mFlierWaves.setColors(waveColorFront, waveColorBack);
-		mFlierPlane.setColor(planeColor, planeOutlineColor);
-		mFlierClouds.setColors(cloudColor, cloudOutlineColor);
-
-		mPreferencesChanged = true;
+	 * @param config
+	 *            New configuration.
+	 */
+	public void setConfig(FlierConfig config) {
+		mConfigPending = config;
 	}
 
 	/**
 	 * Sets x offset for clouds. Offset is expected to be a value between [0,
-	 * 1].
+	 * 1]. Can be called from main thread, value is timestamped and passed to
+	 * rendering thread without locking.
 	 * 
 	 * @param xOffset
 	 *            New x offset value.
 	 */
 	public void setXOffset(float xOffset) {
-		mFlierWaves.setXOffset(xOffset);
-		mFlierClouds.setXOffset(xOffset);
+		mScene.setXOffset(xOffset, System.nanoTime());
 	}
 
 }
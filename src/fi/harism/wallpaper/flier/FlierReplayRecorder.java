@@ -0,0 +1,186 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Recorder for wallpaper input. Scroll offsets, preference changes,
+ * visibility changes, surface sizes and frame times are written as text,
+ * one event per line starting with event time in microseconds relative to
+ * first event. Recordings can be replayed on desktop JVM with
+ * FlierReplayBenchmark. Events come from both main and rendering thread,
+ * writing is synchronized. This class has no Android dependencies.
+ */
+public final class FlierReplayRecorder {
+
+	// Event types, written after event time.
+	public static final String EVENT_FRAME = "frame";
+	public static final String EVENT_OFFSET = "offset";
+	public static final String EVENT_PREFERENCE = "preference";
+	public static final String EVENT_SURFACE = "surface";
+	public static final String EVENT_VISIBILITY = "visibility";
+
+	// Time of first event, events are timed relative to it.
+	private long mStartNanos;
+	// Flag for indicating first event has been written.
+	private boolean mStarted;
+	// Writer for events, null once recording has stopped.
+	private Writer mWriter;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param writer
+	 *            Writer to write events into, closed once recording stops.
+	 */
+	public FlierReplayRecorder(Writer writer) {
+		mWriter = writer;
+	}
+
+	/**
+	 * Stops recording and closes writer.
+	 */
+	public synchronized void close() {
+		if (mWriter != null) {
+			try {
+				mWriter.close();
+			} catch (IOException ex) {
+				// Nothing to do, recording has stopped anyway.
+			}
+			mWriter = null;
+		}
+	}
+
+	/**
+	 * Flushes written events into underlying stream, should be called once
+	 * wallpaper is hidden as process may be killed any time afterwards.
+	 */
+	public synchronized void flush() {
+		if (mWriter != null) {
+			try {
+				mWriter.flush();
+			} catch (IOException ex) {
+				close();
+			}
+		}
+	}
+
+	/**
+	 * Records start of a frame. Should be called from rendering thread.
+	 * 
+	 * @param timeNanos
+	 *            Frame time in System.nanoTime() time base.
+	 */
+	public void recordFrame(long timeNanos) {
+		write(timeNanos, EVENT_FRAME, null, null);
+	}
+
+	/**
+	 * Records scroll offset change.
+	 * 
+	 * @param xOffset
+	 *            New x offset between [0, 1].
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void recordOffset(float xOffset, long timeNanos) {
+		write(timeNanos, EVENT_OFFSET, Float.toString(xOffset), null);
+	}
+
+	/**
+	 * Records preference value change.
+	 * 
+	 * @param key
+	 *            Preference key.
+	 * @param value
+	 *            New preference value, or null if it was removed.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void recordPreference(String key, Object value, long timeNanos) {
+		write(timeNanos, EVENT_PREFERENCE, key, String.valueOf(value));
+	}
+
+	/**
+	 * Records surface size change.
+	 * 
+	 * @param width
+	 *            New surface width.
+	 * @param height
+	 *            New surface height.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void recordSurface(int width, int height, long timeNanos) {
+		write(timeNanos, EVENT_SURFACE, Integer.toString(width),
+				Integer.toString(height));
+	}
+
+	/**
+	 * Records visibility change.
+	 * 
+	 * @param visible
+	 *            True if wallpaper became visible.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void recordVisibility(boolean visible, long timeNanos) {
+		write(timeNanos, EVENT_VISIBILITY, visible ? "1" : "0", null);
+	}
+
+	/**
+	 * Writes one event line. Recording stops on first write failure.
+	 * 
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 * @param type
+	 *            One of EVENT_* values.
+	 * @param arg1
+	 *            First argument, or null.
+	 * @param arg2
+	 *            Second argument, or null.
+	 */
+	private synchronized void write(long timeNanos, String type,
+			String arg1, String arg2) {
+		if (mWriter == null) {
+			return;
+		}
+		if (!mStarted) {
+			mStartNanos = timeNanos;
+			mStarted = true;
+		}
+		try {
+			mWriter.write(Long.toString((timeNanos - mStartNanos) / 1000));
+			mWriter.write(' ');
+			mWriter.write(type);
+			if (arg1 != null) {
+				mWriter.write(' ');
+				mWriter.write(arg1);
+			}
+			if (arg2 != null) {
+				mWriter.write(' ');
+				mWriter.write(arg2);
+			}
+			mWriter.write('\n');
+		} catch (IOException ex) {
+			close();
+		}
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * CPU side of rendering a frame, shared by renderer and replay benchmark.
+ * Scene applies configuration to layers, advances frame clock, picks latest
+ * simulation snapshot, applies touches and scroll offset, interpolates
+ * layers and collects damage. Everything GL related is left to caller,
+ * meaning this class can be driven on desktop JVM as well. All methods
+ * except pushTouch, setRecorder and setXOffset must be called from one
+ * thread.
+ */
+public final class FlierScene {
+
+	// Estimated time from frame start until it is presented on screen.
+	private static final long PRESENT_LATENCY_NANOS = 16666667L;
+
+	// Frame clock.
+	private final FlierClock mClock;
+	// Configuration applied to layers.
+	private FlierConfig mConfig;
+	// Damage collected for current frame.
+	private final FlierDamage mDamage = new FlierDamage();
+	// Scene layers in rendering order.
+	private final FlierLayer[] mLayers;
+	// Channel for passing scroll offsets from main thread.
+	private final FlierOffsetChannel mOffsetChannel = new FlierOffsetChannel();
+	// Input recorder, or null if input is not recorded.
+	private volatile FlierReplayRecorder mRecorder;
+	// Simulation advancing layers at fixed steps.
+	private final FlierSimulationThread mSimulationThread;
+	// Snapshot layers were updated from during latest frame.
+	private FlierSnapshot mSnapshot;
+	// Touch event polled from queue.
+	private final FlierTouchQueue.Event mTouchEvent = new FlierTouchQueue.Event();
+	// Time of oldest touch applied during current frame, zero if none.
+	private long mTouchNanos;
+	// Queue for passing touch events from main thread.
+	private final FlierTouchQueue mTouchQueue = new FlierTouchQueue();
+	// Scene size in pixels, after quality scaling.
+	private int mWidth, mHeight;
+	// Scroll offset sampled for current frame.
+	private float mXOffset;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param clock
+	 *            Frame clock used for timing frames.
+	 * @param layers
+	 *            Scene layers in rendering order.
+	 */
+	public FlierScene(FlierClock clock, FlierLayer[] layers) {
+		mClock = clock;
+		mLayers = layers.clone();
+		mSimulationThread = new FlierSimulationThread(mLayers);
+	}
+
+	/**
+	 * Collects regions changed during current frame. Must be called after
+	 * update(..).
+	 * 
+	 * @param full
+	 *            True if whole scene is to be redrawn regardless of layers.
+	 */
+	public void collectDamage(boolean full) {
+		mDamage.reset(mWidth, mHeight);
+		if (full) {
+			mDamage.setFull();
+		} else {
+			for (FlierLayer layer : mLayers) {
+				layer.addDamage(mDamage);
+			}
+		}
+	}
+
+	/**
+	 * Getter for frame clock.
+	 * 
+	 * @return Frame clock.
+	 */
+	public FlierClock getClock() {
+		return mClock;
+	}
+
+	/**
+	 * Getter for damage collected with collectDamage(..).
+	 * 
+	 * @return Damage for current frame.
+	 */
+	public FlierDamage getDamage() {
+		return mDamage;
+	}
+
+	/**
+	 * Getter for scene height.
+	 * 
+	 * @return Height in pixels.
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Getter for scene layers. Returned array must not be modified.
+	 * 
+	 * @return Layers in rendering order.
+	 */
+	public FlierLayer[] getLayers() {
+		return mLayers;
+	}
+
+	/**
+	 * Getter for snapshot layers were updated from during latest frame.
+	 * 
+	 * @return Latest snapshot, or null if none has been used yet.
+	 */
+	public FlierSnapshot getSnapshot() {
+		return mSnapshot;
+	}
+
+	/**
+	 * Getter for time of oldest touch applied during latest frame.
+	 * 
+	 * @return Event time in System.nanoTime() time base, zero if there were
+	 *         no touches.
+	 */
+	public long getTouchNanos() {
+		return mTouchNanos;
+	}
+
+	/**
+	 * Getter for scene width.
+	 * 
+	 * @return Width in pixels.
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Getter for scroll offset sampled for latest frame.
+	 * 
+	 * @return Scroll offset, value between [0, 1].
+	 */
+	public float getXOffset() {
+		return mXOffset;
+	}
+
+	/**
+	 * Adds touch event to be applied on next frame. Can be called from any
+	 * one thread.
+	 * 
+	 * @param action
+	 *            One of FlierTouchQueue.ACTION_* values.
+	 * @param x
+	 *            Touch x position in normalized device coordinates.
+	 * @param y
+	 *            Touch y position in normalized device coordinates.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void pushTouch(int action, float x, float y, long timeNanos) {
+		mTouchQueue.push(action, x, y, timeNanos);
+	}
+
+	/**
+	 * Applies configuration to layers.
+	 * 
+	 * @param config
+	 *            New configuration.
+	 */
+	public void setConfig(FlierConfig config) {
+		for (FlierLayer layer : mLayers) {
+			layer.setConfig(config);
+		}
+		mConfig = config;
+	}
+
+	/**
+	 * Sets input recorder frame times and scroll offsets are recorded into.
+	 * Can be called from any thread.
+	 * 
+	 * @param recorder
+	 *            Recorder instance, or null for stopping recording.
+	 */
+	public void setRecorder(FlierReplayRecorder recorder) {
+		mRecorder = recorder;
+	}
+
+	/**
+	 * Sets scene size for given surface size. Scene is scaled down based on
+	 * configured quality and layers are resized accordingly, GL objects
+	 * depending on size are left for caller to recreate. Must be called
+	 * after configuration has been set.
+	 * 
+	 * @param width
+	 *            Surface width in pixels.
+	 * @param height
+	 *            Surface height in pixels.
+	 */
+	public void setSize(int width, int height) {
+		switch (mConfig.getQuality()) {
+		case 0:
+			width /= 3;
+			height /= 3;
+			break;
+		case 1:
+			width /= 2;
+			height /= 2;
+			break;
+		}
+		mWidth = width;
+		mHeight = height;
+		for (FlierLayer layer : mLayers) {
+			layer.setSize(width, height);
+		}
+	}
+
+	/**
+	 * Adds scroll offset sample. Can be called from any one thread, value is
+	 * timestamped and passed on without locking.
+	 * 
+	 * @param xOffset
+	 *            Scroll offset, value between [0, 1].
+	 * @param timeNanos
+	 *            Sample time in System.nanoTime() time base.
+	 */
+	public void setXOffset(float xOffset, long timeNanos) {
+		mOffsetChannel.push(xOffset, timeNanos);
+		FlierReplayRecorder recorder = mRecorder;
+		if (recorder != null) {
+			recorder.recordOffset(xOffset, timeNanos);
+		}
+	}
+
+	/**
+	 * Starts simulation thread. Should be called once before rendering.
+	 */
+	public void startSimulation() {
+		mSimulationThread.start();
+	}
+
+	/**
+	 * Runs simulation synchronously up to current frame time. Used instead
+	 * of starting simulation thread when frames have to be deterministic,
+	 * e.g. when replaying recorded input.
+	 */
+	public void stepSimulation() {
+		mSimulationThread.stepTo(mClock.getFrameTimeNanos());
+	}
+
+	/**
+	 * Stops simulation thread and waits until it has exited.
+	 */
+	public void stopSimulation() {
+		mSimulationThread.requestExitAndWait();
+	}
+
+	/**
+	 * Advances frame clock once, all layers are using the same time during
+	 * a frame. Frame time is recorded if input is being recorded.
+	 */
+	public void tick() {
+		mClock.tick();
+		FlierReplayRecorder recorder = mRecorder;
+		if (recorder != null) {
+			recorder.recordFrame(mClock.getFrameTimeNanos());
+		}
+	}
+
+	/**
+	 * Updates layers for current frame. Touches received since previous
+	 * frame are applied, scroll offset is sampled and layers are
+	 * interpolated between latest two simulation steps.
+	 * 
+	 * @param timeoutMillis
+	 *            Maximum time to wait for simulation to publish its first
+	 *            snapshot.
+	 * @return False if there is no snapshot yet and layers were not updated.
+	 */
+	public boolean update(long timeoutMillis) {
+		// Nothing can be updated before simulation has published state.
+		FlierSnapshot snapshot = mSimulationThread
+				.awaitSnapshot(timeoutMillis);
+		if (snapshot == null) {
+			return false;
+		}
+		mSnapshot = snapshot;
+
+		// Apply touches received since previous frame, oldest one is used for
+		// measuring latency.
+		mTouchNanos = 0;
+		while (mTouchQueue.poll(mTouchEvent)) {
+			for (FlierLayer layer : mLayers) {
+				layer.onTouch(mTouchEvent.mAction, mTouchEvent.mX,
+						mTouchEvent.mY);
+			}
+			if (mTouchNanos == 0) {
+				mTouchNanos = mTouchEvent.mTimeNanos;
+			}
+		}
+
+		// Sample scroll offset once per frame for estimated presentation time
+		// so that all layers are using the very same value.
+		mXOffset = mOffsetChannel.sample(mClock.getFrameTimeNanos()
+				+ PRESENT_LATENCY_NANOS);
+		for (FlierLayer layer : mLayers) {
+			layer.setXOffset(mXOffset);
+		}
+
+		// Interpolate layers between latest two simulation steps.
+		float t = snapshot.getInterpolation(mClock.getFrameTimeNanos());
+		for (int i = 0; i < mLayers.length; ++i) {
+			mLayers[i].setState(snapshot.getPrevState(i),
+					snapshot.getState(i), t);
+		}
+		return true;
+	}
+
+}
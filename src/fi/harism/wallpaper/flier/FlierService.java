@@ -16,66 +16,299 @@
 
 package fi.harism.wallpaper.flier;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.opengl.GLSurfaceView;
+import android.content.pm.PackageManager;
+import android.graphics.PixelFormat;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
 /**
- * Main wallpaper service class.
+ * Main wallpaper service class. All engines share one renderer and one
+ * rendering thread, held by FlierRenderHost, engines only tell rendering
+ * thread which surfaces are visible. Battery state changes are mapped into
+ * power policy tier which limits configuration read from preferences. Touches
+ * on visible engine are queued to renderer. Input can be recorded into a file
+ * in application files directory for replaying it with FlierReplayBenchmark.
+ * Preferences are loaded on a separate thread, default values are written
+ * once per application version, and engines are created without waiting for
+ * them. Configuration read from preferences is cached and read again only
+ * once preferences change.
  */
-public final class FlierService extends WallpaperService {
+public final class FlierService extends WallpaperService implements
+		SharedPreferences.OnSharedPreferenceChangeListener {
+
+	// Preference key for application version default values were set for.
+	private static final String KEY_DEFAULTS_VERSION = "key_defaults_version";
+	// File input is recorded into.
+	private static final String REPLAY_FILE = "replay.txt";
+	// Tag for logging.
+	private static final String TAG = "FlierService";
+
+	// Receiver for battery state changes.
+	private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			updatePowerPolicy(intent);
+		}
+	};
+	// Configuration read from preferences, not limited by power policy.
+	private FlierConfig mConfig;
+	// Config chooser shared by all engines.
+	private FlierEGLConfigChooser mConfigChooser;
+	// Handler for posting preferences loaded on bootstrap thread.
+	private Handler mHandler;
+	// Power policy for current battery state.
+	private final FlierPowerPolicy mPowerPolicy = new FlierPowerPolicy();
+	// Preferences instance.
+	private SharedPreferences mPreferences;
+	// Input recorder, null unless recording is enabled.
+	private FlierReplayRecorder mRecorder;
+	// Renderer shared by all engines.
+	private FlierRenderer mRenderer;
+	// Rendering thread shared by all engines.
+	private FlierRenderThread mRenderThread;
+
+	@Override
+	public void onCreate() {
+
+		// Uncomment for debugging.
+		// android.os.Debug.waitForDebugger();
+
+		super.onCreate();
+		mHandler = new Handler();
+		loadPreferences();
+
+		FlierRenderHost.acquire(this);
+		mRenderer = FlierRenderHost.getRenderer();
+		mConfigChooser = FlierRenderHost.getConfigChooser();
+		mRenderThread = FlierRenderHost.getRenderThread();
+
+		// Battery changed broadcast is sticky, current state is received
+		// immediately.
+		Intent battery = registerReceiver(mBatteryReceiver, new IntentFilter(
+				Intent.ACTION_BATTERY_CHANGED));
+		if (battery != null) {
+			updatePowerPolicy(battery);
+		}
+	}
+
+	/**
+	 * Starts loading preferences on a separate thread. Default values are
+	 * set only if they have not been set by current application version
+	 * yet, as reading them means parsing preference XML. Once loaded,
+	 * preferences and configuration read from them are passed to main
+	 * thread. Renderer shows a blank frame until then.
+	 */
+	private void loadPreferences() {
+		final Context context = getApplicationContext();
+		new Thread(TAG) {
+			@Override
+			public void run() {
+				final SharedPreferences preferences = PreferenceManager
+						.getDefaultSharedPreferences(context);
+				int version = 0;
+				try {
+					version = context.getPackageManager().getPackageInfo(
+							context.getPackageName(), 0).versionCode;
+				} catch (PackageManager.NameNotFoundException ex) {
+					// Own package is always found, keep version zero.
+				}
+				if (preferences.getInt(KEY_DEFAULTS_VERSION, -1) != version) {
+					PreferenceManager.setDefaultValues(context,
+							R.xml.preferences, true);
+					preferences.edit().putInt(KEY_DEFAULTS_VERSION, version)
+							.commit();
+				}
+				final FlierConfig config = FlierConfig.fromPreferences(
+						context, preferences);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onPreferencesLoaded(preferences, config);
+					}
+				});
+			}
+		}.start();
+	}
 
 	@Override
 	public Engine onCreateEngine() {
-		PreferenceManager.setDefaultValues(this, R.xml.preferences, true);
 		return new WallpaperEngine();
 	}
 
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		unregisterReceiver(mBatteryReceiver);
+		if (mPreferences != null) {
+			mPreferences.unregisterOnSharedPreferenceChangeListener(this);
+			mPreferences = null;
+		}
+		if (mRecorder != null) {
+			mRenderer.setRecorder(null);
+			mRecorder.close();
+			mRecorder = null;
+		}
+		mRenderThread = null;
+		mConfigChooser = null;
+		mRenderer = null;
+		FlierRenderHost.release();
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		// Preserved rendering context is released once wallpaper is hidden.
+		mRenderThread.requestReleaseContext();
+	}
+
 	/**
-	 * Private wallpaper engine implementation.
+	 * Called on main thread once preferences have been loaded.
+	 * 
+	 * @param preferences
+	 *            Loaded preferences.
+	 * @param config
+	 *            Configuration read from preferences.
 	 */
-	private final class WallpaperEngine extends Engine implements
-			SharedPreferences.OnSharedPreferenceChangeListener {
+	private void onPreferencesLoaded(SharedPreferences preferences,
+			FlierConfig config) {
+		// Service may have been destroyed while loading.
+		if (mRenderer == null) {
+			return;
+		}
+		mPreferences = preferences;
+		mPreferences.registerOnSharedPreferenceChangeListener(this);
+		mConfig = config;
+		updateConfig();
+	}
 
-		// Slightly modified GLSurfaceView.
-		private WallpaperGLSurfaceView mGLSurfaceView;
-		private SharedPreferences mPreferences;
-		private FlierRenderer mRenderer;
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+			String key) {
+		if (mRecorder != null) {
+			mRecorder.recordPreference(key,
+					sharedPreferences.getAll().get(key), System.nanoTime());
+		}
+		if (KEY_DEFAULTS_VERSION.equals(key)) {
+			return;
+		}
+		mConfig = FlierConfig.fromPreferences(this, sharedPreferences);
+		updateConfig();
+	}
 
-		@Override
-		public void onCreate(SurfaceHolder surfaceHolder) {
+	/**
+	 * Publishes cached configuration limited by current power policy tier to
+	 * renderer and config chooser.
+	 */
+	private void updateConfig() {
+		FlierConfig config = mConfig.withPowerTier(mPowerPolicy.getTier());
+		mRenderer.setConfig(config);
+		// Partial redraw benefits from window surface preserving its
+		// contents, new policy is used once EGL is initialized next time.
+		mConfigChooser.setPolicy(FlierEGLConfigChooser.createPolicy(this,
+				config.isPartialRedraw()));
+		mRenderThread.setPreserveContext(config.isWarmResume());
+		updateRecorder(mPreferences);
+	}
 
-			// Uncomment for debugging.
-			// android.os.Debug.waitForDebugger();
+	/**
+	 * Updates power policy from battery changed broadcast and publishes new
+	 * configuration if policy tier changed.
+	 * 
+	 * @param battery
+	 *            Battery changed intent.
+	 */
+	private void updatePowerPolicy(Intent battery) {
+		int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, 100);
+		int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+		boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED,
+				0) != 0;
+		// Temperature is given in tenths of a degree Celsius.
+		float temperature = battery.getIntExtra(
+				BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+		if (scale > 0
+				&& mPowerPolicy.update((float) level / scale, charging,
+						temperature) && mConfig != null) {
+			updateConfig();
+		}
+	}
 
-			super.onCreate(surfaceHolder);
-			mRenderer = new FlierRenderer(FlierService.this);
+	/**
+	 * Starts or stops recording input as requested by preferences. Recording
+	 * starts with current values of all preferences so that replay begins
+	 * with the same configuration.
+	 * 
+	 * @param preferences
+	 *            Preferences to read recording flag from.
+	 */
+	private void updateRecorder(SharedPreferences preferences) {
+		String key = getString(R.string.key_diagnostics_record);
+		boolean record = preferences.getBoolean(key, false);
+		if (record && mRecorder == null) {
+			File file = new File(getFilesDir(), REPLAY_FILE);
+			try {
+				mRecorder = new FlierReplayRecorder(new BufferedWriter(
+						new FileWriter(file)));
+			} catch (IOException ex) {
+				Log.w(TAG, "Recording failed " + ex.getMessage());
+				return;
+			}
+			long timeNanos = System.nanoTime();
+			for (Map.Entry<String, ?> entry : preferences.getAll()
+					.entrySet()) {
+				mRecorder.recordPreference(entry.getKey(), entry.getValue(),
+						timeNanos);
+			}
+			mRenderer.setRecorder(mRecorder);
+			Log.d(TAG, "Recording into " + file.getPath());
+		} else if (!record && mRecorder != null) {
+			mRenderer.setRecorder(null);
+			mRecorder.close();
+			mRecorder = null;
+		}
+	}
+
+	/**
+	 * Private wallpaper engine implementation.
+	 */
+	private final class WallpaperEngine extends Engine {
 
-			mPreferences = PreferenceManager
-					.getDefaultSharedPreferences(FlierService.this);
-			mPreferences.registerOnSharedPreferenceChangeListener(this);
-			mRenderer.setPreferences(mPreferences);
+		// Rendering target for this engine.
+		private FlierRenderThread.Target mTarget;
+		// Surface size, used for normalizing touch positions.
+		private int mWidth, mHeight;
 
-			mGLSurfaceView = new WallpaperGLSurfaceView(FlierService.this);
-			mGLSurfaceView.setEGLContextClientVersion(2);
-			mGLSurfaceView
-					.setEGLConfigChooser(new FlierEGLConfigChooser(false));
-			mGLSurfaceView.setRenderer(mRenderer);
-			mGLSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
-			mGLSurfaceView.onPause();
+		@Override
+		public void onCreate(SurfaceHolder surfaceHolder) {
+			super.onCreate(surfaceHolder);
+			if (mConfigChooser.getPolicy().isRgb565Preferred()) {
+				surfaceHolder.setFormat(PixelFormat.RGB_565);
+			}
+			mTarget = mRenderThread.createTarget();
+			setTouchEventsEnabled(true);
 		}
 
 		@Override
 		public void onDestroy() {
 			super.onDestroy();
-			mPreferences.unregisterOnSharedPreferenceChangeListener(this);
-			mPreferences = null;
-			mGLSurfaceView.onDestroy();
-			mGLSurfaceView = null;
-			mRenderer = null;
+			mTarget.release();
+			mTarget = null;
 		}
 
 		@Override
@@ -84,49 +317,71 @@ public final class FlierService extends WallpaperService {
 				int yPixelOffset) {
 			super.onOffsetsChanged(xOffset, yOffset, xOffsetStep, yOffsetStep,
 					xPixelOffset, yPixelOffset);
-			mRenderer.setXOffset(xOffset);
+			// Renderer is shared, let only visible engine scroll it.
+			if (isVisible()) {
+				mRenderer.setXOffset(xOffset);
+			}
 		}
 
 		@Override
-		public void onSharedPreferenceChanged(
-				SharedPreferences sharedPreferences, String key) {
-			mRenderer.setPreferences(sharedPreferences);
+		public void onSurfaceChanged(SurfaceHolder holder, int format,
+				int width, int height) {
+			super.onSurfaceChanged(holder, format, width, height);
+			mWidth = width;
+			mHeight = height;
+			mTarget.onSurfaceChanged(holder, width, height);
+			if (mRecorder != null && !isPreview()) {
+				mRecorder.recordSurface(width, height, System.nanoTime());
+			}
 		}
 
 		@Override
-		public void onVisibilityChanged(boolean visible) {
-			super.onVisibilityChanged(visible);
-			if (visible) {
-				mGLSurfaceView.onResume();
-			} else {
-				mGLSurfaceView.onPause();
-			}
+		public void onSurfaceDestroyed(SurfaceHolder holder) {
+			super.onSurfaceDestroyed(holder);
+			mTarget.onSurfaceDestroyed();
 		}
 
-		/**
-		 * Lazy as I am, I din't bother using GLWallpaperService (found on
-		 * GitHub) project for wrapping OpenGL functionality into my wallpaper
-		 * service. Instead am using GLSurfaceView and trick it into hooking
-		 * into Engine provided SurfaceHolder instead of SurfaceView provided
-		 * one GLSurfaceView extends.
-		 */
-		private final class WallpaperGLSurfaceView extends GLSurfaceView {
-			public WallpaperGLSurfaceView(Context context) {
-				super(context);
+		@Override
+		public void onTouchEvent(MotionEvent event) {
+			super.onTouchEvent(event);
+			int action;
+			switch (event.getActionMasked()) {
+			case MotionEvent.ACTION_DOWN:
+				action = FlierTouchQueue.ACTION_DOWN;
+				break;
+			case MotionEvent.ACTION_MOVE:
+				action = FlierTouchQueue.ACTION_MOVE;
+				break;
+			case MotionEvent.ACTION_UP:
+			case MotionEvent.ACTION_CANCEL:
+				action = FlierTouchQueue.ACTION_UP;
+				break;
+			default:
+				return;
 			}
-
-			@Override
-			public SurfaceHolder getHolder() {
-				return WallpaperEngine.this.getSurfaceHolder();
+			// Renderer is shared, let only visible engine touch it. Position
+			// is normalized against this engine's surface as scene may be
+			// sized for another one. Event time is in uptime base, latency
+			// counts from there.
+			if (isVisible() && mWidth > 0 && mHeight > 0) {
+				long delayMillis = SystemClock.uptimeMillis()
+						- event.getEventTime();
+				float x = 2f * event.getX() / mWidth - 1f;
+				float y = 1f - 2f * event.getY() / mHeight;
+				mRenderer.pushTouch(action, x, y, System.nanoTime()
+						- delayMillis * 1000000);
 			}
+		}
 
-			/**
-			 * Should be called once underlying Engine is destroyed. Calling
-			 * onDetachedFromWindow() will stop rendering thread which is lost
-			 * otherwise.
-			 */
-			public void onDestroy() {
-				super.onDetachedFromWindow();
+		@Override
+		public void onVisibilityChanged(boolean visible) {
+			super.onVisibilityChanged(visible);
+			mTarget.setVisible(visible);
+			if (mRecorder != null && !isPreview()) {
+				mRecorder.recordVisibility(visible, System.nanoTime());
+				if (!visible) {
+					mRecorder.flush();
+				}
 			}
 		}
 	}
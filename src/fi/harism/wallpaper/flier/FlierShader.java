@@ -22,14 +22,88 @@ import android.opengl.GLES20;
 import android.util.Log;
 
 /**
- * Helper class for handling shaders.
+ * Helper class for handling shaders. Program is either compiled from given
+ * sources or requested from shader variants, in which case it is switched
+ * automatically once current variant changes. Programs compiled from given
+ * sources are owned by shader and deleted once they are replaced. Palette
+ * uniforms are set automatically for programs requested from shader
+ * variants.
  */
 public final class FlierShader {
 
+	// Resource ids for variant sources.
+	private int mFragmentResId, mVertexResId;
+	// Palette uniform handles, -1 if program does not use palette.
+	private int mPaletteMixHandle = -1, mPaletteSamplerHandle = -1;
 	// Shader program handle.
 	private int mProgram = -1;
 	// HashMap for storing uniform/attribute handles.
 	private final HashMap<String, Integer> mShaderHandleMap = new HashMap<String, Integer>();
+	// Shader variants program is requested from, or null.
+	private FlierShaderVariants mVariants;
+	// Variant generation current program was requested for.
+	private int mVariantsGeneration;
+
+	/**
+	 * Compiles vertex and fragment shaders and links them into a program.
+	 * Program is registered for given owner, shader objects are deleted
+	 * once they are attached and freed together with program.
+	 * 
+	 * @param owner
+	 *            Owner program is registered for.
+	 * @param vertexSource
+	 *            String presentation for vertex shader
+	 * @param fragmentSource
+	 *            String presentation for fragment shader
+	 * @return Program handle.
+	 */
+	static int createProgram(Object owner, String vertexSource,
+			String fragmentSource) {
+		int vertexShader = loadShader(owner, GLES20.GL_VERTEX_SHADER,
+				vertexSource);
+		int fragmentShader;
+		try {
+			fragmentShader = loadShader(owner, GLES20.GL_FRAGMENT_SHADER,
+					fragmentSource);
+		} catch (RuntimeException ex) {
+			FlierGLResources.delete(owner, FlierGLResources.TYPE_SHADER,
+					vertexShader);
+			throw ex;
+		}
+		int program = GLES20.glCreateProgram();
+		if (program != 0) {
+			FlierGLResources.add(owner, FlierGLResources.TYPE_PROGRAM, program);
+			GLES20.glAttachShader(program, vertexShader);
+			GLES20.glAttachShader(program, fragmentShader);
+			GLES20.glLinkProgram(program);
+		}
+		FlierGLResources.delete(owner, FlierGLResources.TYPE_SHADER,
+				vertexShader);
+		FlierGLResources.delete(owner, FlierGLResources.TYPE_SHADER,
+				fragmentShader);
+		if (program != 0) {
+			int[] linkStatus = new int[1];
+			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+			if (linkStatus[0] != GLES20.GL_TRUE) {
+				String error = GLES20.glGetProgramInfoLog(program);
+				FlierGLResources.delete(owner, FlierGLResources.TYPE_PROGRAM,
+						program);
+				throw new RuntimeException(error);
+			}
+		}
+		return program;
+	}
+
+	/**
+	 * Deletes program if it is owned by this shader.
+	 */
+	private void deleteProgram() {
+		if (mVariants == null && mProgram != -1) {
+			FlierGLResources.delete(this, FlierGLResources.TYPE_PROGRAM,
+					mProgram);
+		}
+		mProgram = -1;
+	}
 
 	/**
 	 * Get id for given handle name. This method checks for both attribute and
@@ -40,6 +114,7 @@ public final class FlierShader {
 	 * @return Id for given handle or -1 if none found.
 	 */
 	public int getHandle(String name) {
+		updateProgram();
 		if (mShaderHandleMap.containsKey(name)) {
 			return mShaderHandleMap.get(name);
 		}
@@ -78,22 +153,26 @@ public final class FlierShader {
 	/**
 	 * Helper method for compiling a shader.
 	 * 
+	 * @param owner
+	 *            Owner shader is registered for.
 	 * @param shaderType
 	 *            Type of shader to compile
 	 * @param source
 	 *            String presentation for shader
 	 * @return id for compiled shader
 	 */
-	private int loadShader(int shaderType, String source) {
+	private static int loadShader(Object owner, int shaderType, String source) {
 		int shader = GLES20.glCreateShader(shaderType);
 		if (shader != 0) {
+			FlierGLResources.add(owner, FlierGLResources.TYPE_SHADER, shader);
 			GLES20.glShaderSource(shader, source);
 			GLES20.glCompileShader(shader);
 			int[] compiled = new int[1];
 			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
 			if (compiled[0] == 0) {
 				String error = GLES20.glGetShaderInfoLog(shader);
-				GLES20.glDeleteShader(shader);
+				FlierGLResources.delete(owner, FlierGLResources.TYPE_SHADER,
+						shader);
 				throw new RuntimeException(error);
 			}
 		}
@@ -104,7 +183,7 @@ public final class FlierShader {
 	 * Compiles vertex and fragment shaders and links them into a program one
 	 * can use for rendering. Once OpenGL context is lost and onSurfaceCreated
 	 * is called, there is no need to reset existing GlslShader objects but one
-	 * can simply reload shader.
+	 * can simply reload shader. Previous program is deleted.
 	 * 
 	 * @param vertexSource
 	 *            String presentation for vertex shader
@@ -112,31 +191,76 @@ public final class FlierShader {
 	 *            String presentation for fragment shader
 	 */
 	public void setProgram(String vertexSource, String fragmentSource) {
-		int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-		int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
-				fragmentSource);
-		int program = GLES20.glCreateProgram();
-		if (program != 0) {
-			GLES20.glAttachShader(program, vertexShader);
-			GLES20.glAttachShader(program, fragmentShader);
-			GLES20.glLinkProgram(program);
-			int[] linkStatus = new int[1];
-			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-			if (linkStatus[0] != GLES20.GL_TRUE) {
-				String error = GLES20.glGetProgramInfoLog(program);
-				GLES20.glDeleteProgram(program);
-				throw new RuntimeException(error);
-			}
-		}
-		mProgram = program;
+		deleteProgram();
+		mVariants = null;
+		mProgram = createProgram(this, vertexSource, fragmentSource);
+		mShaderHandleMap.clear();
+		mPaletteMixHandle = mPaletteSamplerHandle = -1;
+	}
+
+	/**
+	 * Sets program to be requested from shader variants. Program follows
+	 * current variant, once variant changes program is switched before it
+	 * is used next time.
+	 * 
+	 * @param variants
+	 *            Shader variants to request program from.
+	 * @param vertexResId
+	 *            Vertex shader source resource id.
+	 * @param fragmentResId
+	 *            Fragment shader source resource id.
+	 */
+	public void setProgram(FlierShaderVariants variants, int vertexResId,
+			int fragmentResId) {
+		deleteProgram();
+		mVariants = variants;
+		mVertexResId = vertexResId;
+		mFragmentResId = fragmentResId;
+		mProgram = variants.getProgram(vertexResId, fragmentResId);
+		mVariantsGeneration = variants.getGeneration();
 		mShaderHandleMap.clear();
+		updatePaletteHandles();
+	}
+
+	/**
+	 * Looks up palette uniform handles for current program. Handles are not
+	 * cached into handle map as most programs do not use palette and would
+	 * otherwise be reported for missing handles.
+	 */
+	private void updatePaletteHandles() {
+		mPaletteMixHandle = GLES20.glGetUniformLocation(mProgram,
+				"uPaletteMix");
+		mPaletteSamplerHandle = GLES20.glGetUniformLocation(mProgram,
+				"sPalette");
 	}
 
 	/**
-	 * Activates this shader program.
+	 * Switches program to current variant if it has changed.
+	 */
+	private void updateProgram() {
+		if (mVariants != null
+				&& mVariantsGeneration != mVariants.getGeneration()) {
+			mProgram = mVariants.getProgram(mVertexResId, mFragmentResId);
+			mVariantsGeneration = mVariants.getGeneration();
+			mShaderHandleMap.clear();
+			updatePaletteHandles();
+		}
+	}
+
+	/**
+	 * Activates this shader program. If program reads scene colors from
+	 * palette, palette uniforms are updated too.
 	 */
 	public void useProgram() {
+		updateProgram();
 		GLES20.glUseProgram(mProgram);
+		FlierPalette palette = mVariants != null ? mVariants.getPalette()
+				: null;
+		if (palette != null && mPaletteSamplerHandle != -1) {
+			GLES20.glUniform1i(mPaletteSamplerHandle,
+					FlierPalette.TEXTURE_UNIT);
+			GLES20.glUniform1f(mPaletteMixHandle, palette.getMix());
+		}
 	}
 
 }
@@ -0,0 +1,253 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.HashMap;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+/**
+ * Builds and caches shader program variants. Shader sources in resources
+ * use PRECISION, VIGNETTE(v) and SHADING(v, flat) macros which are defined
+ * here based on render quality and device capabilities, meaning lower
+ * quality tiers get cheaper shaders instead of only a smaller offscreen
+ * buffer. Compiled programs are cached by source and variant flags for as
+ * long as rendering context lives. Overdraw diagnostics variant replaces
+ * scene fragment colors with a constant count through OVERDRAW(c) macro.
+ * Scene colors are read from palette texture through PALETTE(i) macro in
+ * every variant.
+ */
+public final class FlierShaderVariants {
+
+	// Variant flags.
+	public static final int FLAG_LOW_PRECISION = 0x01;
+	public static final int FLAG_SHADING = 0x02;
+	public static final int FLAG_VIGNETTE = 0x04;
+	public static final int FLAG_OVERDRAW = 0x08;
+
+	// Context for reading shader sources.
+	private final Context mContext;
+	// Flags for current variant.
+	private int mFlags;
+	// Counter increased every time current variant changes.
+	private int mGeneration;
+	// Flag for indicating lowp differs from mediump on this device.
+	private boolean mLowPrecisionSupported;
+	// Flag for overdraw diagnostics variant.
+	private boolean mOverdraw;
+	// Palette programs read scene colors from, or null.
+	private FlierPalette mPalette;
+	// Compiled programs by variant key.
+	private final HashMap<String, Integer> mPrograms = new HashMap<String, Integer>();
+	// Render quality current variant is based on.
+	private int mQuality = 1;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param ctx
+	 *            Context for reading shader sources.
+	 */
+	public FlierShaderVariants(Context ctx) {
+		mContext = ctx;
+		mFlags = getFlags(mQuality);
+	}
+
+	/**
+	 * Builds preprocessor definitions for given variant flags.
+	 * 
+	 * @param flags
+	 *            Combination of FLAG_* values.
+	 * @return Definitions to be prepended into shader source.
+	 */
+	private static String getDefines(int flags) {
+		StringBuilder defines = new StringBuilder();
+		if ((flags & FLAG_LOW_PRECISION) != 0) {
+			defines.append("#define PRECISION lowp\n");
+		} else {
+			defines.append("#define PRECISION mediump\n");
+		}
+		if ((flags & FLAG_SHADING) != 0) {
+			defines.append("#define SHADING(v, flat) (v)\n");
+		} else {
+			defines.append("#define SHADING(v, flat) (flat)\n");
+		}
+		if ((flags & FLAG_VIGNETTE) != 0) {
+			defines.append("#define VIGNETTE(v) (v)\n");
+		} else {
+			defines.append("#define VIGNETTE(v) 0.0\n");
+		}
+		if ((flags & FLAG_OVERDRAW) != 0) {
+			// Single fragment write adds one step of 8 bit color channel.
+			defines.append("#define OVERDRAW(c) c = vec4(1.0 / 255.0)\n");
+		} else {
+			defines.append("#define OVERDRAW(c)\n");
+		}
+		// Rows are sampled in between with linear filtering for cross-fade,
+		// columns at texel centers.
+		float texel = 1f / FlierConfig.COLOR_COUNT;
+		defines.append("#define PALETTE(i) texture2D(sPalette, vec2((i) * ")
+				.append(texel).append(" + ").append(texel / 2)
+				.append(", 0.25 + uPaletteMix * 0.5)).rgb\n");
+		return defines.toString();
+	}
+
+	/**
+	 * Getter for current variant flags.
+	 * 
+	 * @return Combination of FLAG_* values.
+	 */
+	public int getFlags() {
+		return mFlags;
+	}
+
+	/**
+	 * Calculates variant flags for given render quality.
+	 * 
+	 * @param quality
+	 *            Render quality, value between [0, 2].
+	 * @return Combination of FLAG_* values.
+	 */
+	private int getFlags(int quality) {
+		int flags = mOverdraw ? FLAG_OVERDRAW : 0;
+		if (quality > 0) {
+			return flags | FLAG_SHADING | FLAG_VIGNETTE;
+		}
+		// There is no point in separate variant if lowp equals mediump.
+		return mLowPrecisionSupported ? flags | FLAG_LOW_PRECISION : flags;
+	}
+
+	/**
+	 * Getter for variant generation. Generation changes every time programs
+	 * returned from getProgram might change.
+	 * 
+	 * @return Generation counter.
+	 */
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Getter for palette programs read scene colors from.
+	 * 
+	 * @return Palette, or null if none has been set.
+	 */
+	public FlierPalette getPalette() {
+		return mPalette;
+	}
+
+	/**
+	 * Returns program for current variant of given shader sources, compiling
+	 * it if it is not found from cache. Should be called from rendering
+	 * thread only.
+	 * 
+	 * @param vertexResId
+	 *            Vertex shader source resource id.
+	 * @param fragmentResId
+	 *            Fragment shader source resource id.
+	 * @return Program handle.
+	 */
+	public int getProgram(int vertexResId, int fragmentResId) {
+		String key = vertexResId + ":" + fragmentResId + ":" + mFlags;
+		Integer program = mPrograms.get(key);
+		if (program == null) {
+			String defines = getDefines(mFlags);
+			program = FlierShader.createProgram(this,
+					defines + mContext.getString(vertexResId), defines
+							+ mContext.getString(fragmentResId));
+			mPrograms.put(key, program);
+		}
+		return program;
+	}
+
+	/**
+	 * Called from renderer once surface has been created. Programs cached
+	 * for previous context are dropped and device capabilities are queried.
+	 */
+	public void onSurfaceCreated() {
+		mPrograms.clear();
+
+		int[] range = new int[2];
+		int[] precisionLow = new int[1], precisionMedium = new int[1];
+		GLES20.glGetShaderPrecisionFormat(GLES20.GL_FRAGMENT_SHADER,
+				GLES20.GL_LOW_FLOAT, range, 0, precisionLow, 0);
+		GLES20.glGetShaderPrecisionFormat(GLES20.GL_FRAGMENT_SHADER,
+				GLES20.GL_MEDIUM_FLOAT, range, 0, precisionMedium, 0);
+		// Query is not implemented on every driver, prefer mediump then.
+		mLowPrecisionSupported = GLES20.glGetError() == GLES20.GL_NO_ERROR
+				&& precisionLow[0] > 0 && precisionLow[0] < precisionMedium[0];
+
+		mFlags = getFlags(mQuality);
+		++mGeneration;
+	}
+
+	/**
+	 * Deletes all cached programs. Should be called from rendering thread
+	 * before context is released.
+	 */
+	public void release() {
+		FlierGLResources.deleteAll(this);
+		mPrograms.clear();
+	}
+
+	/**
+	 * Selects whether overdraw diagnostics variant is used.
+	 * 
+	 * @param overdraw
+	 *            If true, scene shaders output overdraw count instead of
+	 *            color.
+	 */
+	public void setOverdraw(boolean overdraw) {
+		mOverdraw = overdraw;
+		updateFlags();
+	}
+
+	/**
+	 * Sets palette programs read scene colors from. Palette uniforms are set
+	 * by FlierShader every time a program is taken into use.
+	 * 
+	 * @param palette
+	 *            Palette to read colors from.
+	 */
+	public void setPalette(FlierPalette palette) {
+		mPalette = palette;
+	}
+
+	/**
+	 * Selects variant for given render quality.
+	 * 
+	 * @param quality
+	 *            Render quality, value between [0, 2].
+	 */
+	public void setQuality(int quality) {
+		mQuality = quality;
+		updateFlags();
+	}
+
+	/**
+	 * Recalculates variant flags and increases generation if they changed.
+	 */
+	private void updateFlags() {
+		int flags = getFlags(mQuality);
+		if (flags != mFlags) {
+			mFlags = flags;
+			++mGeneration;
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Thread running scene simulation at fixed time steps. Every step advances
+ * all layers and publishes their states as a snapshot through a lock-free
+ * triple buffer, rendering thread only picks the latest snapshot and
+ * interpolates between its two steps. Simulation runs one step ahead of
+ * current time and pauses once renderer stops asking for snapshots.
+ */
+public final class FlierSimulationThread extends Thread {
+
+	// Time without snapshot requests after which simulation pauses.
+	private static final long IDLE_NANOS = 500000000L;
+	// Maximum lag after which simulation skips ahead instead of catching up.
+	private static final long MAX_LAG_NANOS = 250000000L;
+	// Fixed simulation time step.
+	private static final long STEP_NANOS = 1000000000L / 30;
+	// Tag for thread name.
+	private static final String TAG = "FlierSimulationThread";
+
+	// Simulation clock advanced by fixed steps.
+	private final StepClock mClock = new StepClock();
+	// Flag for indicating simulation is paused, written by this thread.
+	private volatile boolean mIdle;
+	// Latest time renderer requested snapshot.
+	private volatile long mLastAcquireNanos;
+	// Layer states of latest step, used from this thread only.
+	private final float[][] mLastStates;
+	// Time latest step represents, used from this thread only.
+	private long mLastTimeNanos;
+	// Simulated layers.
+	private final FlierLayer[] mLayers;
+	// Flag for indicating first snapshot has been published.
+	private volatile boolean mPublished;
+	// Flag for requesting thread to exit.
+	private boolean mQuit;
+	// Flag for indicating renderer has received first snapshot.
+	private boolean mSnapshotReceived;
+	// Triple buffer for passing snapshots to renderer.
+	private final FlierTripleBuffer<FlierSnapshot> mSnapshots;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param layers
+	 *            Layers to simulate, same array is indexed by snapshots.
+	 */
+	public FlierSimulationThread(FlierLayer[] layers) {
+		super(TAG);
+		mLayers = layers;
+		int[] stateSizes = new int[layers.length];
+		mLastStates = new float[layers.length][];
+		for (int i = 0; i < layers.length; ++i) {
+			stateSizes[i] = layers[i].getStateSize();
+			mLastStates[i] = new float[stateSizes[i]];
+		}
+		mSnapshots = new FlierTripleBuffer<FlierSnapshot>(new FlierSnapshot(
+				stateSizes), new FlierSnapshot(stateSizes), new FlierSnapshot(
+				stateSizes));
+	}
+
+	/**
+	 * Returns latest published snapshot. Should be called from rendering
+	 * thread only, once per frame. Wakes simulation up if it has been paused.
+	 * 
+	 * @return Latest snapshot, or null if none has been published yet.
+	 */
+	public FlierSnapshot acquireSnapshot() {
+		mLastAcquireNanos = System.nanoTime();
+		if (mIdle) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+		if (mSnapshots.update()) {
+			mSnapshotReceived = true;
+		}
+		return mSnapshotReceived ? mSnapshots.getFront() : null;
+	}
+
+	/**
+	 * Returns latest published snapshot, waiting for simulation to publish
+	 * its first snapshot if it has not done so yet. Should be called from
+	 * rendering thread only, once per frame instead of acquireSnapshot().
+	 * 
+	 * @param timeoutMillis
+	 *            Maximum time to wait for first snapshot.
+	 * @return Latest snapshot, or null if none was published in time.
+	 */
+	public FlierSnapshot awaitSnapshot(long timeoutMillis) {
+		FlierSnapshot snapshot = acquireSnapshot();
+		if (snapshot != null || mPublished) {
+			return snapshot;
+		}
+		long endNanos = System.nanoTime() + timeoutMillis * 1000000;
+		synchronized (this) {
+			while (!mPublished && !mQuit) {
+				long waitNanos = endNanos - System.nanoTime();
+				if (waitNanos <= 0) {
+					break;
+				}
+				try {
+					wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		return acquireSnapshot();
+	}
+
+	/**
+	 * Requests simulation thread to exit and waits until it has done so.
+	 */
+	public void requestExitAndWait() {
+		synchronized (this) {
+			mQuit = true;
+			notifyAll();
+		}
+		try {
+			join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			long nextNanos = System.nanoTime();
+			for (;;) {
+				synchronized (this) {
+					// Idle flag is raised before checking request time so
+					// that renderer either sees the flag or we see its
+					// request, wake up is never lost.
+					while (!mQuit
+							&& System.nanoTime() - mLastAcquireNanos > IDLE_NANOS) {
+						mIdle = true;
+						if (System.nanoTime() - mLastAcquireNanos > IDLE_NANOS) {
+							wait();
+						}
+					}
+					if (mQuit) {
+						break;
+					}
+					if (mIdle) {
+						mIdle = false;
+						nextNanos = System.nanoTime();
+					}
+				}
+
+				long delayNanos = nextNanos - System.nanoTime();
+				if (delayNanos > 0) {
+					Thread.sleep(delayNanos / 1000000,
+							(int) (delayNanos % 1000000));
+					continue;
+				}
+				if (-delayNanos > MAX_LAG_NANOS) {
+					nextNanos = System.nanoTime();
+				}
+				step(nextNanos + STEP_NANOS);
+				nextNanos += STEP_NANOS;
+			}
+		} catch (InterruptedException ex) {
+			// Exit quietly.
+		}
+	}
+
+	/**
+	 * Advances simulation by one step and publishes resulting snapshot.
+	 * 
+	 * @param timeNanos
+	 *            Time new step represents.
+	 */
+	private void step(long timeNanos) {
+		mClock.advance(STEP_NANOS);
+		FlierSnapshot snapshot = mSnapshots.getBack();
+		for (int i = 0; i < mLayers.length; ++i) {
+			float[] state = snapshot.getState(i);
+			mLayers[i].onSimulate(mClock, state);
+			System.arraycopy(mLastStates[i], 0, snapshot.getPrevState(i), 0,
+					state.length);
+			System.arraycopy(state, 0, mLastStates[i], 0, state.length);
+		}
+		snapshot.setTimes(mLastTimeNanos, timeNanos);
+		mLastTimeNanos = timeNanos;
+		mSnapshots.publish();
+		if (!mPublished) {
+			synchronized (this) {
+				mPublished = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Runs simulation synchronously until latest step is ahead of given
+	 * time, skipping ahead after long gaps the same way running thread does.
+	 * Used instead of starting thread when simulation has to be
+	 * deterministic, e.g. when replaying recorded input.
+	 * 
+	 * @param timeNanos
+	 *            Current time, in any time base used consistently.
+	 */
+	public void stepTo(long timeNanos) {
+		if (timeNanos - mLastTimeNanos > MAX_LAG_NANOS) {
+			mLastTimeNanos = timeNanos - STEP_NANOS;
+		}
+		while (mLastTimeNanos <= timeNanos) {
+			step(mLastTimeNanos + STEP_NANOS);
+		}
+	}
+
+	/**
+	 * Clock advanced by fixed steps.
+	 */
+	private static final class StepClock extends FlierClock {
+
+		// Current synthetic time.
+		private long mNanos;
+
+		/**
+		 * Advances clock by given step.
+		 * 
+		 * @param stepNanos
+		 *            Time step in nanoseconds.
+		 */
+		public void advance(long stepNanos) {
+			mNanos += stepNanos;
+			tick();
+		}
+
+		@Override
+		protected long readNanos() {
+			return mNanos;
+		}
+
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Scene state produced by one simulation step. Snapshot holds states of all
+ * layers for two consecutive steps so that renderer can interpolate between
+ * them without keeping any history itself. Snapshots are written by
+ * simulation thread and are not modified once published.
+ */
+public final class FlierSnapshot {
+
+	// Layer states for previous step.
+	private final float[][] mPrevStates;
+	// Time previous step represents.
+	private long mPrevTimeNanos;
+	// Layer states for current step.
+	private final float[][] mStates;
+	// Time current step represents.
+	private long mTimeNanos;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param stateSizes
+	 *            State sizes for each layer.
+	 */
+	public FlierSnapshot(int[] stateSizes) {
+		mPrevStates = new float[stateSizes.length][];
+		mStates = new float[stateSizes.length][];
+		for (int i = 0; i < stateSizes.length; ++i) {
+			mPrevStates[i] = new float[stateSizes[i]];
+			mStates[i] = new float[stateSizes[i]];
+		}
+	}
+
+	/**
+	 * Calculates interpolation factor for given time.
+	 * 
+	 * @param timeNanos
+	 *            Time in System.nanoTime() time base.
+	 * @return Value between [0, 1], zero meaning previous and one current
+	 *         step.
+	 */
+	public float getInterpolation(long timeNanos) {
+		long step = mTimeNanos - mPrevTimeNanos;
+		if (step <= 0) {
+			return 1f;
+		}
+		float t = (float) (timeNanos - mPrevTimeNanos) / step;
+		return Math.max(0f, Math.min(1f, t));
+	}
+
+	/**
+	 * Getter for layer state of previous step.
+	 * 
+	 * @param layer
+	 *            Layer index.
+	 * @return Layer state array, must not be modified once published.
+	 */
+	public float[] getPrevState(int layer) {
+		return mPrevStates[layer];
+	}
+
+	/**
+	 * Getter for layer state of current step.
+	 * 
+	 * @param layer
+	 *            Layer index.
+	 * @return Layer state array, must not be modified once published.
+	 */
+	public float[] getState(int layer) {
+		return mStates[layer];
+	}
+
+	/**
+	 * Sets times previous and current step represent. Should be called by
+	 * simulation before snapshot is published.
+	 * 
+	 * @param prevTimeNanos
+	 *            Previous step time in System.nanoTime() time base.
+	 * @param timeNanos
+	 *            Current step time in System.nanoTime() time base.
+	 */
+	public void setTimes(long prevTimeNanos, long timeNanos) {
+		mPrevTimeNanos = prevTimeNanos;
+		mTimeNanos = timeNanos;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Ring buffer for streaming dynamic vertex data. Values are appended after
+ * previously written ones and writing wraps back to the beginning once
+ * buffer is full, meaning only new vertices are written every frame while
+ * older ones stay in place until they are overwritten. Every append is kept
+ * contiguous so that it can be drawn with a single call.
+ */
+public final class FlierStreamBuffer {
+
+	// Direct buffer holding vertex data.
+	private final FloatBuffer mBuffer;
+	// Offset next append starts from.
+	private int mPosition;
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param capacity
+	 *            Buffer capacity in floats.
+	 */
+	public FlierStreamBuffer(int capacity) {
+		mBuffer = ByteBuffer.allocateDirect(capacity * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Appends values into buffer. If values do not fit between current
+	 * position and end of buffer, they are written at the beginning instead.
+	 * 
+	 * @param values
+	 *            Array to copy values from.
+	 * @param offset
+	 *            Offset of first value in array.
+	 * @param count
+	 *            Number of values to append, at most buffer capacity.
+	 * @return Offset values were written at.
+	 */
+	public int append(float[] values, int offset, int count) {
+		if (mPosition + count > mBuffer.capacity()) {
+			mPosition = 0;
+		}
+		int position = mPosition;
+		mBuffer.position(position);
+		mBuffer.put(values, offset, count);
+		mBuffer.position(0);
+		mPosition += count;
+		return position;
+	}
+
+	/**
+	 * Getter for buffer capacity.
+	 * 
+	 * @return Capacity in floats.
+	 */
+	public int getCapacity() {
+		return mBuffer.capacity();
+	}
+
+	/**
+	 * Discards all values, next append starts from the beginning.
+	 */
+	public void reset() {
+		mPosition = 0;
+	}
+
+	/**
+	 * Sets vertex attribute to read floats from buffer.
+	 * 
+	 * @param index
+	 *            Attribute location.
+	 * @param size
+	 *            Number of components per vertex.
+	 * @param stride
+	 *            Number of floats between consecutive vertices.
+	 * @param offset
+	 *            Offset of first component in floats.
+	 */
+	public void setVertexAttribPointer(int index, int size, int stride,
+			int offset) {
+		mBuffer.position(offset);
+		GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false,
+				stride * 4, mBuffer);
+		mBuffer.position(0);
+	}
+
+}
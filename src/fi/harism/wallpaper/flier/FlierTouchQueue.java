@@ -0,0 +1,105 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Lock-free queue for passing touch events from main thread into rendering
+ * thread. Writer stores events into a ring buffer and publishes them by
+ * incrementing a volatile counter, reader consumes them by incrementing
+ * another one. Neither side ever blocks, if reader falls behind by whole
+ * ring new events are dropped. Events are consumed by rendering thread once
+ * per frame, meaning queue fills up only if rendering stalls. This class has
+ * no Android dependencies.
+ */
+public final class FlierTouchQueue {
+
+	// Touch actions.
+	public static final int ACTION_DOWN = 0;
+	public static final int ACTION_MOVE = 1;
+	public static final int ACTION_UP = 2;
+
+	// Number of events kept, has to be a power of two.
+	private static final int EVENT_COUNT = 32;
+
+	// Event actions.
+	private final int[] mActions = new int[EVENT_COUNT];
+	// Number of events consumed by reader.
+	private volatile int mReadCount;
+	// Event times in nanoseconds.
+	private final long[] mTimes = new long[EVENT_COUNT];
+	// Number of events written, used for publishing events.
+	private volatile int mWriteCount;
+	// Event positions.
+	private final float[] mX = new float[EVENT_COUNT],
+			mY = new float[EVENT_COUNT];
+
+	/**
+	 * Reads oldest unread event. Should be called from one thread only.
+	 * 
+	 * @param event
+	 *            Event to read values into.
+	 * @return True if event was read, false if queue is empty.
+	 */
+	public boolean poll(Event event) {
+		int count = mReadCount;
+		if (count == mWriteCount) {
+			return false;
+		}
+		int index = count & (EVENT_COUNT - 1);
+		event.mAction = mActions[index];
+		event.mX = mX[index];
+		event.mY = mY[index];
+		event.mTimeNanos = mTimes[index];
+		mReadCount = count + 1;
+		return true;
+	}
+
+	/**
+	 * Adds new event. Should be called from one thread only.
+	 * 
+	 * @param action
+	 *            One of ACTION_* values.
+	 * @param x
+	 *            Event x position in normalized device coordinates.
+	 * @param y
+	 *            Event y position in normalized device coordinates.
+	 * @param timeNanos
+	 *            Event time in System.nanoTime() time base.
+	 */
+	public void push(int action, float x, float y, long timeNanos) {
+		int count = mWriteCount;
+		if (count - mReadCount >= EVENT_COUNT) {
+			return;
+		}
+		int index = count & (EVENT_COUNT - 1);
+		mActions[index] = action;
+		mX[index] = x;
+		mY[index] = y;
+		mTimes[index] = timeNanos;
+		mWriteCount = count + 1;
+	}
+
+	/**
+	 * Holder for values of one event.
+	 */
+	public static final class Event {
+		public int mAction;
+		public long mTimeNanos;
+		public float mX, mY;
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer for passing objects from one writer thread into one
+ * reader thread. Writer fills back object and publishes it by swapping it
+ * with middle one, reader swaps middle object into front once new one has
+ * been published. Neither thread ever waits and writer may publish faster
+ * than reader consumes, in which case reader simply sees the latest object.
+ * 
+ * @param <T>
+ *            Buffered object type.
+ */
+public final class FlierTripleBuffer<T> {
+
+	// Flag stored along middle index once it holds unread object.
+	private static final int FLAG_PUBLISHED = 0x04;
+	// Mask for extracting index from middle value.
+	private static final int MASK_INDEX = 0x03;
+
+	// Buffered objects.
+	private final Object[] mBuffers;
+	// Index of back object, owned by writer.
+	private int mBackIndex = 0;
+	// Index of front object, owned by reader.
+	private int mFrontIndex = 1;
+	// Index of middle object and published flag, shared by both threads.
+	private final AtomicInteger mMiddle = new AtomicInteger(2);
+
+	/**
+	 * Default constructor. Objects are initially assigned to back, front and
+	 * middle positions in given order.
+	 * 
+	 * @param back
+	 *            Initial back object.
+	 * @param front
+	 *            Initial front object.
+	 * @param middle
+	 *            Initial middle object.
+	 */
+	public FlierTripleBuffer(T back, T front, T middle) {
+		mBuffers = new Object[] { back, front, middle };
+	}
+
+	/**
+	 * Getter for back object. Should be called from writer thread only.
+	 * 
+	 * @return Object writer is allowed to modify.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getBack() {
+		return (T) mBuffers[mBackIndex];
+	}
+
+	/**
+	 * Getter for front object. Should be called from reader thread only.
+	 * 
+	 * @return Object reader is allowed to read.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getFront() {
+		return (T) mBuffers[mFrontIndex];
+	}
+
+	/**
+	 * Publishes back object, previous middle object becomes new back object.
+	 * Should be called from writer thread only.
+	 */
+	public void publish() {
+		int middle = mMiddle.getAndSet(mBackIndex | FLAG_PUBLISHED);
+		mBackIndex = middle & MASK_INDEX;
+	}
+
+	/**
+	 * Swaps latest published object into front if there is one. Should be
+	 * called from reader thread only.
+	 * 
+	 * @return True if front object changed.
+	 */
+	public boolean update() {
+		if ((mMiddle.get() & FLAG_PUBLISHED) == 0) {
+			return false;
+		}
+		int middle = mMiddle.getAndSet(mFrontIndex);
+		mFrontIndex = middle & MASK_INDEX;
+		return true;
+	}
+
+}
@@ -17,26 +17,70 @@
 package fi.harism.wallpaper.flier;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
-import android.content.Context;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
-import android.os.SystemClock;
 
 /**
- * Class for handling wave movement and rendering.
+ * Class for handling wave movement and rendering. Wave shape is repeated
+ * horizontally, every repetition having a round dip with darker outline at
+ * its top. Waves are rendered either as quads sampling shape from texture
+ * and discarding fragments outside it, or as strip meshes following shape
+ * profile. Touches start ripples travelling sideways along wave surface,
+ * ripples are evaluated in shaders from a few uniforms.
  */
-public final class FlierWaves {
+public final class FlierWaves implements FlierLayer {
 
+	// Number of mesh columns per wave repetition.
+	private static final int MESH_COLUMNS = 24;
+	// Brightness of wave outline.
+	private static final float OUTLINE_BRIGHTNESS = .6f;
+	// Outline size relative to dip size.
+	private static final float OUTLINE_SIZE = 1.075f;
+	// Ripple amplitude for touch press and touch move, in wave viewport
+	// normalized device coordinates.
+	private static final float RIPPLE_AMPLITUDE_DOWN = .15f,
+			RIPPLE_AMPLITUDE_MOVE = .06f;
+	// Number of simultaneous ripples, has to match wave shaders.
+	private static final int RIPPLE_COUNT = 3;
+	// Time ripple takes to fade out, in seconds.
+	private static final float RIPPLE_LIFETIME = 1.5f;
+	// Minimum distance touch moves before new ripple is started.
+	private static final float RIPPLE_SPACING = .15f;
+	// Speed ripple front travels at, per second.
+	private static final float RIPPLE_SPEED = .8f;
+	// Wrap around time for state time values, in seconds.
+	private static final float TIME_WRAP = 3600f;
+
+	// Wave position offsets.
+	private float mDx1, mDx2, mDy1, mDy2;
+	// Wave mesh vertices, outline strip followed by body strip.
+	private FloatBuffer mMesh;
+	// Number of vertices in each mesh strip.
+	private int mMeshStripCount;
+	// Initial ripple amplitudes.
+	private final float[] mRippleAmplitudes = new float[RIPPLE_COUNT];
+	// Index of ripple slot next ripple is started in.
+	private int mRippleNext;
+	// Ripple uniform values, x position, front distance and amplitude.
+	private final float[] mRipples = new float[RIPPLE_COUNT * 3];
+	// Times ripples were started at, in seconds.
+	private final float[] mRippleTimes = new float[RIPPLE_COUNT];
+	// X position latest ripple was started at.
+	private float mRippleX;
 	// Texture shader for rendering actual waves.
 	private final FlierShader mShaderWave = new FlierShader();
+	// Shader for rendering wave meshes.
+	private final FlierShader mShaderWaveMesh = new FlierShader();
 	// Point shader for rendering wave texture.
 	private final FlierShader mShaderWaveTexture = new FlierShader();
+	// Flag for rendering wave meshes.
+	private boolean mTessellated;
+	// Interpolated simulation time, in seconds.
+	private float mTime;
 	// Screen vertices.
 	private ByteBuffer mVertices;
-	// Front and back wave colors.
-	private float[] mWaveColorFront = new float[3],
-			mWaveColorBack = new float[3];
 	// FBO for rendering wave texture into.
 	private final FlierFbo mWaveFbo = new FlierFbo();
 	// View width, height and wave texture size.
@@ -53,46 +97,127 @@ public final class FlierWaves {
 	}
 
 	/**
-	 * Called from renderer for rendering paper plane into the scene.
+	 * Adds regions changed during latest update into damage.
+	 * 
+	 * @param damage
+	 *            Damage to add regions into.
 	 */
-	public void onDrawFrame() {
-		mShaderWave.useProgram();
+	@Override
+	public void addDamage(FlierDamage damage) {
+		// Waves are moving constantly, bottom quarter of the view is rendered
+		// into viewport of same size.
+		damage.add(-1f, -1f, 1f, -.5f);
+	}
 
-		int uPositionOffset = mShaderWave.getHandle("uPositionOffset");
-		int uTextureSize = mShaderWave.getHandle("uTextureSize");
-		int uColor = mShaderWave.getHandle("uColor");
-		int aPosition = mShaderWave.getHandle("aPosition");
+	/**
+	 * Builds wave mesh covering view for any x offset. Wave repetition is
+	 * one unit wide, dip and its outline are half circles centered at top of
+	 * every repetition. Columns are placed more densely near repetition
+	 * edges where circles are steepest.
+	 * 
+	 * @param repeatX
+	 *            Number of repetitions across view.
+	 * @param repeatY
+	 *            Wave height in repetition units.
+	 */
+	private void buildMesh(float repeatX, float repeatY) {
+		// X offset varies between [-2, .4], cover it with a margin.
+		int first = -3, last = (int) Math.ceil(repeatX) + 1;
+		mMeshStripCount = (last - first) * (MESH_COLUMNS + 1) * 2;
+		mMesh = ByteBuffer.allocateDirect(mMeshStripCount * 2 * 3 * 4)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
 
-		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
-				mVertices);
-		GLES20.glEnableVertexAttribArray(aPosition);
+		final float radius = .5f, radiusOutline = radius * OUTLINE_SIZE;
+		for (int pass = 0; pass < 2; ++pass) {
+			for (int i = first; i < last; ++i) {
+				for (int j = 0; j <= MESH_COLUMNS; ++j) {
+					double angle = Math.PI * j / MESH_COLUMNS;
+					float dx = (float) (-radius * Math.cos(angle));
+					float top = (float) (radius * Math.sin(angle));
+					float outline = (float) Math.sqrt(radiusOutline
+							* radiusOutline - dx * dx);
+					float x = i + .5f + dx;
+					if (pass == 0) {
+						mMesh.put(x).put(top).put(OUTLINE_BRIGHTNESS);
+						mMesh.put(x).put(outline).put(OUTLINE_BRIGHTNESS);
+					} else {
+						mMesh.put(x).put(outline).put(1f);
+						mMesh.put(x).put(repeatY).put(1f);
+					}
+				}
+			}
+		}
+		mMesh.position(0);
+	}
+
+	/**
+	 * Renders one wave with currently set uniforms.
+	 */
+	private void drawWave() {
+		if (mTessellated) {
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, mMeshStripCount);
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, mMeshStripCount,
+					mMeshStripCount);
+		} else {
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		}
+	}
 
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mWaveFbo.getTexture(0));
+	@Override
+	public int getMaxReduction() {
+		return 0;
+	}
+
+	@Override
+	public int getStateSize() {
+		return 5;
+	}
+
+	@Override
+	public void onDrawFrame(int ranges, int reduction) {
+		if ((ranges & RANGE_NEAR) == 0) {
+			return;
+		}
+
+		FlierShader shader = mTessellated ? mShaderWaveMesh : mShaderWave;
+		shader.useProgram();
+
+		int uPositionOffset = shader.getHandle("uPositionOffset");
+		int uTextureSize = shader.getHandle("uTextureSize");
+		int uColorIndex = shader.getHandle("uColorIndex");
+		int uRipples = shader.getHandle("uRipples");
+		int aPosition = shader.getHandle("aPosition");
+
+		if (mTessellated) {
+			GLES20.glVertexAttribPointer(aPosition, 3, GLES20.GL_FLOAT, false,
+					0, mMesh);
+		} else {
+			GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false,
+					0, mVertices);
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mWaveFbo.getTexture(0));
+		}
+		GLES20.glEnableVertexAttribArray(aPosition);
 
 		int width = mWidth;
 		int height = mHeight / 4;
-		long time = SystemClock.uptimeMillis();
-		float dx1 = sin(time, 2000, .2f) + .2f - mXOffset;
-		float dx2 = sin(time, 2345, .2f) + .2f - mXOffset;
-		float dy1 = sin(time, 5000, .2f) - .2f;
-		float dy2 = sin(time, 5234, .2f) - .4f;
 
 		GLES20.glViewport(0, 0, width, height);
 
-		GLES20.glUniform2f(uPositionOffset, dx1, dy1);
+		GLES20.glUniform3fv(uRipples, RIPPLE_COUNT, mRipples, 0);
+		GLES20.glUniform2f(uPositionOffset, mDx1, mDy1);
 		GLES20.glUniform2f(uTextureSize, (float) width / mWaveSize,
 				(float) height / mWaveSize);
-		GLES20.glUniform3fv(uColor, 1, mWaveColorBack, 0);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_WAVE_BACK);
+		drawWave();
 
 		GLES20.glEnable(GLES20.GL_STENCIL_TEST);
 		GLES20.glStencilFunc(GLES20.GL_ALWAYS, 0x01, 0xFFFFFFFF);
 		GLES20.glStencilOp(GLES20.GL_REPLACE, GLES20.GL_REPLACE,
 				GLES20.GL_REPLACE);
-		GLES20.glUniform2f(uPositionOffset, dx2, dy2);
-		GLES20.glUniform3fv(uColor, 1, mWaveColorFront, 0);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		GLES20.glUniform2f(uPositionOffset, mDx2, mDy2);
+		GLES20.glUniform1f(uColorIndex, FlierConfig.COLOR_WAVE_FRONT);
+		drawWave();
 		GLES20.glDisable(GLES20.GL_STENCIL_TEST);
 
 		GLES20.glViewport(0, 0, mWidth, mHeight);
@@ -106,11 +231,12 @@ public final class FlierWaves {
 	 * @param height
 	 *            Height in pixels.
 	 */
+	@Override
 	public void onSurfaceChanged(int width, int height) {
-		mWidth = width;
-		mHeight = height;
-		mWaveSize = Math.min(width, height) / 5;
-
+		// Wave texture depends on its size only.
+		if (mWaveFbo.isValid() && mWaveFbo.getWidth() == mWaveSize) {
+			return;
+		}
 		mWaveFbo.init(mWaveSize, mWaveSize, 1);
 		mWaveFbo.bind();
 		mWaveFbo.bindTexture(0);
@@ -130,7 +256,7 @@ public final class FlierWaves {
 		int aPosition = mShaderWaveTexture.getHandle("aPosition");
 
 		float[] mvpM = new float[16];
-		Matrix.setIdentityM(mvpM, 0);
+		FlierMatrix.setIdentityM(mvpM, 0);
 		GLES20.glUniformMatrix4fv(uModelViewProjM, 1, false, mvpM, 0);
 		GLES20.glUniform3f(uPointPosition, 0f, -1f, 0f);
 		GLES20.glUniform2f(uAspectRatio, 1f, 1f);
@@ -138,8 +264,8 @@ public final class FlierWaves {
 				mVertices);
 		GLES20.glEnableVertexAttribArray(aPosition);
 
-		GLES20.glUniform1f(uPointSize, 1.075f);
-		GLES20.glUniform1f(uBrightness, .6f);
+		GLES20.glUniform1f(uPointSize, OUTLINE_SIZE);
+		GLES20.glUniform1f(uBrightness, OUTLINE_BRIGHTNESS);
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
 		GLES20.glUniform1f(uPointSize, 1f);
@@ -150,28 +276,97 @@ public final class FlierWaves {
 	/**
 	 * Called from renderer once surface has been created.
 	 * 
-	 * @param ctx
-	 *            Context to read shaders from.
+	 * @param shaders
+	 *            Shader variants to request programs from.
 	 */
-	public void onSurfaceCreated(Context ctx) {
+	@Override
+	public void onSurfaceCreated(FlierShaderVariants shaders) {
 		mWaveFbo.reset();
-		mShaderWaveTexture.setProgram(ctx.getString(R.string.shader_point_vs),
-				ctx.getString(R.string.shader_wave_texture_fs));
-		mShaderWave.setProgram(ctx.getString(R.string.shader_wave_vs),
-				ctx.getString(R.string.shader_wave_fs));
+		mShaderWaveTexture.setProgram(shaders, R.string.shader_point_vs,
+				R.string.shader_wave_texture_fs);
+		mShaderWave.setProgram(shaders, R.string.shader_wave_vs,
+				R.string.shader_wave_fs);
+		mShaderWaveMesh.setProgram(shaders, R.string.shader_wave_mesh_vs,
+				R.string.shader_wave_mesh_fs);
 	}
 
 	/**
-	 * Sets wave colors.
+	 * Called from renderer before rendering context is released. Deletes
+	 * wave texture FBO.
+	 */
+	@Override
+	public void onRelease() {
+		mWaveFbo.reset();
+	}
+
+	@Override
+	public void onSimulate(FlierClock clock, float[] state) {
+		long time = clock.getTimeNanos();
+		state[0] = sin(time, 2000, .2f) + .2f;
+		state[1] = sin(time, 2345, .2f) + .2f;
+		state[2] = sin(time, 5000, .2f) - .2f;
+		state[3] = sin(time, 5234, .2f) - .4f;
+		state[4] = (float) (time % ((long) TIME_WRAP * 1000000000L)) / 1000000000;
+	}
+
+	@Override
+	public void onTouch(int action, float x, float y) {
+		if (action == FlierTouchQueue.ACTION_DOWN) {
+			startRipple(x, RIPPLE_AMPLITUDE_DOWN);
+		} else if (action == FlierTouchQueue.ACTION_MOVE
+				&& Math.abs(x - mRippleX) > RIPPLE_SPACING) {
+			startRipple(x, RIPPLE_AMPLITUDE_MOVE);
+		}
+	}
+
+	@Override
+	public void setConfig(FlierConfig config) {
+		mTessellated = config.isTessellated();
+	}
+
+	/**
+	 * Sets scene size, wave mesh is rebuilt for new size.
 	 * 
-	 * @param waveColorFront
-	 *            Three float RGB array.
-	 * @param waveColorBack
-	 *            Three float RGB arrat.
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
 	 */
-	public void setColors(float[] waveColorFront, float[] waveColorBack) {
-		mWaveColorFront = waveColorFront;
-		mWaveColorBack = waveColorBack;
+	@Override
+	public void setSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+		mWaveSize = Math.min(width, height) / 5;
+		buildMesh((float) width / mWaveSize, (float) height / 4 / mWaveSize);
+	}
+
+	@Override
+	public void setState(float[] prevState, float[] state, float t) {
+		mDx1 = prevState[0] + t * (state[0] - prevState[0]) - mXOffset;
+		mDx2 = prevState[1] + t * (state[1] - prevState[1]) - mXOffset;
+		mDy1 = prevState[2] + t * (state[2] - prevState[2]);
+		mDy2 = prevState[3] + t * (state[3] - prevState[3]);
+
+		// Time wraps around at TIME_WRAP seconds.
+		float timePrev = prevState[4];
+		if (timePrev > state[4]) {
+			timePrev -= TIME_WRAP;
+		}
+		mTime = timePrev + t * (state[4] - timePrev);
+		if (mTime < 0f) {
+			mTime += TIME_WRAP;
+		}
+
+		// Ripple front moves at constant speed while amplitude fades out.
+		for (int i = 0; i < RIPPLE_COUNT; ++i) {
+			float age = mTime - mRippleTimes[i];
+			if (age < 0f) {
+				age += TIME_WRAP;
+			}
+			float fade = Math.max(0f, 1f - age / RIPPLE_LIFETIME);
+			mRipples[i * 3 + 1] = age * RIPPLE_SPEED;
+			mRipples[i * 3 + 2] = mRippleAmplitudes[i] * fade;
+		}
 	}
 
 	/**
@@ -181,15 +376,32 @@ public final class FlierWaves {
 	 * @param xOffset
 	 *            New x offset value.
 	 */
+	@Override
 	public void setXOffset(float xOffset) {
 		mXOffset = xOffset * 2f;
 	}
 
+	/**
+	 * Starts new ripple at given position, replacing oldest one.
+	 * 
+	 * @param x
+	 *            Ripple x position in normalized device coordinates.
+	 * @param amplitude
+	 *            Initial ripple amplitude.
+	 */
+	private void startRipple(float x, float amplitude) {
+		mRipples[mRippleNext * 3] = x;
+		mRippleAmplitudes[mRippleNext] = amplitude;
+		mRippleTimes[mRippleNext] = mTime;
+		mRippleNext = (mRippleNext + 1) % RIPPLE_COUNT;
+		mRippleX = x;
+	}
+
 	/**
 	 * Calculates sin value for timed position.
 	 * 
 	 * @param time
-	 *            Current time.
+	 *            Current time in nanoseconds.
 	 * @param frequency
 	 *            Time between full 360 degree cycle in millis.
 	 * @param multiplier
@@ -197,9 +409,9 @@ public final class FlierWaves {
 	 * @return Value between [-multiplier, multiplier].
 	 */
 	private float sin(long time, long frequency, float multiplier) {
+		long period = frequency * 1000000;
 		return multiplier
-				* (float) Math.sin((2 * Math.PI * (time % frequency))
-						/ frequency);
+				* (float) Math.sin((2 * Math.PI * (time % period)) / period);
 	}
 
 }
@@ -24,17 +24,23 @@ import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.SeekBar;
+import fi.harism.wallpaper.flier.FlierConfig;
 import fi.harism.wallpaper.flier.R;
 
 /**
  * Color chooser dialog preference. Implementation is loosely borrowed from Mark
  * Murphy's color mixer project on GitHub
  * (https://github.com/commonsguy/cwac-colormixer). Layout used for dialog is a
- * 99% copy from him with only very small changes.
+ * 99% copy from him with only very small changes. Dialog shows live preview of
+ * wallpaper which follows color while it is being changed.
  */
 public class FlierColorPreference extends DialogPreference implements
 		SeekBar.OnSeekBarChangeListener {
 
+	// Scene color index this preference sets.
+	private int mColorIndex;
+	// Wallpaper preview View.
+	private FlierPreviewView mPreview;
 	// SeekBar instances.
 	private SeekBar mSeekBarR, mSeekBarG, mSeekBarB;
 	// Current color value.
@@ -47,6 +53,7 @@ public class FlierColorPreference extends DialogPreference implements
 	 */
 	public FlierColorPreference(Context context, AttributeSet attrs) {
 		super(context, attrs);
+		mColorIndex = FlierConfig.getColorIndex(context, getKey());
 	}
 
 	/**
@@ -75,6 +82,7 @@ public class FlierColorPreference extends DialogPreference implements
 		View view = LayoutInflater.from(getContext()).inflate(
 				R.layout.preference_color, null);
 		// Fetch layout views for later use.
+		mPreview = (FlierPreviewView) view.findViewById(R.id.preview_view);
 		mViewColor = view.findViewById(R.id.color_view);
 		mSeekBarR = (SeekBar) view.findViewById(R.id.color_red_seekbar);
 		mSeekBarR.setMax(255);
@@ -108,7 +116,12 @@ public class FlierColorPreference extends DialogPreference implements
 	@Override
 	public void onProgressChanged(SeekBar seekBar, int progress,
 			boolean fromUser) {
-		mViewColor.setBackgroundColor(getCurrentColor());
+		int color = getCurrentColor();
+		mViewColor.setBackgroundColor(color);
+		// Preview coalesces changes, renderer picks latest color per frame.
+		if (fromUser && mColorIndex >= 0) {
+			mPreview.setColor(mColorIndex, color);
+		}
 	}
 
 	@Override
@@ -16,20 +16,39 @@
 
 package fi.harism.wallpaper.flier.prefs;
 
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.preference.ListPreference;
 import android.util.AttributeSet;
+import android.view.View;
+import fi.harism.wallpaper.flier.FlierConfig;
+import fi.harism.wallpaper.flier.R;
 
 /**
- * Color scheme list selector.
+ * Color scheme list selector. Choosing a scheme shows it in live wallpaper
+ * preview below the list instead of closing dialog, chosen scheme is saved
+ * once dialog is accepted.
  */
 public class FlierColorSchemePreference extends ListPreference {
 
+	// Wallpaper preview View.
+	private FlierPreviewView mPreview;
+	// Index of scheme chosen in dialog.
+	private int mSchemeIndex;
+
 	/**
 	 * Default constructor.
 	 */
 	public FlierColorSchemePreference(Context context, AttributeSet attrs) {
 		super(context, attrs);
+		setDialogLayoutResource(R.layout.preference_preview);
+	}
+
+	@Override
+	protected void onBindDialogView(View view) {
+		super.onBindDialogView(view);
+		mPreview = (FlierPreviewView) view.findViewById(R.id.preview_view);
 	}
 
 	@Override
@@ -38,6 +57,13 @@ public class FlierColorSchemePreference extends ListPreference {
 		boolean disableDependentsOrig = shouldDisableDependents();
 		// Call super class implemention.
 		super.onDialogClosed(positiveResult);
+		// Save scheme chosen in dialog.
+		if (positiveResult && mSchemeIndex >= 0) {
+			String value = getEntryValues()[mSchemeIndex].toString();
+			if (callChangeListener(value)) {
+				setValue(value);
+			}
+		}
 		// Get new/current value for disabling dependents.
 		boolean disableDependentsNew = shouldDisableDependents();
 		// If disable dependents value has changed do notification.
@@ -46,6 +72,25 @@ public class FlierColorSchemePreference extends ListPreference {
 		}
 	}
 
+	@Override
+	protected void onPrepareDialogBuilder(AlertDialog.Builder builder) {
+		super.onPrepareDialogBuilder(builder);
+		// Replace list click handling, choosing a scheme only previews it.
+		mSchemeIndex = findIndexOfValue(getValue());
+		builder.setSingleChoiceItems(getEntries(), mSchemeIndex,
+				new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						mSchemeIndex = which;
+						int scheme = Integer.parseInt(getEntryValues()[which]
+								.toString());
+						mPreview.setColors(FlierConfig.getSchemeColors(
+								getContext(), getSharedPreferences(), scheme));
+					}
+				});
+		builder.setPositiveButton(android.R.string.ok, this);
+	}
+
 	@Override
 	public boolean shouldDisableDependents() {
 		return !"0".equals(getPersistedString(null));
@@ -0,0 +1,146 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier.prefs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.PixelFormat;
+import android.preference.PreferenceManager;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import fi.harism.wallpaper.flier.FlierConfig;
+import fi.harism.wallpaper.flier.FlierRenderHost;
+import fi.harism.wallpaper.flier.FlierRenderThread;
+import fi.harism.wallpaper.flier.FlierRenderer;
+
+/**
+ * Live wallpaper preview for preference dialogs. Preview is one more
+ * rendering target of renderer shared with wallpaper service, meaning it
+ * renders the very same scene. Colors can be changed while previewing, they
+ * are passed to renderer as preview colors and applied once per frame as a
+ * palette update, configuration stays untouched until preference is saved.
+ */
+public class FlierPreviewView extends SurfaceView implements
+		SurfaceHolder.Callback {
+
+	// Previewed colors, null until first change.
+	private float[][] mColors;
+	// Rendering target, null while detached from window.
+	private FlierRenderThread.Target mTarget;
+
+	/**
+	 * Default constructor.
+	 */
+	public FlierPreviewView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		getHolder().addCallback(this);
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		FlierRenderHost.acquire(getContext());
+		// Surface format follows wallpaper surfaces, rendering thread uses
+		// one EGL config for all of them.
+		boolean rgb565 = FlierRenderHost.getConfigChooser().getPolicy()
+				.isRgb565Preferred();
+		getHolder().setFormat(
+				rgb565 ? PixelFormat.RGB_565 : PixelFormat.RGBX_8888);
+		FlierRenderer renderer = FlierRenderHost.getRenderer();
+		// Wallpaper service publishes configuration only while running.
+		if (renderer.getConfig() == null) {
+			SharedPreferences preferences = PreferenceManager
+					.getDefaultSharedPreferences(getContext());
+			renderer.setConfig(FlierConfig.fromPreferences(getContext(),
+					preferences));
+		}
+		if (mColors != null) {
+			renderer.setPreviewColors(mColors);
+		}
+		mTarget = FlierRenderHost.getRenderThread().createTarget();
+		mTarget.setVisible(true);
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		FlierRenderHost.getRenderer().setPreviewColors(null);
+		mTarget.release();
+		mTarget = null;
+		FlierRenderHost.release();
+	}
+
+	/**
+	 * Sets one previewed color, other colors are kept.
+	 * 
+	 * @param index
+	 *            One of FlierConfig.COLOR_* indices.
+	 * @param color
+	 *            Color as ARGB integer.
+	 */
+	public void setColor(int index, int color) {
+		if (mColors == null) {
+			SharedPreferences preferences = PreferenceManager
+					.getDefaultSharedPreferences(getContext());
+			FlierConfig config = FlierConfig.fromPreferences(getContext(),
+					preferences);
+			mColors = new float[FlierConfig.COLOR_COUNT][];
+			for (int i = 0; i < FlierConfig.COLOR_COUNT; ++i) {
+				mColors[i] = config.getColor(i);
+			}
+		}
+		float[][] colors = mColors.clone();
+		colors[index] = FlierConfig.toRGB(color);
+		setColors(colors);
+	}
+
+	/**
+	 * Sets all previewed colors. Can be called as often as needed, renderer
+	 * applies latest colors only.
+	 * 
+	 * @param colors
+	 *            FlierConfig.COLOR_COUNT three component RGB values, array
+	 *            must not be modified afterwards.
+	 */
+	public void setColors(float[][] colors) {
+		mColors = colors;
+		if (mTarget != null) {
+			FlierRenderHost.getRenderer().setPreviewColors(colors);
+		}
+	}
+
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width,
+			int height) {
+		if (mTarget != null) {
+			mTarget.onSurfaceChanged(holder, width, height);
+		}
+	}
+
+	@Override
+	public void surfaceCreated(SurfaceHolder holder) {
+	}
+
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		if (mTarget != null) {
+			mTarget.onSurfaceDestroyed();
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FlierDamage merging, and for damage small flock leaves on an
+ * otherwise static scene.
+ */
+public class FlierDamageTest extends TestCase {
+
+	// View size used by tests, scene size of 720x1280 surface at quality 1.
+	private static final int WIDTH = 360, HEIGHT = 640;
+
+	/**
+	 * Returns total area of damage rectangles relative to view.
+	 */
+	private static float getCoverage(FlierDamage damage) {
+		long area = 0;
+		for (int i = 0; i < damage.getRectCount(); ++i) {
+			area += (long) damage.getWidth(i) * damage.getHeight(i);
+		}
+		return (float) area / (WIDTH * HEIGHT);
+	}
+
+	public void testFullCoverage() {
+		FlierDamage damage = new FlierDamage();
+		damage.reset(WIDTH, HEIGHT);
+		damage.add(-1f, -1f, 1f, .3f);
+		assertFalse(damage.isFull());
+		damage.add(-1f, .3f, 1f, .5f);
+		assertTrue(damage.isFull());
+	}
+
+	public void testSeparateGroupsStaySeparate() {
+		// Two groups of small regions in opposite corners, merging a group
+		// into one rectangle is always cheaper than joining the groups.
+		FlierDamage damage = new FlierDamage();
+		damage.reset(WIDTH, HEIGHT);
+		Random random = new Random(1);
+		for (int i = 0; i < 40; ++i) {
+			float x = random.nextFloat() * .2f, y = random.nextFloat() * .2f;
+			if (i % 2 == 0) {
+				damage.add(x - 1f, y - 1f, x - .95f, y - .95f);
+			} else {
+				damage.add(x + .75f, y + .75f, x + .8f, y + .8f);
+			}
+		}
+		assertFalse(damage.isFull());
+		assertTrue(getCoverage(damage) < .05f);
+	}
+
+	public void testSmallFlockIsNotFull() {
+		final long[] nanos = new long[1];
+		FlierClock clock = new FlierClock() {
+			@Override
+			protected long readNanos() {
+				return nanos[0];
+			}
+		};
+		FlierScene scene = new FlierScene(clock,
+				new FlierLayer[] { new FlierFlock() });
+		scene.setConfig(new FlierConfig(1, 1f,
+				new float[FlierConfig.COLOR_COUNT][3]).withPartialRedraw(true)
+				.withFlockSize(32));
+		scene.setSize(WIDTH * 2, HEIGHT * 2);
+		for (int frame = 0; frame < 300; ++frame) {
+			nanos[0] = frame * 16666667L;
+			scene.tick();
+			scene.stepSimulation();
+			scene.update(0);
+			scene.collectDamage(false);
+			// First frame damages planes as they appear.
+			if (frame > 0) {
+				FlierDamage damage = scene.getDamage();
+				assertFalse("frame " + frame, damage.isFull());
+				assertTrue("frame " + frame, getCoverage(damage) < .5f);
+			}
+		}
+	}
+
+}
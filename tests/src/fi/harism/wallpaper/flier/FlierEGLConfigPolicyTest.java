@@ -0,0 +1,112 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FlierEGLConfigPolicy over synthetic config lists. Every list is
+ * scored in both orders, chosen config must not depend on list order.
+ */
+public class FlierEGLConfigPolicyTest extends TestCase {
+
+	// Synthetic configs, red, green, blue, alpha, depth, stencil and surface
+	// type.
+	private static final int[] RGB565 = { 5, 6, 5, 0, 0, 0, 0 };
+	private static final int[] RGB565_PRESERVED = { 5, 6, 5, 0, 0, 0,
+			FlierEGLConfigPolicy.EGL_SWAP_BEHAVIOR_PRESERVED_BIT };
+	private static final int[] RGB888 = { 8, 8, 8, 0, 0, 0, 0 };
+	private static final int[] RGB888_DEPTH = { 8, 8, 8, 0, 24, 8, 0 };
+	private static final int[] RGB888_PRESERVED = { 8, 8, 8, 0, 0, 0,
+			FlierEGLConfigPolicy.EGL_SWAP_BEHAVIOR_PRESERVED_BIT };
+	private static final int[] RGBA8888 = { 8, 8, 8, 8, 0, 0, 0 };
+	private static final int[] RGBA8888_DEPTH_PRESERVED = { 8, 8, 8, 8, 24,
+			8, FlierEGLConfigPolicy.EGL_SWAP_BEHAVIOR_PRESERVED_BIT };
+
+	/**
+	 * Asserts given config is chosen from list regardless of list order.
+	 */
+	private static void assertChosen(FlierEGLConfigPolicy policy,
+			int[] expected, int[]... configs) {
+		int[][] reversed = new int[configs.length][];
+		for (int i = 0; i < configs.length; ++i) {
+			reversed[configs.length - 1 - i] = configs[i];
+		}
+		assertSame(expected, configs[policy.choose(configs)]);
+		assertSame(expected, reversed[policy.choose(reversed)]);
+	}
+
+	public void testEmptyList() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				true);
+		assertEquals(-1, policy.choose(new int[0][]));
+	}
+
+	public void testHighestColorPrecision() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				false);
+		assertChosen(policy, RGB888, RGB565, RGB888);
+	}
+
+	public void testPreservedNeverOutweighsColor() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				true);
+		assertChosen(policy, RGB888, RGB565_PRESERVED, RGB888);
+		policy = new FlierEGLConfigPolicy(true, false, true);
+		assertChosen(policy, RGB565, RGB565, RGB888_PRESERVED);
+	}
+
+	public void testPreservedBreaksTie() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				true);
+		assertChosen(policy, RGB888_PRESERVED, RGB888, RGB888_PRESERVED);
+		policy = new FlierEGLConfigPolicy(true, false, true);
+		assertChosen(policy, RGB565_PRESERVED, RGB565, RGB565_PRESERVED);
+	}
+
+	public void testPreservedOutweighsUnneededBuffers() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				true);
+		assertChosen(policy, RGBA8888_DEPTH_PRESERVED, RGB888,
+				RGBA8888_DEPTH_PRESERVED);
+	}
+
+	public void testPreservedIgnoredUnlessRequested() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				false);
+		assertEquals(policy.score(RGB888), policy.score(RGB888_PRESERVED));
+	}
+
+	public void testRgb565Preferred() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(true, false,
+				false);
+		assertChosen(policy, RGB565, RGB888, RGB565, RGBA8888);
+	}
+
+	public void testUnneededBuffersPenalized() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, false,
+				false);
+		assertChosen(policy, RGB888, RGBA8888, RGB888_DEPTH, RGB888);
+	}
+
+	public void testDepthPreferredWhenNeeded() {
+		FlierEGLConfigPolicy policy = new FlierEGLConfigPolicy(false, true,
+				false);
+		assertChosen(policy, RGB888_DEPTH, RGB888, RGB888_DEPTH);
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FlierMatrix, checking matrices through the points they map
+ * rather than their layout.
+ */
+public class FlierMatrixTest extends TestCase {
+
+	// Allowed error for float results.
+	private static final float EPSILON = 1e-5f;
+
+	/**
+	 * Asserts matrix maps given point into expected one after perspective
+	 * division.
+	 */
+	private static void assertMaps(float[] m, float x, float y, float z,
+			float ex, float ey, float ez) {
+		float[] out = new float[4];
+		FlierMatrix.multiplyMV(out, 0, m, 0, new float[] { x, y, z, 1f }, 0);
+		assertEquals(ex, out[0] / out[3], EPSILON);
+		assertEquals(ey, out[1] / out[3], EPSILON);
+		assertEquals(ez, out[2] / out[3], EPSILON);
+	}
+
+	public void testFrustumAndInverse() {
+		float[] m = new float[16], inv = new float[16], r = new float[16];
+		FlierMatrix.frustumM(m, 0, -.5f, .5f, -1f, 1f, 1f, 6f);
+		assertMaps(m, .5f, 1f, -1f, 1f, 1f, -1f);
+		assertMaps(m, -3f, -6f, -6f, -1f, -1f, 1f);
+		assertTrue(FlierMatrix.invertM(inv, 0, m, 0));
+		FlierMatrix.multiplyMM(r, 0, m, 0, inv, 0);
+		for (int i = 0; i < 16; ++i) {
+			assertEquals(i % 5 == 0 ? 1f : 0f, r[i], EPSILON);
+		}
+		assertFalse(FlierMatrix.invertM(inv, 0, new float[16], 0));
+	}
+
+	public void testLookAt() {
+		float[] m = new float[16];
+		FlierMatrix.setLookAtM(m, 0, 0, 1f, 5f, 0, 0, 0, 0f, 1f, 0f);
+		assertMaps(m, 0, 1f, 5f, 0, 0, 0);
+		assertMaps(m, 1f, 1f, 5f, 1f, 0, 0);
+	}
+
+	public void testOffsets() {
+		float[] m = new float[20];
+		FlierMatrix.setIdentityM(m, 4);
+		FlierMatrix.translateM(m, 4, 1f, 2f, 3f);
+		float[] out = new float[6];
+		FlierMatrix.multiplyMV(out, 2, m, 4, new float[] { 0, 1f, 1f, 1f, 1f },
+				1);
+		assertEquals(2f, out[2], EPSILON);
+		assertEquals(3f, out[3], EPSILON);
+		assertEquals(4f, out[4], EPSILON);
+		assertEquals(1f, out[5], EPSILON);
+	}
+
+	public void testOrtho() {
+		float[] m = new float[16];
+		FlierMatrix.orthoM(m, 0, -1f, 1f, -2f, 2f, 1f, 21f);
+		assertMaps(m, 1f, 2f, -1f, 1f, 1f, -1f);
+		assertMaps(m, -1f, -2f, -21f, -1f, -1f, 1f);
+	}
+
+	public void testRotate() {
+		float[] m = new float[16], r = new float[16];
+		FlierMatrix.setRotateM(m, 0, 90f, 0, 0, 1f);
+		assertMaps(m, 1f, 0, 0, 0, 1f, 0);
+		FlierMatrix.setRotateM(m, 0, 90f, 1f, 0, 0);
+		assertMaps(m, 0, 1f, 0, 0, 0, 1f);
+		FlierMatrix.setRotateM(m, 0, 120f, 1f, 1f, 1f);
+		assertMaps(m, 1f, 0, 0, 0, 1f, 0);
+
+		// Rotating in place is the same as multiplying from the right.
+		FlierMatrix.setIdentityM(m, 0);
+		FlierMatrix.translateM(m, 0, 1f, 0, 0);
+		FlierMatrix.rotateM(m, 0, 90f, 0, 1f, 0);
+		assertMaps(m, 1f, 0, 0, 1f, 0, -1f);
+		FlierMatrix.setRotateM(r, 0, -90f, 0, 1f, 0);
+		FlierMatrix.multiplyMM(r, 0, m.clone(), 0, r.clone(), 0);
+		assertMaps(r, 1f, 2f, 3f, 2f, 2f, 3f);
+	}
+
+	public void testScale() {
+		float[] m = new float[16];
+		FlierMatrix.setIdentityM(m, 0);
+		FlierMatrix.translateM(m, 0, 1f, 0, 0);
+		FlierMatrix.scaleM(m, 0, 2f, 3f, 4f);
+		assertMaps(m, 1f, 1f, 1f, 3f, 3f, 4f);
+	}
+
+}
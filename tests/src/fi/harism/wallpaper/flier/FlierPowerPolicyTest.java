@@ -0,0 +1,103 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import junit.framework.TestCase;
+
+/**
+ * Table driven tests for FlierPowerPolicy. Every table is a sequence of
+ * battery and thermal states fed into one policy instance, each followed by
+ * tier expected after it.
+ */
+public class FlierPowerPolicyTest extends TestCase {
+
+	// Shorthands for tiers.
+	private static final int FULL = FlierPowerPolicy.TIER_FULL;
+	private static final int BALANCED = FlierPowerPolicy.TIER_BALANCED;
+	private static final int SAVING = FlierPowerPolicy.TIER_SAVING;
+	private static final int CRITICAL = FlierPowerPolicy.TIER_CRITICAL;
+
+	/**
+	 * Runs given steps through new policy instance.
+	 * 
+	 * @param steps
+	 *            Steps as battery level, charging flag as 0 or 1,
+	 *            temperature and expected tier.
+	 */
+	private static void assertSteps(float[][] steps) {
+		FlierPowerPolicy policy = new FlierPowerPolicy();
+		int tier = policy.getTier();
+		for (int i = 0; i < steps.length; ++i) {
+			float[] step = steps[i];
+			boolean changed = policy.update(step[0], step[1] != 0f, step[2]);
+			int expected = (int) step[3];
+			assertEquals("step " + i, expected, policy.getTier());
+			assertEquals("step " + i + " change", expected != tier, changed);
+			tier = expected;
+		}
+	}
+
+	public void testBatteryEntersBelowThreshold() {
+		assertSteps(new float[][] { { 1f, 0, 25f, FULL },
+				{ .30f, 0, 25f, FULL }, { .29f, 0, 25f, BALANCED },
+				{ .14f, 0, 25f, SAVING }, { .04f, 0, 25f, CRITICAL } });
+	}
+
+	public void testBatteryRelaxesPastMargin() {
+		assertSteps(new float[][] { { .29f, 0, 25f, BALANCED },
+				{ .30f, 0, 25f, BALANCED }, { .34f, 0, 25f, BALANCED },
+				{ .36f, 0, 25f, FULL }, { .31f, 0, 25f, FULL },
+				{ .29f, 0, 25f, BALANCED } });
+	}
+
+	public void testBatteryRelaxesOneTierAtATime() {
+		assertSteps(new float[][] { { .04f, 0, 25f, CRITICAL },
+				{ .09f, 0, 25f, CRITICAL }, { .11f, 0, 25f, SAVING },
+				{ .19f, 0, 25f, SAVING }, { .21f, 0, 25f, BALANCED },
+				{ .5f, 0, 25f, FULL } });
+	}
+
+	public void testTemperatureEntersAtThreshold() {
+		assertSteps(new float[][] { { 1f, 0, 39.9f, FULL },
+				{ 1f, 0, 40f, BALANCED }, { 1f, 0, 43f, SAVING },
+				{ 1f, 0, 46f, CRITICAL } });
+	}
+
+	public void testTemperatureRelaxesPastMargin() {
+		assertSteps(new float[][] { { 1f, 0, 40f, BALANCED },
+				{ 1f, 0, 39f, BALANCED }, { 1f, 0, 38.5f, BALANCED },
+				{ 1f, 0, 37.5f, FULL }, { 1f, 0, 39.5f, FULL },
+				{ 1f, 0, 40f, BALANCED } });
+	}
+
+	public void testChargingIgnoresBattery() {
+		assertSteps(new float[][] { { .04f, 0, 25f, CRITICAL },
+				{ .04f, 1, 25f, FULL }, { .04f, 0, 25f, CRITICAL } });
+	}
+
+	public void testChargingWhileHot() {
+		assertSteps(new float[][] { { .1f, 1, 44f, SAVING },
+				{ .1f, 1, 42f, SAVING }, { .1f, 1, 40.5f, BALANCED },
+				{ .1f, 1, 37f, FULL }, { .1f, 1, 47f, CRITICAL } });
+	}
+
+	public void testMoreRestrictiveOfBatteryAndTemperature() {
+		assertSteps(new float[][] { { .29f, 0, 44f, SAVING },
+				{ .29f, 0, 37f, BALANCED }, { .14f, 0, 41f, SAVING } });
+	}
+
+}
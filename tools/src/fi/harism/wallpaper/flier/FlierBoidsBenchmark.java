@@ -0,0 +1,62 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+/**
+ * Benchmark for boids simulation. Measures time per simulation step for
+ * increasing flock sizes, time per boid should stay roughly constant as
+ * neighbor queries go through spatial hash. Has no Android dependencies and
+ * can be run on desktop JVM with compiled classes in class path. Lives in
+ * tools source folder, meaning it is not packaged into application.
+ */
+public final class FlierBoidsBenchmark {
+
+	// Flock sizes to measure.
+	private static final int[] FLOCK_SIZES = { 64, 128, 256, 512, 1024, 2048,
+			4096 };
+	// Number of measured steps per flock size.
+	private static final int MEASURE_STEPS = 500;
+	// Simulation time step.
+	private static final float STEP_SECONDS = 1f / 30;
+	// Number of steps run before measuring.
+	private static final int WARMUP_STEPS = 200;
+
+	/**
+	 * Runs benchmark and prints results into standard output.
+	 * 
+	 * @param args
+	 *            Ignored.
+	 */
+	public static void main(String[] args) {
+		System.out.println("boids\tus/step\tns/boid");
+		for (int size : FLOCK_SIZES) {
+			FlierBoids boids = new FlierBoids(size);
+			boids.setCount(size);
+			for (int i = 0; i < WARMUP_STEPS; ++i) {
+				boids.step(STEP_SECONDS);
+			}
+			long startNanos = System.nanoTime();
+			for (int i = 0; i < MEASURE_STEPS; ++i) {
+				boids.step(STEP_SECONDS);
+			}
+			long stepNanos = (System.nanoTime() - startNanos) / MEASURE_STEPS;
+			System.out.println(size + "\t" + stepNanos / 1000 + "\t"
+					+ stepNanos / size);
+		}
+	}
+
+}
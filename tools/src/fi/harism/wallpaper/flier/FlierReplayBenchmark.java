@@ -0,0 +1,358 @@
+/*
+   Copyright 2012 Harri Smtt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.flier;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark replaying input recorded with FlierReplayRecorder. Frames are
+ * driven from recorded frame times through synthetic clock, and simulation
+ * is stepped synchronously instead of on its own thread. Clouds are spawned
+ * with a fixed seed, meaning every run produces exactly the same scene.
+ * Frames go through FlierScene, the same CPU path renderer uses, with all
+ * default layers. GL work is not replayed, it is measured on device with
+ * pass timings instead. Can be run on desktop JVM with compiled classes in
+ * class path, optional argument being path to replay file.
+ */
+public final class FlierReplayBenchmark {
+
+	// Replay file used if none is given.
+	private static final String DEFAULT_FILE =
+			"replay/scroll_home_screens.txt";
+	// Seed for spawning clouds.
+	private static final long CLOUD_SEED = 1;
+	// Preference keys affecting replayed layers.
+	private static final String KEY_BRIGHTNESS = "key_general_brightness";
+	private static final String KEY_FLOCK = "key_general_flock";
+	private static final String KEY_LAYERED = "key_general_layered";
+	private static final String KEY_PARTIAL_REDRAW =
+			"key_general_partial_redraw";
+	private static final String KEY_QUALITY = "key_general_quality";
+	private static final String KEY_TESSELLATED = "key_general_tessellated";
+	// Number of measured runs.
+	private static final int MEASURE_RUNS = 5;
+	// Maximum time to wait for snapshot, simulation is stepped in advance.
+	private static final long SNAPSHOT_TIMEOUT_MILLIS = 0;
+	// Number of runs before measuring.
+	private static final int WARMUP_RUNS = 3;
+
+	/**
+	 * Creates configuration from recorded preference values, using the same
+	 * defaults as FlierConfig.fromPreferences. Colors are not needed for
+	 * replay and are left black.
+	 * 
+	 * @param preferences
+	 *            Preference values by key.
+	 * @return New configuration instance.
+	 */
+	private static FlierConfig createConfig(
+			HashMap<String, String> preferences) {
+		int quality = Integer.parseInt(getValue(preferences, KEY_QUALITY, "1"));
+		float brightness = Integer.parseInt(getValue(preferences,
+				KEY_BRIGHTNESS, "100")) / 100f;
+		boolean partialRedraw = Boolean.parseBoolean(getValue(preferences,
+				KEY_PARTIAL_REDRAW, "false"));
+		boolean layered = Boolean.parseBoolean(getValue(preferences,
+				KEY_LAYERED, "false"));
+		boolean tessellated = Boolean.parseBoolean(getValue(preferences,
+				KEY_TESSELLATED, "false"));
+		int flockSize = Integer.parseInt(getValue(preferences, KEY_FLOCK, "0"));
+		float[][] colors = new float[FlierConfig.COLOR_COUNT][3];
+		return new FlierConfig(quality, brightness, colors)
+				.withPartialRedraw(partialRedraw).withLayered(layered)
+				.withTessellated(tessellated).withSharpUpscale(true)
+				.withWarmResume(true).withFlockSize(flockSize);
+	}
+
+	/**
+	 * Returns number of bytes allocated by current thread so far. HotSpot
+	 * thread bean is accessed through reflection as management classes are
+	 * not available on Android.
+	 * 
+	 * @return Allocated bytes, or -1 if not supported by JVM.
+	 */
+	private static long getAllocatedBytes() {
+		try {
+			Class<?> factory = Class
+					.forName("java.lang.management.ManagementFactory");
+			Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+			Method method = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(bean, Thread.currentThread().getId());
+		} catch (Exception ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Calculates ratio of damaged area to whole surface.
+	 * 
+	 * @param damage
+	 *            Damage collected for a frame.
+	 * @param width
+	 *            Surface width.
+	 * @param height
+	 *            Surface height.
+	 * @return Value between [0, 1].
+	 */
+	private static float getDamageRatio(FlierDamage damage, int width,
+			int height) {
+		if (damage.isFull() || width <= 0 || height <= 0) {
+			return 1f;
+		}
+		long area = 0;
+		for (int i = 0; i < damage.getRectCount(); ++i) {
+			area += (long) damage.getWidth(i) * damage.getHeight(i);
+		}
+		return Math.min(1f, (float) area / ((long) width * height));
+	}
+
+	/**
+	 * Returns preference value or default value if it has not been
+	 * recorded.
+	 * 
+	 * @param preferences
+	 *            Preference values by key.
+	 * @param key
+	 *            Preference key.
+	 * @param defValue
+	 *            Default value.
+	 * @return Preference value.
+	 */
+	private static String getValue(HashMap<String, String> preferences,
+			String key, String defValue) {
+		String value = preferences.get(key);
+		return value == null || value.equals("null") ? defValue : value;
+	}
+
+	/**
+	 * Runs benchmark and prints results into standard output.
+	 * 
+	 * @param args
+	 *            Optional path to replay file.
+	 * @throws IOException
+	 *             If replay file can not be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<Event> events = readEvents(args.length > 0 ? args[0]
+				: DEFAULT_FILE);
+		for (int i = 0; i < WARMUP_RUNS; ++i) {
+			replay(events);
+		}
+		System.out.println("run\tframes\tavg us\tp95 us\tmax us\tB/frame"
+				+ "\tdamage %\tchecksum");
+		for (int i = 0; i < MEASURE_RUNS; ++i) {
+			Result result = replay(events);
+			long[] frameNanos = result.mFrameNanos;
+			int count = frameNanos.length;
+			long totalNanos = 0;
+			for (long nanos : frameNanos) {
+				totalNanos += nanos;
+			}
+			Arrays.sort(frameNanos);
+			System.out.println((i + 1) + "\t" + count + "\t"
+					+ totalNanos / count / 1000 + "\t"
+					+ frameNanos[count * 95 / 100] / 1000 + "\t"
+					+ frameNanos[count - 1] / 1000 + "\t"
+					+ result.mAllocatedBytes / count + "\t"
+					+ Math.round(result.mDamage * 100 / count) + "\t"
+					+ Integer.toHexString(result.mChecksum));
+		}
+	}
+
+	/**
+	 * Reads and parses replay file. Events are sorted by time as frame and
+	 * input events are written from different threads.
+	 * 
+	 * @param path
+	 *            Replay file path.
+	 * @return Events sorted by time.
+	 * @throws IOException
+	 *             If file can not be read.
+	 */
+	private static List<Event> readEvents(String path) throws IOException {
+		List<Event> events = new ArrayList<Event>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split(" ");
+				Event event = new Event();
+				event.mTimeNanos = Long.parseLong(words[0]) * 1000;
+				event.mType = words[1];
+				event.mArg1 = words.length > 2 ? words[2] : null;
+				event.mArg2 = words.length > 3 ? words[3] : null;
+				events.add(event);
+			}
+		} finally {
+			reader.close();
+		}
+		// Sort is stable, events with equal times keep their order.
+		Collections.sort(events, new Comparator<Event>() {
+			@Override
+			public int compare(Event lhs, Event rhs) {
+				return lhs.mTimeNanos < rhs.mTimeNanos ? -1
+						: lhs.mTimeNanos > rhs.mTimeNanos ? 1 : 0;
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Replays events once with fresh layers.
+	 * 
+	 * @param events
+	 *            Events sorted by time.
+	 * @return Replay statistics.
+	 */
+	private static Result replay(List<Event> events) {
+		ReplayClock clock = new ReplayClock();
+		FlierScene scene = new FlierScene(clock, new FlierLayer[] {
+				new FlierWaves(), new FlierFlock(), new FlierPlane(),
+				new FlierClouds(new Random(CLOUD_SEED)) });
+		HashMap<String, String> preferences = new HashMap<String, String>();
+		FlierConfig config = null;
+		boolean configChanged = true;
+		boolean fullRedraw = true;
+		boolean resizeNeeded = false;
+		boolean visible = true;
+		int width = 0, height = 0;
+
+		int frameCount = 0;
+		for (Event event : events) {
+			if (event.mType.equals(FlierReplayRecorder.EVENT_FRAME)) {
+				++frameCount;
+			}
+		}
+		Result result = new Result();
+		result.mFrameNanos = new long[frameCount];
+		long startBytes = getAllocatedBytes();
+
+		int frame = 0;
+		for (Event event : events) {
+			String type = event.mType;
+			if (type.equals(FlierReplayRecorder.EVENT_OFFSET)) {
+				scene.setXOffset(Float.parseFloat(event.mArg1),
+						event.mTimeNanos);
+			} else if (type.equals(FlierReplayRecorder.EVENT_PREFERENCE)) {
+				preferences.put(event.mArg1, event.mArg2);
+				configChanged = true;
+			} else if (type.equals(FlierReplayRecorder.EVENT_SURFACE)) {
+				width = Integer.parseInt(event.mArg1);
+				height = Integer.parseInt(event.mArg2);
+				resizeNeeded = true;
+			} else if (type.equals(FlierReplayRecorder.EVENT_VISIBILITY)) {
+				boolean wasVisible = visible;
+				visible = event.mArg1.equals("1");
+				if (visible && !wasVisible) {
+					clock.resume();
+				}
+			} else if (type.equals(FlierReplayRecorder.EVENT_FRAME)) {
+				long startNanos = System.nanoTime();
+				// Configuration and resize are applied the way renderer
+				// does, both redraw whole scene.
+				if (configChanged) {
+					FlierConfig prevConfig = config;
+					config = createConfig(preferences);
+					scene.setConfig(config);
+					if (prevConfig == null
+							|| prevConfig.getQuality() != config.getQuality()) {
+						resizeNeeded = true;
+					}
+					configChanged = false;
+					fullRedraw = true;
+				}
+				if (resizeNeeded && width > 0 && height > 0) {
+					scene.setSize(width, height);
+					resizeNeeded = false;
+					fullRedraw = true;
+				}
+
+				clock.mNanos = event.mTimeNanos;
+				scene.tick();
+				scene.stepSimulation();
+				scene.update(SNAPSHOT_TIMEOUT_MILLIS);
+				scene.collectDamage(fullRedraw || !config.isPartialRedraw());
+				fullRedraw = false;
+				result.mFrameNanos[frame++] = System.nanoTime() - startNanos;
+
+				// Damage and state checksum are identical on every run.
+				FlierDamage damage = scene.getDamage();
+				result.mDamage += getDamageRatio(damage, scene.getWidth(),
+						scene.getHeight());
+				FlierSnapshot snapshot = scene.getSnapshot();
+				for (int i = 0; i < scene.getLayers().length; ++i) {
+					result.mChecksum = 31 * result.mChecksum
+							+ Arrays.hashCode(snapshot.getState(i));
+				}
+			}
+		}
+		if (startBytes >= 0) {
+			result.mAllocatedBytes = getAllocatedBytes() - startBytes;
+		}
+		return result;
+	}
+
+	/**
+	 * One recorded event.
+	 */
+	private static final class Event {
+		public String mArg1, mArg2;
+		public long mTimeNanos;
+		public String mType;
+	}
+
+	/**
+	 * Clock reading recorded frame times.
+	 */
+	private static final class ReplayClock extends FlierClock {
+
+		// Current recorded time.
+		public long mNanos;
+
+		@Override
+		protected long readNanos() {
+			return mNanos;
+		}
+
+	}
+
+	/**
+	 * Statistics of one replay run.
+	 */
+	private static final class Result {
+		public long mAllocatedBytes;
+		public int mChecksum;
+		public float mDamage;
+		public long[] mFrameNanos;
+	}
+
+}